@@ -55,7 +55,7 @@ v = np.ones((num_pages, 1)) / num_pages
 # repeated multiply by the tranisiton matrix and then normalize the resulting
 # vector, checking for convergence each time
 v_prev = None
-for i in xrange(300):
+for i in range(300):
     v = (1 - teleportation_rate) * M.dot(v)
     v = v + (1 - np.sum(v)) / len(v)
     if v_prev is not None:
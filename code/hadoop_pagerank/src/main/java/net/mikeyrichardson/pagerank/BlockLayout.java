@@ -0,0 +1,150 @@
+package net.mikeyrichardson.pagerank;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Scanner;
+
+/**
+ * The division of the pages into the blocks that the transition matrix and the
+ * vector are split into. Block k holds the pages from boundary k up to but not
+ * including boundary k + 1. Without "map.block.boundaries" the "map.divs.num" blocks
+ * have equal numbers of pages, with the first numPages % numDivs blocks one page
+ * longer than the rest. Balanced boundaries are worked out from a histogram of the
+ * in-degrees so that every block row holds about the same number of matrix entries.
+ * @author Michael Richardson
+ *
+ */
+public class BlockLayout {
+
+    final public static String BOUNDARIES_FILE = "_boundaries";
+
+    private final long[] boundaries;
+
+    public BlockLayout(long[] boundaries) {
+        this.boundaries = boundaries;
+    }
+
+    public static BlockLayout fromConfiguration(Configuration conf) {
+        String boundaries = conf.get("map.block.boundaries");
+        if (boundaries != null) {
+            return new BlockLayout(PageDictionary.parseOffsets(boundaries));
+        }
+        return equalPages(conf.getInt("map.pages.num", 1000000), conf.getInt("map.divs.num", 2));
+    }
+
+    public static BlockLayout equalPages(long numPages, int numDivs) {
+        long numPagesPerDiv = numPages / numDivs;
+        long numDivsWithOneExtraPage = numPages % numDivs;
+        long[] boundaries = new long[numDivs + 1];
+        for (int block = 1; block <= numDivs; block++) {
+            boundaries[block] = boundaries[block - 1] + numPagesPerDiv
+                    + (block <= numDivsWithOneExtraPage ? 1 : 0);
+        }
+        return new BlockLayout(boundaries);
+    }
+
+    /**
+     * Places the boundaries so that every block gets about the same weight, where the
+     * weight of a page is its in-degree plus one for the rank written out for it. The
+     * in-degrees are counted per bucket of bucketSize consecutive pages, so boundaries
+     * fall between buckets unless a bucket is heavy enough to need several. Every
+     * block gets at least one page.
+     */
+    public static BlockLayout balanced(long[] inDegreeHistogram, long bucketSize, long numPages,
+            int numDivs) {
+        double totalWeight = numPages;
+        for (long count : inDegreeHistogram) {
+            totalWeight += count;
+        }
+        long[] boundaries = new long[numDivs + 1];
+        boundaries[numDivs] = numPages;
+        int block = 1;
+        double weight = 0.0;
+        for (int bucket = 0; bucket < inDegreeHistogram.length && block < numDivs; bucket++) {
+            long bucketStart = bucket * bucketSize;
+            long bucketPages = Math.min(bucketSize, numPages - bucketStart);
+            double bucketWeight = inDegreeHistogram[bucket] + bucketPages;
+            // a bucket that spans several blocks is split evenly between its pages
+            while (block < numDivs && weight + bucketWeight >= block * totalWeight / numDivs) {
+                double share = (block * totalWeight / numDivs - weight) / bucketWeight;
+                boundaries[block++] = bucketStart + Math.round(share * bucketPages);
+            }
+            weight += bucketWeight;
+        }
+        for (int k = 1; k < numDivs; k++) {
+            boundaries[k] = Math.min(Math.max(boundaries[k], boundaries[k - 1] + 1), numPages - (numDivs - k));
+        }
+        return new BlockLayout(boundaries);
+    }
+
+    public int getNumBlocks() {
+        return boundaries.length - 1;
+    }
+
+    public long getNumPages() {
+        return boundaries[boundaries.length - 1];
+    }
+
+    public long blockOffset(int block) {
+        return boundaries[block];
+    }
+
+    public int blockLength(int block) {
+        return (int) (boundaries[block + 1] - boundaries[block]);
+    }
+
+    public int maxBlockLength() {
+        int maxLength = 0;
+        for (int block = 0; block < getNumBlocks(); block++) {
+            maxLength = Math.max(maxLength, blockLength(block));
+        }
+        return maxLength;
+    }
+
+    /**
+     * The same blocks with the pages from the end of the last block up to numPages
+     * added to it, so the pages of the other blocks keep their block coordinates.
+     */
+    public BlockLayout extendedTo(long numPages) {
+        long[] extended = boundaries.clone();
+        extended[extended.length - 1] = numPages;
+        return new BlockLayout(extended);
+    }
+
+    // the block that holds the page
+    public int blockOf(long page) {
+        int index = Arrays.binarySearch(boundaries, page);
+        if (index >= 0) {
+            // skip over any empty blocks that start at the same page
+            while (index + 1 < boundaries.length - 1 && boundaries[index + 1] == page) {
+                index++;
+            }
+            return index;
+        }
+        return -index - 2;
+    }
+
+    @Override
+    public String toString() {
+        return PageDictionary.formatOffsets(boundaries);
+    }
+
+    public static BlockLayout read(FileSystem fs, Path boundariesPath) throws IOException {
+        Scanner scanner = new Scanner(fs.open(boundariesPath));
+        String boundaries = scanner.nextLine();
+        scanner.close();
+        return new BlockLayout(PageDictionary.parseOffsets(boundaries));
+    }
+
+    public void write(FileSystem fs, Path boundariesPath) throws IOException {
+        PrintWriter writer = new PrintWriter(fs.create(boundariesPath, true));
+        writer.println(toString());
+        writer.close();
+    }
+
+}
@@ -0,0 +1,166 @@
+package net.mikeyrichardson.pagerank;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.JobContext;
+
+import net.mikeyrichardson.pagerank.MultiplyMatrixAndVector.BlockMultiplicationReducer;
+import net.mikeyrichardson.pagerank.TileMultiplication.PartialSumReducer;
+import net.mikeyrichardson.pagerank.io.BlockEntryKey;
+import net.mikeyrichardson.pagerank.io.MatrixBlockWritable;
+import net.mikeyrichardson.pagerank.io.VectorFileReader;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.BitSet;
+
+/**
+ * This class contains the mapper and reducer of the broadcast iteration. When the
+ * whole vector fits in the memory of a task, every task gets the vector files through
+ * the distributed cache instead of having the vector blocks shuffled to the reducers.
+ * The mappers read the blocks of the partitioned matrix, multiply them by the vector
+ * they hold and add up the products of every row they touch, so only one partial sum
+ * per page and mapper goes through the shuffle. The reducers add up the partial sums
+ * and finish the iteration the way a fused one does.
+ * @author Michael Richardson
+ *
+ */
+public class BroadcastMultiplication {
+
+    /**
+     * Multiplies the matrix blocks of its split by the vector and writes the partial
+     * sums of the rows they reach once the split is done.
+     */
+    public static class BroadcastMultiplicationMapper extends
+            IterationReport.AllocationCountingMapper<BlockEntryKey, MatrixBlockWritable, LongWritable, DoubleWritable> {
+
+        private BlockLayout layout;
+        private double[][] vectorBlocks;
+        private double[][] partialBlocks;
+
+        @Override
+        public void setup(Context context) throws IOException {
+            this.layout = BlockLayout.fromConfiguration(context.getConfiguration());
+            this.vectorBlocks = readBroadcastVector(context, layout);
+            this.partialBlocks = new double[layout.getNumBlocks()][];
+        }
+
+        @Override
+        public void map(BlockEntryKey key, MatrixBlockWritable value, Context context) {
+            int blockRow = key.row.get();
+            if (partialBlocks[blockRow] == null) {
+                partialBlocks[blockRow] = new double[layout.blockLength(blockRow)];
+            }
+            BlockMultiplicationReducer.multiplyColumns(value, vectorBlocks[key.col.get()], partialBlocks[blockRow]);
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            LongWritable page = new LongWritable();
+            DoubleWritable sum = new DoubleWritable();
+            for (int blockRow = 0; blockRow < partialBlocks.length; blockRow++) {
+                double[] partialBlock = partialBlocks[blockRow];
+                if (partialBlock == null) {
+                    continue;
+                }
+                long rowOffset = layout.blockOffset(blockRow);
+                for (int row = 0; row < partialBlock.length; row++) {
+                    if (partialBlock[row] != 0.0) {
+                        page.set(rowOffset + row);
+                        sum.set(partialBlock[row]);
+                        context.write(page, sum);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds up the partial sums of each page like PartialSumReducer and spreads the rank
+     * that does not reach any page through a link over all pages, as the fused
+     * BlockMultiplicationReducer does. The reducer has the whole previous vector too, so
+     * it works out the rank of the dangling pages itself and adds up the differences
+     * from the previous ranks.
+     */
+    public static class BroadcastSumReducer extends PartialSumReducer {
+
+        private double[][] vectorBlocks;
+        private double normAmount = 0.0;
+
+        @Override
+        public void setup(Context context) throws IOException {
+            super.setup(context);
+            Configuration conf = context.getConfiguration();
+            vectorBlocks = readBroadcastVector(context, layout);
+            int numPages = conf.getInt("map.pages.num", 1000000);
+            BitSet pagesWithOutLinks = BlockMultiplicationReducer.readPagesWithOutLinks(conf,
+                    new Path(conf.get("map.outlinks.path")), numPages);
+            double vectorMass = 0.0;
+            double danglingMass = 0.0;
+            for (int block = 0; block < vectorBlocks.length; block++) {
+                long offset = layout.blockOffset(block);
+                for (int row = 0; row < vectorBlocks[block].length; row++) {
+                    vectorMass += vectorBlocks[block][row];
+                    if (!pagesWithOutLinks.get((int) (offset + row))) {
+                        danglingMass += vectorBlocks[block][row];
+                    }
+                }
+            }
+            double linkedSum = (1 - teleportationRate) * (vectorMass - danglingMass);
+            normAmount = (1 - linkedSum) / numPages;
+        }
+
+        @Override
+        protected void writeRank(long page, double sum, Context context)
+                throws IOException, InterruptedException {
+            int block = layout.blockOf(page);
+            double product = (1 - teleportationRate) * sum + normAmount;
+            statistics.addDifference(Math.abs(product - vectorBlocks[block][(int) (page - layout.blockOffset(block))]));
+            statistics.vectorSum += product;
+            outPage.set(page);
+            outRank.set(product);
+            context.write(outPage, outRank);
+        }
+    }
+
+    /**
+     * Reads the vector files of the distributed cache, packed or not, into one array per
+     * block. The local copies are read when the framework has made them, and the original
+     * files otherwise.
+     */
+    @SuppressWarnings("deprecation")
+    static double[][] readBroadcastVector(JobContext context, BlockLayout layout) throws IOException {
+        Configuration conf = context.getConfiguration();
+        double[][] vectorBlocks = new double[layout.getNumBlocks()][];
+        for (int block = 0; block < vectorBlocks.length; block++) {
+            vectorBlocks[block] = new double[layout.blockLength(block)];
+        }
+        Path[] paths = context.getLocalCacheFiles();
+        FileSystem fs = FileSystem.getLocal(conf);
+        if (paths == null || paths.length == 0) {
+            URI[] uris = context.getCacheFiles();
+            paths = new Path[uris.length];
+            for (int i = 0; i < uris.length; i++) {
+                paths[i] = new Path(uris[i]);
+            }
+            fs = paths.length > 0 ? paths[0].getFileSystem(conf) : fs;
+        }
+        LongWritable page = new LongWritable();
+        DoubleWritable rank = new DoubleWritable();
+        for (Path path : paths) {
+            VectorFileReader reader = new VectorFileReader(conf, 
+                    SequenceFile.Reader.file(fs.makeQualified(path)));
+            while (reader.next(page, rank)) {
+                int block = layout.blockOf(page.get());
+                vectorBlocks[block][(int) (page.get() - layout.blockOffset(block))] = rank.get();
+            }
+            reader.close();
+        }
+        return vectorBlocks;
+    }
+
+}
@@ -5,39 +5,74 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Scanner;
 import java.util.TreeMap;
 
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.InputFormat;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.TaskCounter;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.KeyValueTextInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
 import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.reduce.LongSumReducer;
 import org.apache.hadoop.util.GenericOptionsParser;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
+import net.mikeyrichardson.pagerank.BroadcastMultiplication.BroadcastMultiplicationMapper;
+import net.mikeyrichardson.pagerank.BroadcastMultiplication.BroadcastSumReducer;
 import net.mikeyrichardson.pagerank.ConvergenceChecker.AbsoluteDifferenceCombiner;
 import net.mikeyrichardson.pagerank.ConvergenceChecker.AbsoluteDifferenceReducer;
-import net.mikeyrichardson.pagerank.TransitionMatrixCreator.TransitionMatrixReducer;
+import net.mikeyrichardson.pagerank.TileMultiplication.PagePartitioner;
+import net.mikeyrichardson.pagerank.TileMultiplication.PartialSumCombiner;
+import net.mikeyrichardson.pagerank.TileMultiplication.PartialSumReducer;
+import net.mikeyrichardson.pagerank.TileMultiplication.TileMultiplicationReducer;
+import net.mikeyrichardson.pagerank.TileMultiplication.TilePartitioner;
+import net.mikeyrichardson.pagerank.TransitionMatrixCreator.InDegreeMapper;
+import net.mikeyrichardson.pagerank.TransitionMatrixCreator.MatrixBlockCounter;
+import net.mikeyrichardson.pagerank.TransitionMatrixCreator.MatrixBlockReducer;
 import net.mikeyrichardson.pagerank.io.BlockEntryKey;
+import net.mikeyrichardson.pagerank.io.EdgeListInputFormat;
+import net.mikeyrichardson.pagerank.io.ProvisionalIdWritable;
+import net.mikeyrichardson.pagerank.io.MatrixBlockWritable;
 import net.mikeyrichardson.pagerank.io.MatrixEntryWritable;
-import net.mikeyrichardson.pagerank.TransitionMatrixCreator.BlockCalculationMapper;
+import net.mikeyrichardson.pagerank.io.PackedVectorInputFormat;
+import net.mikeyrichardson.pagerank.io.PackedVectorOutputFormat;
+import net.mikeyrichardson.pagerank.io.VectorBlockWritable;
+import net.mikeyrichardson.pagerank.io.VectorFileReader;
 import net.mikeyrichardson.pagerank.MultiplyMatrixAndVector.BlockMultiplicationReducer;
 import net.mikeyrichardson.pagerank.MultiplyMatrixAndVector.RowPartitioner;
+import net.mikeyrichardson.pagerank.MultiplyMatrixAndVector.FrozenVectorMapper;
+import net.mikeyrichardson.pagerank.MultiplyMatrixAndVector.NewlyFrozenVectorMapper;
+import net.mikeyrichardson.pagerank.MultiplyMatrixAndVector.PackedVectorMapper;
 import net.mikeyrichardson.pagerank.MultiplyMatrixAndVector.VectorMapper;
 import net.mikeyrichardson.pagerank.NormalizeVector.NormalizeMapper;
+import net.mikeyrichardson.pagerank.PageDictionary.EdgeEncodingReducer;
+import net.mikeyrichardson.pagerank.PageDictionary.LinkMapper;
+import net.mikeyrichardson.pagerank.PageDictionary.MarkerCombiner;
+import net.mikeyrichardson.pagerank.PageDictionary.ProvisionalIdReducer;
 
 
 /**
@@ -53,228 +88,1171 @@ import net.mikeyrichardson.pagerank.NormalizeVector.NormalizeMapper;
  */
 public class CalculatePageRank extends Configured implements Tool {
     
-    public static enum PageRankEnums { NUM_PAGES, VECTOR_SUM, ABS_DIFF_SUM };
+    final public static String STATE_FILE = "_state";
+    
+    public static enum PageRankEnums { NUM_PAGES, VECTOR_SUM, ABS_DIFF_SUM, 
+        FROZEN_PAGES, FROZEN_MASS, FROZEN_DANGLING_MASS, 
+        EXTRAPOLATION_11, EXTRAPOLATION_12, EXTRAPOLATION_22, EXTRAPOLATION_13, EXTRAPOLATION_23,
+        ALLOCATED_BYTES };
+
+    // how the stages of a run start: from the graph, from the work directory of an
+    // earlier run and an edge delta, or from the checkpoint of a failed run
+    private static enum RunMode { FULL, INCREMENTAL, RESUMED };
+
+    private IterationReport report;
+
+    // the temp directory of the run and the files the stages pass on to each other
+    private Path pathTmp;
+    private Path pathTmpInput;
+    private Path pathTmpProvisional;
+    private Path pathTmpDictionary;
+    private Path pathTmpGraph;
+    private Path pathTmpMatrix;
+    private Path pathTmpMatrixPartitioned;
+    private Path pathTmpOutLinks;
+    private Path pathTmpVector;
+    private Path pathTmpHistory;
+    private Path pathTmpOlderHistory;
+    private Path pathTmpResult;
+    private Path pathTmpPartial;
+    private Path pathTmpNormed;
+    private Path pathTmpAbsDiff;
+    private Path pathTmpOutput;
+    private Path pathTmpPartitions;
+    private Path pathTmpJoined;
+    private Path pathState;
+    private Path pathCheckpoint;
+    // the pages, divs and balancing of the earlier run an incremental run builds on
+    private long[] previousState;
+    // the in-memory dictionary of small graphs
+    private TwoWayLookUp<String> twoWayLookUp;
 
     public int run(String[] allArgs) throws Exception {
         String[] args = new GenericOptionsParser(getConf(), allArgs)
                 .getRemainingArgs();
+        // "--resume" picks up a failed run from the last checkpoint in its work directory
+        boolean resume = false;
+        if (args.length > 0 && args[0].equals("--resume")) {
+            resume = true;
+            args = Arrays.copyOfRange(args, 1, args.length);
+        }
         File graphFile = new File(args[0]);
         File outputFile = new File(args[1]);
-        if (!graphFile.exists()) {
+
+        // graphs that fit in memory can be handled without Hadoop jobs at all
+        String engine = getConf().get("pagerank.engine", "mapreduce");
+        if (engine.equals("local")) {
+            return new LocalPageRankEngine(getConf()).run(graphFile, outputFile);
+        }
+
+        // the graph file may be on the local file system or already on HDFS
+        FileSystem fs = FileSystem.get(getConf());
+        if (getConf().get("map.report.path") != null) {
+            report = new IterationReport(fs, new Path(getConf().get("map.report.path")));
+        }
+        boolean localDictionary = getConf().getBoolean("map.dictionary.local", false);
+        if (!resume && !graphFile.exists() && (localDictionary || !fs.exists(new Path(args[0])))) {
             System.err.println("Input file does not exist");
             return 1;
         }
-        
-        // create the temp directories
-        FileSystem fs = FileSystem.get(getConf());
-        Path pathTmp = new Path("/tmp/tmp" + (int)(Math.random() * 10000000));
-        while (fs.exists(pathTmp)) {
+
+        Properties checkpoint = null;
+        if (resume) {
+            if (getConf().get("map.work.dir") != null) {
+                checkpoint = Checkpoint.read(fs, new Path(getConf().get("map.work.dir")));
+            }
+            if (checkpoint == null || !engine.equals("mapreduce")) {
+                System.err.println("--resume needs the map.work.dir of a mapreduce run with a checkpoint");
+                return 1;
+            }
+            Checkpoint.restoreSettings(checkpoint, getConf());
+        }
+        if (!checkSettings(fs, resume, engine))
+            return 1;
+
+        // Every stage below decides once how it starts: a full run starts from the graph,
+        // an incremental run from the work directory of an earlier run and an edge delta,
+        // and a resumed run from the last checkpoint of a failed one.
+        RunMode mode = resume ? RunMode.RESUMED
+                : getConf().getBoolean("map.incremental", false) ? RunMode.INCREMENTAL : RunMode.FULL;
+        String workDir = getConf().get("map.work.dir");
+        if (!createTmpDirectory(fs, workDir, mode))
+            return 1;
+
+        long numPages = renumberPages(fs, mode, graphFile, new Path(args[0]), localDictionary, workDir);
+        if (numPages < 0)
+            return 1;
+        getConf().set("map.pages.num", "" + numPages);
+
+        // a single machine can also iterate over the renumbered graph from its local disk
+        if (engine.equals("mmap")) {
+            if (localDictionary) {
+                System.err.println("The mmap engine needs the distributed dictionary");
+                return 1;
+            }
+            int result = new OutOfCorePageRankEngine(getConf()).run(fs, pathTmpGraph,
+                    pathTmpDictionary, (int) numPages, outputFile);
+            if (workDir == null) {
+                fs.delete(pathTmp, true);
+            }
+            return result;
+        }
+
+        if (!writeInitialVector(fs, mode, checkpoint, numPages))
+            return 1;
+        if (!prepareTransitionMatrix(fs, mode, numPages))
+            return 1;
+
+        int numDivs = getConf().getInt("map.divs.num", 2);
+        String personalizationPath = getConf().get("map.personalization.path");
+        if (personalizationPath != null) {
+            boolean success = PersonalizedPageRank.run(fs, getConf(), report, new Path(personalizationPath), 
+                    pathTmp, pathTmpDictionary, twoWayLookUp, numPages, numDivs, 
+                    getConf().getDouble("map.epsilon.value", 0.00001), outputFile);
+            fs.delete(pathTmp, true);
+            if (report != null) {
+                report.close();
+            }
+            return success ? 0 : 1;
+        }
+
+        if (!iterate(fs, checkpoint, numPages))
+            return 1;
+        if (!writeOutput(fs, outputFile, numPages))
+            return 1;
+        cleanUp(fs, workDir, numPages);
+        if (report != null) {
+            report.close();
+        }
+        return 0;
+    }
+
+    // Check that the settings of the run work together. Returns false after printing
+    // the first one that does not.
+    private boolean checkSettings(FileSystem fs, boolean resume, String engine) throws IOException {
+        String pageOrder = getConf().get("map.dictionary.order", "none");
+        if (!PageOrdering.isOrder(pageOrder)) {
+            System.err.println("map.dictionary.order must be one of " + Arrays.toString(PageOrdering.ORDERS));
+            return false;
+        }
+        boolean fusedIteration = getConf().getBoolean("map.iteration.fused", false);
+        boolean adaptiveIteration = getConf().getBoolean("map.iteration.adaptive", false);
+        if (adaptiveIteration && !fusedIteration) {
+            System.err.println("map.iteration.adaptive requires map.iteration.fused");
+            return false;
+        }
+        boolean gridIteration = getConf().getBoolean("map.iteration.grid", false);
+        if (gridIteration && (fusedIteration || getConf().getBoolean("map.matrix.partitioned", false))) {
+            System.err.println("map.iteration.grid works with neither map.iteration.fused nor map.matrix.partitioned");
+            return false;
+        }
+        int extrapolationPeriod = getConf().getInt("map.extrapolation.period", 0);
+        if (extrapolationPeriod > 0 && (!fusedIteration || adaptiveIteration
+                || getConf().getBoolean("map.iteration.gaussseidel", false))) {
+            System.err.println("map.extrapolation.period requires a plain fused iteration");
+            return false;
+        }
+        // the broadcast iteration finishes the iteration in the reducers like a fused one
+        // and has its mappers read the blocks of the partitioned matrix
+        boolean broadcastIteration = getConf().getBoolean("map.iteration.broadcast", false);
+        if (broadcastIteration && (!fusedIteration || adaptiveIteration || extrapolationPeriod > 0
+                || getConf().getBoolean("map.iteration.gaussseidel", false)
+                || !getConf().getBoolean("map.matrix.partitioned", false))) {
+            System.err.println("map.iteration.broadcast requires a plain fused iteration and a partitioned matrix");
+            return false;
+        }
+        // a batch of personalized vectors needs the out-degrees of a fused iteration and
+        // the partitioned matrix, so that only the vectors go through the shuffle
+        String personalizationPath = getConf().get("map.personalization.path");
+        if (personalizationPath != null && (!fusedIteration || adaptiveIteration || extrapolationPeriod > 0
+                || getConf().getBoolean("map.iteration.gaussseidel", false)
+                || !getConf().getBoolean("map.matrix.partitioned", false) || resume
+                || getConf().get("map.work.dir") != null || !engine.equals("mapreduce"))) {
+            System.err.println("map.personalization.path requires a plain fused iteration and a partitioned matrix, "
+                    + "and works without a work directory only");
+            return false;
+        }
+        // The vector files can hold runs of consecutive ranks without their pages, and the
+        // ranks can be stored as floats. Every iteration rounds the float ranks again, and
+        // each rounding is damped by the next iterations, so the residual is only sure to
+        // go below about twice the rounding error over the teleportation rate.
+        boolean packedVector = getConf().getBoolean("map.vector.packed", false);
+        boolean singlePrecisionVector = getConf().getBoolean("map.vector.float", false);
+        if (packedVector && personalizationPath != null) {
+            System.err.println("map.vector.packed does not work with map.personalization.path");
+            return false;
+        }
+        if (singlePrecisionVector && !packedVector) {
+            System.err.println("map.vector.float requires map.vector.packed");
+            return false;
+        }
+        double minSinglePrecisionEpsilon = 4 * VectorBlockWritable.SINGLE_PRECISION_ERROR
+                / getConf().getDouble("map.teleportation.rate", 0.15);
+        if (singlePrecisionVector && getConf().getDouble("map.epsilon.value", 0.00001) < minSinglePrecisionEpsilon) {
+            System.err.println("map.vector.float requires a map.epsilon.value of at least "
+                    + minSinglePrecisionEpsilon);
+            return false;
+        }
+        if (getConf().getBoolean("map.incremental", false)
+                && (getConf().getBoolean("map.dictionary.local", false) || !engine.equals("mapreduce"))) {
+            System.err.println("An incremental run needs the distributed dictionary and the mapreduce engine");
+            return false;
+        }
+        // an existing output directory is never replaced
+        String outputPath = getConf().get("map.output.path");
+        if (outputPath != null && fs.exists(new Path(outputPath))) {
+            System.err.println("map.output.path " + outputPath + " already exists");
+            return false;
+        }
+        return true;
+    }
+
+    // Create the temp directories. With "map.work.dir" the graph, dictionary, matrix
+    // and final vector are kept in that directory after the run, so that a later
+    // incremental run can apply an edge delta to them and start from the old ranks.
+    // Returns false if the work directory does not suit the run.
+    private boolean createTmpDirectory(FileSystem fs, String workDir, RunMode mode) throws IOException {
+        if (workDir != null) {
+            pathTmp = new Path(workDir);
+            if (mode == RunMode.INCREMENTAL && !fs.exists(new Path(pathTmp, STATE_FILE))) {
+                System.err.println("The work directory does not contain an earlier run");
+                return false;
+            }
+            // only a directory that an earlier run left behind is cleared
+            if (mode == RunMode.FULL && fs.exists(pathTmp)) {
+                if (fs.listStatus(pathTmp).length > 0 && !fs.exists(new Path(pathTmp, STATE_FILE))
+                        && !fs.exists(new Path(pathTmp, Checkpoint.CHECKPOINT_FILE))) {
+                    System.err.println("map.work.dir " + pathTmp + " is neither empty nor the work directory of an earlier run");
+                    return false;
+                }
+                fs.delete(pathTmp, true);
+            }
+        }
+        else {
+            if (mode == RunMode.INCREMENTAL) {
+                System.err.println("map.incremental requires the map.work.dir of an earlier run");
+                return false;
+            }
             pathTmp = new Path("/tmp/tmp" + (int)(Math.random() * 10000000));
+            while (fs.exists(pathTmp)) {
+                pathTmp = new Path("/tmp/tmp" + (int)(Math.random() * 10000000));
+            }
         }
         fs.mkdirs(pathTmp);
-        Path pathTmpGraph = new Path(pathTmp, "graph");
-        Path pathTmpMatrix = new Path(pathTmp, "matrix");
-        Path pathTmpVector = new Path(pathTmp, "vector");
-        Path pathTmpResult = new Path(pathTmp, "result");
-        Path pathTmpNormed = new Path(pathTmp, "normed");
-        Path pathTmpAbsDiff = new Path(pathTmp, "absDiff");
-        Path pathTmpOutput = new Path(pathTmp, "output");
-        
-        // web pages are represented by numbers in the graph file
-        // find the largest number and add one to get the number
-        // of pages since 0 is a page
-//        long numPages = findMaxPage(graphFile) + 1;
-        
-        // Renumber the web pages so that they are consecutive, storing
-        // the result for later lookup and then write the new
-        // graph file to HDFS
-        // This strategy can only be used with small web graphs. For graphs
-        // too large to fit in memory, a database should be used.
-        TwoWayLookUp<String> twoWayLookUp = createTwoWayLookUpAndWriteConsecutiveIdGraphFile(
-                                                fs, graphFile, new Path(pathTmpGraph, "graph.txt"));
-        long numPages = twoWayLookUp.size();
-        getConf().set("map.pages.num", "" + numPages);
-//        FileUtil.copy(graphFile, fs, pathTmpGraph, false, getConf());
-        
-        // write an initial vector file in SequenceFile format
+        pathTmpInput = new Path(pathTmp, "input");
+        pathTmpProvisional = new Path(pathTmp, "provisional");
+        pathTmpDictionary = new Path(pathTmp, "dictionary");
+        pathTmpGraph = new Path(pathTmp, "graph");
+        pathTmpMatrix = new Path(pathTmp, "matrix");
+        pathTmpMatrixPartitioned = new Path(pathTmp, "matrixPartitioned");
+        pathTmpOutLinks = new Path(pathTmp, "outlinks");
+        pathTmpVector = new Path(pathTmp, "vector");
+        pathTmpHistory = new Path(pathTmp, "history");
+        pathTmpOlderHistory = new Path(pathTmp, "olderHistory");
+        pathTmpResult = new Path(pathTmp, "result");
+        pathTmpPartial = new Path(pathTmp, "partial");
+        pathTmpNormed = new Path(pathTmp, "normed");
+        pathTmpAbsDiff = new Path(pathTmp, "absDiff");
+        pathTmpOutput = new Path(pathTmp, "output");
+        pathTmpPartitions = new Path(pathTmp, "partitions");
+        pathTmpJoined = new Path(pathTmp, "joined");
+        pathState = new Path(pathTmp, STATE_FILE);
+        pathCheckpoint = new Path(pathTmp, Checkpoint.CHECKPOINT_FILE);
+        if (mode == RunMode.INCREMENTAL) {
+            previousState = readState(fs, pathState);
+        }
+        return true;
+    }
+
+    // Renumber the web pages so that they are consecutive and write the new
+    // graph file to HDFS. By default this is done with two MapReduce jobs that
+    // also write a dictionary from the new IDs back to the original ones. For small
+    // graphs the renumbering can instead be done in memory on this machine. An
+    // incremental run only renumbers its edge delta against the dictionary of the
+    // earlier run, and a resumed run finds its graph already renumbered. Returns the
+    // number of pages or -1 if the renumbering fails.
+    private long renumberPages(FileSystem fs, RunMode mode, File graphFile, Path graphPath,
+            boolean localDictionary, String workDir) throws Exception {
+        if (mode == RunMode.RESUMED) {
+            return getConf().getLong("map.pages.num", 0);
+        }
+        if (mode == RunMode.INCREMENTAL) {
+            // the dictionary keeps the page order of the earlier run, and the new pages
+            // are numbered after it
+            return IncrementalUpdate.applyEdgeDelta(fs, getConf(), report, graphFile, graphPath, 
+                    previousState[0], pathTmpDictionary, pathTmpGraph, pathTmp);
+        }
+        long numPages = 0;
+        if (localDictionary) {
+            boolean binaryGraph = getConf().getBoolean("map.graph.binary", false);
+            twoWayLookUp = createTwoWayLookUpAndWriteConsecutiveIdGraphFile(fs, graphFile,
+                    new Path(pathTmpGraph, binaryGraph ? "graph" + EdgeListInputFormat.BINARY_EXTENSION : "graph.txt"),
+                    binaryGraph);
+            numPages = twoWayLookUp.size();
+            // a work directory has to outlive this driver, so it gets the dictionary too
+            if (workDir != null) {
+                writeDictionary(twoWayLookUp, pathTmpDictionary);
+            }
+        }
+        else {
+            Path pathGraphInput = graphPath;
+            if (graphFile.exists()) {
+                pathGraphInput = new Path(pathTmpInput, graphFile.getName());
+                fs.copyFromLocalFile(new Path(graphFile.getAbsolutePath()), pathGraphInput);
+            }
+            numPages = createDictionaryAndWriteConsecutiveIdGraphFile(pathGraphInput,
+                    pathTmpProvisional, pathTmpGraph, pathTmpDictionary);
+            if (numPages < 0)
+                return -1;
+        }
+
+        // Give pages that link to each other nearby IDs, which fills fewer matrix blocks
+        // more densely. The dictionary is rewritten with the new IDs, so an incremental
+        // run keeps the order and adds its new pages after it.
+        String pageOrder = getConf().get("map.dictionary.order", "none");
+        if (!pageOrder.equals("none")) {
+            if (numPages > Integer.MAX_VALUE) {
+                System.err.println("map.dictionary.order works with at most " + Integer.MAX_VALUE
+                        + " pages, the graph has " + numPages);
+                return -1;
+            }
+            long startTime = System.currentTimeMillis();
+            PageOrdering ordering = new PageOrdering(fs, getConf(), (int) numPages);
+            int[] newIds = ordering.newIds(pathTmpGraph, pageOrder);
+            ordering.relabelGraph(pathTmpGraph, newIds);
+            if (twoWayLookUp != null) {
+                twoWayLookUp.reorder(newIds);
+            }
+            if (fs.exists(pathTmpDictionary)) {
+                ordering.relabelDictionary(pathTmpDictionary, newIds);
+            }
+            System.out.println("Pages ordered by " + pageOrder + " in "
+                    + (System.currentTimeMillis() - startTime) + " ms");
+        }
+        return numPages;
+    }
+
+    // Write the vector the iterations start from in SequenceFile format, or start an
+    // incremental run from the ranks of the earlier run. A resumed run starts from the
+    // vector of its checkpoint, which may still have to be moved into place if the run
+    // failed between the end of an iteration and the start of the next one. If the run
+    // failed after moving it but before checkpointing the move, it is already in place.
+    // A batch of personalized vectors writes its own start vectors. Returns false if a
+    // job fails.
+    private boolean writeInitialVector(FileSystem fs, RunMode mode, Properties checkpoint, long numPages)
+            throws Exception {
+        if (mode == RunMode.RESUMED) {
+            Path pathCheckpointVector = new Path(checkpoint.getProperty("vector"));
+            if (!pathCheckpointVector.equals(pathTmpVector) && fs.exists(pathCheckpointVector)) {
+                fs.delete(pathTmpVector, true);
+                move(fs, pathCheckpointVector, pathTmpVector);
+            }
+            if (!fs.exists(pathTmpVector)) {
+                throw new IOException("The vector of the checkpoint is neither at " + pathCheckpointVector 
+                        + " nor at " + pathTmpVector);
+            }
+            for (Path path : new Path[] { pathTmpResult, pathTmpPartial, pathTmpNormed, pathTmpAbsDiff, pathTmpOutput }) {
+                fs.delete(path, true);
+            }
+            return true;
+        }
+        if (mode == RunMode.INCREMENTAL) {
+            return IncrementalUpdate.writeWarmStartVector(fs, getConf(), report, pathTmpVector, pathTmp, 
+                    previousState[0], numPages);
+        }
+        if (getConf().get("map.personalization.path") != null) {
+            return true;
+        }
         LongWritable key = new LongWritable();
         DoubleWritable value = new DoubleWritable(1.0 / numPages);
-        SequenceFile.Writer sfWriter = SequenceFile.createWriter(fs, getConf(), 
-                new Path(pathTmpVector, "vector.seq"), key.getClass(), value.getClass());
+        SequenceFile.Writer sfWriter = SequenceFile.createWriter(fs, getConf(),
+                new Path(pathTmpVector, "part-m-00000"), key.getClass(), value.getClass());
         for (long i = 0; i < numPages; i++) {
             key.set(i);
             sfWriter.append(key, value);
         }
         sfWriter.close();
-        
-        
-        // create the sparse transition matrix in Sequence File format
-        // the matrix is indexed in blocks
+        return true;
+    }
+
+    // Create the sparse transition matrix in Sequence File format, indexed in blocks,
+    // or, with map.matrix.partitioned, sorted into row block partitions of compressed
+    // sparse column blocks. A resumed run finds it already in its work directory.
+    // Returns false if a job fails.
+    private boolean prepareTransitionMatrix(FileSystem fs, RunMode mode, long numPages) throws Exception {
         int numDivs = getConf().getInt("map.divs.num", 2);
-        double epsilon = getConf().getDouble("map.epsilon.value", 0.00001);
-        
-        Job jobTransitionMatrixCreation = Job.getInstance(getConf());
-        jobTransitionMatrixCreation.setJarByClass(TransitionMatrixCreator.class);
-        jobTransitionMatrixCreation.setInputFormatClass(KeyValueTextInputFormat.class);
-        jobTransitionMatrixCreation.setOutputFormatClass(SequenceFileOutputFormat.class);
+        boolean fusedIteration = getConf().getBoolean("map.iteration.fused", false);
+        boolean partitionedMatrix = getConf().getBoolean("map.matrix.partitioned", false);
+        boolean balancedBlocks = getConf().getBoolean("map.divs.balanced", false);
+        Path pathBoundaries = new Path(pathTmpMatrix, BlockLayout.BOUNDARIES_FILE);
+        if (fusedIteration) {
+            getConf().setBoolean("map.outlinks.write", true);
+            getConf().set("map.outlinks.path", pathTmpOutLinks.toString());
+        }
+        if (getConf().getBoolean("map.iteration.adaptive", false)) {
+            getConf().set("map.adaptive.contribution.path",
+                    new Path(pathTmpVector, MultiplyMatrixAndVector.CONTRIBUTION_OUTPUT).toString());
+        }
+        if (mode == RunMode.RESUMED) {
+            return true;
+        }
+
+        // An incremental run only recomputes the matrix columns of the pages whose links
+        // changed. The matrix keeps the block layout it was built with in _boundaries,
+        // and the pages added since then are put at the end of the last block, so the
+        // entries of all other pages keep their block coordinates. The whole matrix is
+        // rebuilt when the number of divs is different, when the blocks are balanced in
+        // one run but not the other, or once the added pages would make the last block
+        // longer by more than map.incremental.block.growth times the average block.
+        // It is also rebuilt when only one of the runs partitions it.
+        boolean rebuildMatrix = true;
+        BlockLayout builtLayout = null;
+        long previousNumPages = 0;
+        if (mode == RunMode.INCREMENTAL && fs.exists(pathBoundaries)) {
+            previousNumPages = previousState[0];
+            builtLayout = BlockLayout.read(fs, pathBoundaries);
+            double blockGrowth = getConf().getDouble("map.incremental.block.growth", 0.5);
+            rebuildMatrix = numDivs != previousState[1] || balancedBlocks != (previousState[2] != 0)
+                    || (fusedIteration && !fs.exists(pathTmpOutLinks))
+                    || partitionedMatrix != fs.exists(pathTmpMatrixPartitioned)
+                    || numPages - builtLayout.getNumPages() > blockGrowth * builtLayout.getNumPages() / numDivs;
+        }
+        if (rebuildMatrix) {
+            fs.delete(pathTmpMatrix, true);
+            fs.delete(pathTmpMatrixPartitioned, true);
+            fs.delete(pathTmpOutLinks, true);
+            BlockLayout layout = BlockLayout.equalPages(numPages, numDivs);
+            if (balancedBlocks) {
+                layout = balanceBlocks(fs, pathTmpGraph, pathTmp, numPages, numDivs);
+                if (layout == null)
+                    return false;
+                getConf().set("map.block.boundaries", layout.toString());
+            }
+            if (!TransitionMatrixCreator.createTransitionMatrix(getConf(), report, pathTmpGraph, pathTmpMatrix, 
+                    fusedIteration))
+                return false;
+            layout.write(fs, pathBoundaries);
+
+            // move the out-degrees out of the matrix directory so they are not read as matrix entries
+            if (fusedIteration) {
+                fs.rename(new Path(pathTmpMatrix, TransitionMatrixCreator.OUTLINKS_OUTPUT), pathTmpOutLinks);
+            }
+        }
+        else {
+            // the matrix columns of the changed pages have to use the boundaries it was
+            // built with, which every job of this run then uses as well
+            getConf().set("map.block.boundaries", builtLayout.extendedTo(numPages).toString());
+            if (numPages > previousNumPages) {
+                System.out.println("Adding " + (numPages - previousNumPages) + " new pages to the last block");
+            }
+            Path pathStoredMatrix = partitionedMatrix ? pathTmpMatrixPartitioned : pathTmpMatrix;
+            if (!IncrementalUpdate.updateTransitionMatrix(fs, getConf(), report, pathStoredMatrix, pathTmpMatrix, 
+                    pathTmpOutLinks, pathTmp, fusedIteration, partitionedMatrix))
+                return false;
+            builtLayout.write(fs, pathBoundaries);
+        }
 
-        jobTransitionMatrixCreation.setMapOutputKeyClass(LongWritable.class);
-        jobTransitionMatrixCreation.setMapOutputValueClass(LongWritable.class);
+        // the matrix never changes between iterations, so optionally sort it into
+        // row block partitions once and let each multiplication reducer read its
+        // partition directly instead of shuffling the whole matrix every iteration.
+        // The partitions store each block in compressed sparse column form. The
+        // matrix job wrote the columns of each block for them, which are deleted
+        // afterwards, so only the partitions are kept.
+        if (partitionedMatrix) {
+            fs.delete(pathTmpMatrixPartitioned, true);
+            Job jobMatrixPartitioning = Job.getInstance(getConf());
+            jobMatrixPartitioning.setJarByClass(MultiplyMatrixAndVector.class);
+            jobMatrixPartitioning.setInputFormatClass(SequenceFileInputFormat.class);
+            jobMatrixPartitioning.setOutputFormatClass(SequenceFileOutputFormat.class);
 
-        jobTransitionMatrixCreation.setOutputKeyClass(BlockEntryKey.class);
-        jobTransitionMatrixCreation.setOutputValueClass(MatrixEntryWritable.class);
+            jobMatrixPartitioning.setOutputKeyClass(BlockEntryKey.class);
+            jobMatrixPartitioning.setOutputValueClass(MatrixBlockWritable.class);
 
-        jobTransitionMatrixCreation.setMapperClass(BlockCalculationMapper.class);
-        jobTransitionMatrixCreation.setReducerClass(TransitionMatrixReducer.class);
+            jobMatrixPartitioning.setMapperClass(Mapper.class);
+            jobMatrixPartitioning.setReducerClass(MatrixBlockReducer.class);
+            jobMatrixPartitioning.setPartitionerClass(RowPartitioner.class);
+            jobMatrixPartitioning.setNumReduceTasks(numDivs);
 
-        FileInputFormat.setInputPaths(jobTransitionMatrixCreation, pathTmpGraph);
-        FileOutputFormat.setOutputPath(jobTransitionMatrixCreation, pathTmpMatrix);
+            FileInputFormat.setInputPaths(jobMatrixPartitioning, pathTmpMatrix);
+            FileOutputFormat.setOutputPath(jobMatrixPartitioning, pathTmpMatrixPartitioned);
 
-        if (!jobTransitionMatrixCreation.waitForCompletion(true))
-            return 1;
+            if (!runJob(jobMatrixPartitioning, 0, "partition"))
+                return false;
+            printBlockStatistics(fs, jobMatrixPartitioning.getCounters(), numDivs, pathTmpMatrixPartitioned);
+            for (FileStatus status : fs.globStatus(new Path(pathTmpMatrix, "part-*"))) {
+                fs.delete(status.getPath(), false);
+            }
+            getConf().set("map.matrix.partitioned.path", pathTmpMatrixPartitioned.toString());
+        }
+        return true;
+    }
 
-        while (true) {
-            Job jobMatrixVectorMultiplication = Job.getInstance(getConf());
-            jobMatrixVectorMultiplication.setJarByClass(MultiplyMatrixAndVector.class);
+    // Multiply the transition matrix and the vector until the sum of the absolute
+    // differences between two vectors drops below epsilon. A resumed run continues
+    // after the iteration of its checkpoint, every other run starts with a checkpoint
+    // of its initial vector. Returns false if a job fails.
+    private boolean iterate(FileSystem fs, Properties checkpoint, long numPages) throws Exception {
+        int numDivs = getConf().getInt("map.divs.num", 2);
+        double epsilon = getConf().getDouble("map.epsilon.value", 0.00001);
+        boolean fusedIteration = getConf().getBoolean("map.iteration.fused", false);
+        boolean adaptiveIteration = getConf().getBoolean("map.iteration.adaptive", false);
+        boolean gridIteration = getConf().getBoolean("map.iteration.grid", false);
+        boolean packedVector = getConf().getBoolean("map.vector.packed", false);
+        int extrapolationPeriod = getConf().getInt("map.extrapolation.period", 0);
+        int numIterations = 0;
+        boolean converged = false;
+        if (checkpoint != null) {
+            System.out.println("Resuming after iteration " + checkpoint.getProperty("iteration"));
+            numIterations = Integer.parseInt(checkpoint.getProperty("iteration"));
+            converged = Double.parseDouble(checkpoint.getProperty("residual")) < epsilon;
+        }
+        else {
+            Checkpoint.write(fs, getConf(), pathCheckpoint, 0, Double.POSITIVE_INFINITY, pathTmpVector, 
+                    pathTmpMatrix, pathTmpDictionary);
+        }
+        // the vectors kept for extrapolation may not match the checkpoint after a failure
+        int numExtrapolations = 0;
+        int lastExtrapolation = numIterations;
+        String extrapolationWeights = null;
+        fs.delete(pathTmpHistory, true);
+        fs.delete(pathTmpOlderHistory, true);
+        double lastSumDiffs = 1.0;
+        long iterationStartTime = System.currentTimeMillis();
+        while (!converged) {
+            numIterations++;
+            long iterationJobsStartTime = System.currentTimeMillis();
+            Job jobMatrixVectorMultiplication = createMultiplicationJob(fs);
+            // Every few iterations the reducers gather what the driver needs for a quadratic
+            // extrapolation from the last four vectors, and the next iteration applies it.
+            // The four vectors have to come from plain iterations after the last one.
+            Configuration jobConf = jobMatrixVectorMultiplication.getConfiguration();
+            boolean extrapolationStatistics = extrapolationPeriod > 0 && numIterations % extrapolationPeriod == 0 
+                    && numIterations - lastExtrapolation >= 4 && fs.exists(pathTmpOlderHistory);
+            if (extrapolationStatistics) {
+                jobConf.setBoolean("map.extrapolation.statistics", true);
+                jobConf.set("map.extrapolation.history.older", pathTmpOlderHistory.toString());
+                // scaling keeps the inner products well inside the range of the counters
+                jobConf.set("map.extrapolation.scale", "" + Math.sqrt(numPages) / lastSumDiffs);
+            }
+            if (extrapolationWeights != null) {
+                jobConf.set("map.extrapolation.weights", extrapolationWeights);
+                lastExtrapolation = numIterations;
+                extrapolationWeights = null;
+                numExtrapolations++;
+            }
+            jobConf.set("map.extrapolation.history", pathTmpHistory.toString());
+            
+            if (!runJob(jobMatrixVectorMultiplication, numIterations, "multiply"))
+                return false;
+            
+            // the grid iteration adds up the partial sums of the tiles into the same 
+            // result the block row reducers would have written
+            if (gridIteration) {
+                Job jobVectorSum = Job.getInstance(getConf());
+                jobVectorSum.setJarByClass(TileMultiplication.class);
+                jobVectorSum.setInputFormatClass(SequenceFileInputFormat.class);
+                jobVectorSum.setOutputFormatClass(packedVector ? PackedVectorOutputFormat.class 
+                        : SequenceFileOutputFormat.class);
+                
+                jobVectorSum.setOutputKeyClass(LongWritable.class);
+                jobVectorSum.setOutputValueClass(DoubleWritable.class);
+                
+                jobVectorSum.setMapperClass(Mapper.class);
+                jobVectorSum.setCombinerClass(PartialSumCombiner.class);
+                jobVectorSum.setPartitionerClass(PagePartitioner.class);
+                jobVectorSum.setReducerClass(PartialSumReducer.class);
+                jobVectorSum.setNumReduceTasks(numDivs);
+                
+                FileInputFormat.setInputPaths(jobVectorSum, pathTmpPartial);
+                FileOutputFormat.setOutputPath(jobVectorSum, pathTmpResult);
+                if (!runJob(jobVectorSum, numIterations, "aggregate"))
+                    return false;
+                fs.delete(pathTmpPartial, true);
+            }
+            
+            // a fused iteration has already normalized the result and added up the 
+            // differences from the previous vector in the multiplication reducers
+            if (!fusedIteration) {
+                double sumDiffs = normalizeAndCheckConvergence(fs, numIterations, iterationJobsStartTime);
+                if (sumDiffs < 0)
+                    return false;
+                if (sumDiffs < epsilon) {
+                    break;
+                }
+                continue;
+            }
+            IterationReport.Statistics statistics = IterationReport.Statistics.read(fs, pathTmpResult);
+            double sumDiffs = statistics.absDiffSum;
+            System.out.println("Sum of absolute differences: " + sumDiffs);
+            if (report != null) {
+                report.addIteration(numIterations, System.currentTimeMillis() - iterationJobsStartTime, 
+                        statistics);
+            }
+            if (adaptiveIteration) {
+                // the reducers need the rank held by the frozen pages to normalize
+                // the next vector, since those pages are no longer sent to them
+                Counters counters = jobMatrixVectorMultiplication.getCounters();
+                long numFrozen = counters.findCounter(PageRankEnums.FROZEN_PAGES).getValue();
+                getConf().set("map.adaptive.frozen.mass", "" + counters.findCounter(PageRankEnums.FROZEN_MASS)
+                        .getValue() / MultiplyMatrixAndVector.DECIMAL_LONG_CONVERSION_FACTOR);
+                getConf().set("map.adaptive.frozen.dangling.mass", "" + counters.findCounter(
+                        PageRankEnums.FROZEN_DANGLING_MASS).getValue() 
+                        / MultiplyMatrixAndVector.DECIMAL_LONG_CONVERSION_FACTOR);
+                System.out.println("Frozen pages: " + numFrozen + " of " + numPages);
+            }
+            // The iteration that applies an extrapolation only measures how far the
+            // extrapolated vector moved, so at least one plain iteration follows it
+            // before the run can end. A checkpoint of it is not converged either.
+            boolean extrapolated = lastExtrapolation == numIterations;
+            double residual = extrapolated ? Double.POSITIVE_INFINITY : sumDiffs;
+            Checkpoint.write(fs, getConf(), pathCheckpoint, numIterations, residual, pathTmpResult, 
+                    pathTmpMatrix, pathTmpDictionary);
+            if (extrapolationStatistics) {
+                extrapolationWeights = quadraticExtrapolationWeights(
+                        jobMatrixVectorMultiplication.getCounters());
+            }
+            lastSumDiffs = sumDiffs;
+            if (extrapolationPeriod > 0) {
+                fs.delete(pathTmpOlderHistory, true);
+                if (fs.exists(pathTmpHistory)) {
+                    move(fs, pathTmpHistory, pathTmpOlderHistory);
+                }
+                move(fs, pathTmpVector, pathTmpHistory);
+            }
+            else {
+                fs.delete(pathTmpVector, true);
+            }
+            move(fs, pathTmpResult, pathTmpVector);
+            Checkpoint.write(fs, getConf(), pathCheckpoint, numIterations, residual, pathTmpVector, 
+                    pathTmpMatrix, pathTmpDictionary);
+            if (residual < epsilon) {
+                break;
+            }
+        }
+
+        System.out.println("Converged after " + numIterations + " iterations in " 
+                + (System.currentTimeMillis() - iterationStartTime) / 1000.0 + " seconds");
+        if (extrapolationPeriod > 0) {
+            System.out.println("Extrapolation steps: " + numExtrapolations);
+        }
+        return true;
+    }
+    
+    // Set up the job of one matrix vector multiplication for the iteration of this run.
+    // PackedVectorInputFormat reads packed and plain vector files one page at a time,
+    // and with a partitioned matrix a packed vector also goes through the shuffle in 
+    // runs of consecutive ranks.
+    private Job createMultiplicationJob(FileSystem fs) throws IOException {
+        int numDivs = getConf().getInt("map.divs.num", 2);
+        boolean partitionedMatrix = getConf().getBoolean("map.matrix.partitioned", false);
+        boolean adaptiveIteration = getConf().getBoolean("map.iteration.adaptive", false);
+        boolean gridIteration = getConf().getBoolean("map.iteration.grid", false);
+        boolean broadcastIteration = getConf().getBoolean("map.iteration.broadcast", false);
+        boolean packedVector = getConf().getBoolean("map.vector.packed", false);
+        boolean packedShuffle = packedVector && partitionedMatrix && !adaptiveIteration;
+        Class<PackedVectorInputFormat> vectorFormat = PackedVectorInputFormat.class;
+        
+        Job jobMatrixVectorMultiplication = Job.getInstance(getConf());
+        jobMatrixVectorMultiplication.setJarByClass(MultiplyMatrixAndVector.class);
+        if (broadcastIteration) {
+            // every task gets the whole vector and only partial sums go through the shuffle
+            jobMatrixVectorMultiplication.setInputFormatClass(SequenceFileInputFormat.class);
+            jobMatrixVectorMultiplication.setMapperClass(BroadcastMultiplicationMapper.class);
+            FileInputFormat.setInputPaths(jobMatrixVectorMultiplication, pathTmpMatrixPartitioned);
+            for (FileStatus status : fs.globStatus(new Path(pathTmpVector, "part-*"))) {
+                jobMatrixVectorMultiplication.addCacheFile(status.getPath().toUri());
+            }
+        }
+        else if (partitionedMatrix) {
+            // only the vector blocks go through the shuffle
+            addVectorInputPaths(jobMatrixVectorMultiplication, fs, pathTmpVector, vectorFormat,
+                    packedShuffle ? PackedVectorMapper.class : VectorMapper.class);
+        }
+        else {
             MultipleInputs.addInputPath(jobMatrixVectorMultiplication, pathTmpMatrix,
                     SequenceFileInputFormat.class, Mapper.class);
-            MultipleInputs.addInputPath(jobMatrixVectorMultiplication, pathTmpVector,
-                    SequenceFileInputFormat.class, VectorMapper.class);
-            jobMatrixVectorMultiplication.setOutputFormatClass(SequenceFileOutputFormat.class);
-            FileOutputFormat.setOutputPath(jobMatrixVectorMultiplication, pathTmpResult);
-    
-            jobMatrixVectorMultiplication.setMapOutputKeyClass(BlockEntryKey.class);
-            jobMatrixVectorMultiplication.setMapOutputValueClass(MatrixEntryWritable.class);
-    
-            jobMatrixVectorMultiplication.setOutputKeyClass(LongWritable.class);
-            jobMatrixVectorMultiplication.setOutputValueClass(DoubleWritable.class);
+            addVectorInputPaths(jobMatrixVectorMultiplication, fs, pathTmpVector, vectorFormat, 
+                    VectorMapper.class);
+        }
+        if (adaptiveIteration) {
+            MultipleOutputs.addNamedOutput(jobMatrixVectorMultiplication, MultiplyMatrixAndVector.FROZEN_OUTPUT,
+                    SequenceFileOutputFormat.class, LongWritable.class, DoubleWritable.class);
+            MultipleOutputs.addNamedOutput(jobMatrixVectorMultiplication, MultiplyMatrixAndVector.NEWLY_FROZEN_OUTPUT,
+                    SequenceFileOutputFormat.class, LongWritable.class, DoubleWritable.class);
+            MultipleOutputs.addNamedOutput(jobMatrixVectorMultiplication, MultiplyMatrixAndVector.CONTRIBUTION_OUTPUT,
+                    SequenceFileOutputFormat.class, LongWritable.class, DoubleWritable.class);
+        }
+        jobMatrixVectorMultiplication.setOutputFormatClass(packedVector && !gridIteration 
+                ? PackedVectorOutputFormat.class : SequenceFileOutputFormat.class);
+        FileOutputFormat.setOutputPath(jobMatrixVectorMultiplication, 
+                gridIteration ? pathTmpPartial : pathTmpResult);
+
+        jobMatrixVectorMultiplication.setMapOutputKeyClass(BlockEntryKey.class);
+        jobMatrixVectorMultiplication.setMapOutputValueClass(packedShuffle ? VectorBlockWritable.class 
+                : MatrixEntryWritable.class);
+
+        jobMatrixVectorMultiplication.setOutputKeyClass(LongWritable.class);
+        jobMatrixVectorMultiplication.setOutputValueClass(DoubleWritable.class);
+        if (broadcastIteration) {
+            jobMatrixVectorMultiplication.setMapOutputKeyClass(LongWritable.class);
+            jobMatrixVectorMultiplication.setMapOutputValueClass(DoubleWritable.class);
+            jobMatrixVectorMultiplication.setPartitionerClass(PagePartitioner.class);
+            jobMatrixVectorMultiplication.setReducerClass(BroadcastSumReducer.class);
+            jobMatrixVectorMultiplication.setNumReduceTasks(numDivs);
+        }
+        else if (gridIteration) {
+            // every tile of the matrix can go to its own reducer
+            jobMatrixVectorMultiplication.setPartitionerClass(TilePartitioner.class);
+            jobMatrixVectorMultiplication.setReducerClass(TileMultiplicationReducer.class);
+            jobMatrixVectorMultiplication.setNumReduceTasks(
+                    getConf().getInt("map.grid.reducers", numDivs * numDivs));
+        }
+        else {
             jobMatrixVectorMultiplication.setPartitionerClass(RowPartitioner.class);
             jobMatrixVectorMultiplication.setReducerClass(BlockMultiplicationReducer.class);
             jobMatrixVectorMultiplication.setNumReduceTasks(numDivs);
-            
-            if (!jobMatrixVectorMultiplication.waitForCompletion(true))
-                return 1;
-            
-            // use a counter from the matrix/vector multiplication job to store
-            // the sum of the resulting vector entries
-            long longVectorSum = jobMatrixVectorMultiplication.getCounters()
-                                    .findCounter(PageRankEnums.VECTOR_SUM).getValue();
-            double vectorSum = longVectorSum / MultiplyMatrixAndVector.DECIMAL_LONG_CONVERSION_FACTOR;
-            getConf().set("map.vector.sum", "" + vectorSum);
-            
-            Job jobVectorNormalization = Job.getInstance(getConf());
-            jobVectorNormalization.setJarByClass(NormalizeVector.class);
-            jobVectorNormalization.setInputFormatClass(SequenceFileInputFormat.class);
-            jobVectorNormalization.setOutputFormatClass(SequenceFileOutputFormat.class);
+        }
+        return jobMatrixVectorMultiplication;
+    }
     
-            jobVectorNormalization.setMapOutputKeyClass(LongWritable.class);
-            jobVectorNormalization.setMapOutputValueClass(DoubleWritable.class);
+    // Normalize the result of an iteration that is not fused and add up its absolute 
+    // differences from the previous vector with two more jobs, then make it the vector 
+    // of the next iteration. Returns the sum of the differences, or -1 if a job fails.
+    private double normalizeAndCheckConvergence(FileSystem fs, int numIterations, long iterationJobsStartTime) 
+            throws Exception {
+        boolean packedVector = getConf().getBoolean("map.vector.packed", false);
+        Class<PackedVectorInputFormat> vectorFormat = PackedVectorInputFormat.class;
+        
+        // the multiplication reducers leave the sum of the resulting vector entries 
+        // next to their output
+        IterationReport.Statistics statistics = IterationReport.Statistics.read(fs, pathTmpResult);
+        getConf().set("map.vector.sum", "" + statistics.vectorSum);
+        
+        Job jobVectorNormalization = Job.getInstance(getConf());
+        jobVectorNormalization.setJarByClass(NormalizeVector.class);
+        jobVectorNormalization.setInputFormatClass(vectorFormat);
+        jobVectorNormalization.setOutputFormatClass(packedVector ? PackedVectorOutputFormat.class 
+                : SequenceFileOutputFormat.class);
+
+        jobVectorNormalization.setMapOutputKeyClass(LongWritable.class);
+        jobVectorNormalization.setMapOutputValueClass(DoubleWritable.class);
+
+        jobVectorNormalization.setOutputKeyClass(LongWritable.class);
+        jobVectorNormalization.setOutputValueClass(DoubleWritable.class);
+
+        jobVectorNormalization.setMapperClass(NormalizeMapper.class);
+        jobVectorNormalization.setNumReduceTasks(0);
+
+        FileInputFormat.setInputPaths(jobVectorNormalization, pathTmpResult);
+        FileOutputFormat.setOutputPath(jobVectorNormalization, pathTmpNormed);
+        if (!runJob(jobVectorNormalization, numIterations, "normalize")) 
+            return -1;
+
+        Job jobConvergenceChecking = Job.getInstance(getConf());
+        jobConvergenceChecking.setJarByClass(ConvergenceChecker.class);
+        jobConvergenceChecking.setInputFormatClass(vectorFormat);
+        jobConvergenceChecking.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+        jobConvergenceChecking.setMapOutputKeyClass(LongWritable.class);
+        jobConvergenceChecking.setMapOutputValueClass(DoubleWritable.class);
+
+        jobConvergenceChecking.setOutputKeyClass(LongWritable.class);
+        jobConvergenceChecking.setOutputValueClass(DoubleWritable.class);
+
+        jobConvergenceChecking.setCombinerClass(AbsoluteDifferenceCombiner.class);
+        jobConvergenceChecking.setReducerClass(AbsoluteDifferenceReducer.class);
+        FileInputFormat.setInputPaths(jobConvergenceChecking, pathTmpNormed);
+        FileInputFormat.addInputPath(jobConvergenceChecking, pathTmpVector);
+        FileOutputFormat.setOutputPath(jobConvergenceChecking, pathTmpAbsDiff);
+        if (!runJob(jobConvergenceChecking, numIterations, "converge")) 
+            return -1;
+        
+        // and the convergence reducers the differences
+        IterationReport.Statistics residuals = IterationReport.Statistics.read(fs, pathTmpAbsDiff);
+        double sumDiffs = residuals.absDiffSum;
+        System.out.println("Sum of absolute differences: " + sumDiffs);
+        if (report != null) {
+            statistics.absDiffSum = residuals.absDiffSum;
+            statistics.maxAbsDiff = residuals.maxAbsDiff;
+            report.addIteration(numIterations, System.currentTimeMillis() - iterationJobsStartTime, statistics);
+        }
+        
+        // store the new vector result as the previous result and delete
+        // directories before starting next iteration of loop
+        Checkpoint.write(fs, getConf(), pathCheckpoint, numIterations, sumDiffs, pathTmpNormed, 
+                pathTmpMatrix, pathTmpDictionary);
+        fs.delete(pathTmpVector, true);
+        move(fs, pathTmpNormed, pathTmpVector);
+        Checkpoint.write(fs, getConf(), pathCheckpoint, numIterations, sumDiffs, pathTmpVector, 
+                pathTmpMatrix, pathTmpDictionary);
+        fs.delete(pathTmpResult, true);
+        fs.delete(pathTmpAbsDiff, true);
+        return sumDiffs;
+    }
+
+    // The final vector is written with the original page IDs. With the distributed
+    // dictionary a join job translates the IDs, and its reducers each write a range of
+    // pages, so their files can be concatenated into the output file or left on HDFS at
+    // "map.output.path". The in-memory dictionary of small graphs is applied by this
+    // driver instead, after a single reducer has put the vector in page order. The top
+    // pages are picked by every mapper and merged by one reducer, and only their IDs 
+    // are looked up. The sorted output is split by rank between several reducers, 
+    // whose files follow each other in decreasing rank order. Returns false if a job fails.
+    private boolean writeOutput(FileSystem fs, File outputFile, long numPages) throws Exception {
+        int numDivs = getConf().getInt("map.divs.num", 2);
+        String outputPath = getConf().get("map.output.path");
+        int numTopPages = getConf().getInt("map.output.top", 0);
+        boolean sortedOutput = getConf().getBoolean("map.output.sorted", false);
+        int numOutputReducers = getConf().getInt("map.output.reducers", numDivs);
+        boolean distributedJoin = twoWayLookUp == null && numTopPages == 0;
+        List<Path> vectorPaths = new ArrayList<Path>();
+        vectorPaths.add(new Path(pathTmpVector, "part-*"));
+        for (String frozenOutput : new String[] { MultiplyMatrixAndVector.NEWLY_FROZEN_OUTPUT, 
+                MultiplyMatrixAndVector.FROZEN_OUTPUT }) {
+            if (fs.exists(new Path(pathTmpVector, frozenOutput))) {
+                vectorPaths.add(new Path(pathTmpVector, frozenOutput + "/part-*"));
+            }
+        }
+        if (distributedJoin) {
+            Path pathJoined = sortedOutput ? pathTmpJoined : pathTmpOutput;
+            if (!PageDictionary.joinDictionary(getConf(), report, vectorPaths, pathTmpDictionary, pathJoined, 
+                    sortedOutput, numOutputReducers))
+                return false;
+            vectorPaths = Arrays.asList(new Path(pathJoined, "part-*"));
+        }
+        
+        if (numTopPages > 0 || sortedOutput) {
+            if (!RankedOutput.writeRankOrder(getConf(), report, vectorPaths, distributedJoin, pathTmpOutput, 
+                    pathTmpPartitions, numPages, numOutputReducers))
+                return false;
+        }
+        else if (!distributedJoin) {
+            if (!RankedOutput.writePageOrder(getConf(), report, vectorPaths, pathTmpOutput))
+                return false;
+        }
+        
+        if (distributedJoin && outputPath != null) {
+            if (!fs.rename(pathTmpOutput, new Path(outputPath))) {
+                System.err.println("Could not move the output to " + outputPath);
+                return false;
+            }
+            System.out.println("Output written to " + outputPath);
+        }
+        else if (distributedJoin) {
+            FileUtil.copyMerge(fs, pathTmpOutput, FileSystem.getLocal(getConf()), 
+                    new Path(outputFile.getAbsolutePath()), false, getConf(), null);
+        }
+        else {
+            // only the top pages are left to look up in the distributed dictionary
+            Map<Long, String> origKeys = null;
+            if (twoWayLookUp == null) {
+                origKeys = PageDictionary.lookUpOrigKeys(fs, pathTmpDictionary, pathTmpOutput);
+            }
+            PrintWriter writer = new PrintWriter(outputFile);
+            for (FileStatus status : fs.globStatus(new Path(pathTmpOutput, "part-r-*"))) {
+                Scanner scanner = new Scanner(fs.open(status.getPath()));
+                while (scanner.hasNextLine()) {
+                    String line = scanner.nextLine();
+                    String[] pair = line.split("\t");
+                    int page = Integer.parseInt(pair[0]);
+                    String origKey = origKeys == null ? twoWayLookUp.getKey(page) : origKeys.get((long) page);
+                    writer.println(origKey + "\t" + pair[1]);
+                }
+                scanner.close();
+            }
+            writer.close();
+        }
+        return true;
+    }
     
-            jobVectorNormalization.setOutputKeyClass(LongWritable.class);
-            jobVectorNormalization.setOutputValueClass(DoubleWritable.class);
+    // Remove the temp files of a finished run. Without a work directory all of them go.
+    private void cleanUp(FileSystem fs, String workDir, long numPages) throws IOException {
+        int numDivs = getConf().getInt("map.divs.num", 2);
+        boolean balancedBlocks = getConf().getBoolean("map.divs.balanced", false);
+        String dictionaryOutput = getConf().get("map.dictionary.output");
+        if (dictionaryOutput != null && twoWayLookUp == null) {
+            if (workDir != null) {
+                FileUtil.copy(fs, pathTmpDictionary, fs, new Path(dictionaryOutput), false, getConf());
+            }
+            else {
+                fs.rename(pathTmpDictionary, new Path(dictionaryOutput));
+            }
+        }
+        
+        // keep what the next incremental run needs in the work directory
+        if (workDir != null) {
+            writeState(fs, pathState, numPages, numDivs, balancedBlocks);
+            fs.delete(pathCheckpoint, false);
+            for (Path path : new Path[] { pathTmpInput, pathTmpHistory, 
+                    pathTmpOlderHistory, pathTmpResult, pathTmpPartial, pathTmpPartitions, pathTmpJoined,
+                    pathTmpNormed, pathTmpAbsDiff, pathTmpOutput, new Path(pathTmp, IncrementalUpdate.AFFECTED_OUTPUT),
+                    new Path(pathTmp, IncrementalUpdate.SOURCES_OUTPUT) }) {
+                fs.delete(path, true);
+            }
+        }
+        else {
+            fs.delete(pathTmp, true);
+        }
+    }
     
-            jobVectorNormalization.setMapperClass(NormalizeMapper.class);
-            jobVectorNormalization.setNumReduceTasks(0);
+    // a rename that fails would leave the run without the vector its checkpoint names
+    private static void move(FileSystem fs, Path src, Path dst) throws IOException {
+        if (!fs.rename(src, dst)) {
+            throw new IOException("Could not move " + src + " to " + dst);
+        }
+    }
     
-            FileInputFormat.setInputPaths(jobVectorNormalization, pathTmpResult);
-            FileOutputFormat.setOutputPath(jobVectorNormalization, pathTmpNormed);
-            if (!jobVectorNormalization.waitForCompletion(true)) 
-                return 1;
+    // run a job and add it to the report, if there is one
+    private boolean runJob(Job job, int iteration, String phase) throws Exception {
+        return IterationReport.runJob(report, job, iteration, phase);
+    }
+    
+    // Show how the entries of the partitioned matrix are spread over its blocks, which
+    // depends on the order of the pages, and the sizes of its block row partitions
+    private static void printBlockStatistics(FileSystem fs, Counters counters, int numDivs, 
+            Path partitionedPath) throws IOException {
+        long numBlocks = counters.findCounter(MatrixBlockCounter.BLOCKS).getValue();
+        long numEntries = counters.findCounter(TaskCounter.MAP_INPUT_RECORDS).getValue();
+        long diagonalEntries = counters.findCounter(MatrixBlockCounter.DIAGONAL_ENTRIES).getValue();
+        long minBytes = Long.MAX_VALUE;
+        long maxBytes = 0;
+        long totalBytes = 0;
+        for (FileStatus status : fs.globStatus(new Path(partitionedPath, "part-*"))) {
+            minBytes = Math.min(minBytes, status.getLen());
+            maxBytes = Math.max(maxBytes, status.getLen());
+            totalBytes += status.getLen();
+        }
+        System.out.println("Matrix blocks: " + numBlocks + " of " + ((long) numDivs * numDivs) 
+                + " have entries, " + String.format("%.1f", 100.0 * diagonalEntries / Math.max(numEntries, 1))
+                + "% of the entries are in diagonal blocks, block rows take " + minBytes + " to " 
+                + maxBytes + " of " + totalBytes + " bytes");
+    }
+    
+    // Count the links into each bucket of consecutive pages and place the block 
+    // boundaries so that every block row of the matrix gets about the same number of 
+    // entries. There are "map.balance.buckets" buckets per block (4096 by default).
+    // Returns null if the histogram job fails.
+    private BlockLayout balanceBlocks(FileSystem fs, Path graphPath, Path tmpPath, long numPages, 
+            int numDivs) throws Exception {
+        long numBuckets = Math.min(numPages, (long) numDivs * getConf().getInt("map.balance.buckets", 4096));
+        long bucketSize = (numPages + numBuckets - 1) / numBuckets;
+        Path pathHistogram = new Path(tmpPath, "histogram");
+        Job jobInDegreeHistogram = Job.getInstance(getConf());
+        jobInDegreeHistogram.getConfiguration().setLong("map.balance.bucket.size", bucketSize);
+        jobInDegreeHistogram.setJarByClass(TransitionMatrixCreator.class);
+        jobInDegreeHistogram.setInputFormatClass(EdgeListInputFormat.class);
+        jobInDegreeHistogram.setOutputFormatClass(SequenceFileOutputFormat.class);
+        
+        jobInDegreeHistogram.setOutputKeyClass(LongWritable.class);
+        jobInDegreeHistogram.setOutputValueClass(LongWritable.class);
+        
+        jobInDegreeHistogram.setMapperClass(InDegreeMapper.class);
+        jobInDegreeHistogram.setCombinerClass(LongSumReducer.class);
+        jobInDegreeHistogram.setReducerClass(LongSumReducer.class);
+        
+        FileInputFormat.setInputPaths(jobInDegreeHistogram, graphPath);
+        FileOutputFormat.setOutputPath(jobInDegreeHistogram, pathHistogram);
+        if (!runJob(jobInDegreeHistogram, 0, "histogram"))
+            return null;
+        
+        long[] histogram = new long[(int) ((numPages + bucketSize - 1) / bucketSize)];
+        LongWritable bucket = new LongWritable();
+        LongWritable count = new LongWritable();
+        for (FileStatus status : fs.globStatus(new Path(pathHistogram, "part-*"))) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(getConf(), 
+                    SequenceFile.Reader.file(status.getPath()));
+            while (reader.next(bucket, count)) {
+                histogram[(int) bucket.get()] += count.get();
+            }
+            reader.close();
+        }
+        fs.delete(pathHistogram, true);
+        
+        BlockLayout layout = BlockLayout.balanced(histogram, bucketSize, numPages, numDivs);
+        System.out.println("Block boundaries: " + layout);
+        return layout;
+    }
     
-            Job jobConvergenceChecking = Job.getInstance(getConf());
-            jobConvergenceChecking.setJarByClass(ConvergenceChecker.class);
-            jobConvergenceChecking.setInputFormatClass(SequenceFileInputFormat.class);
-            jobConvergenceChecking.setOutputFormatClass(SequenceFileOutputFormat.class);
+    // Quadratic extrapolation (Kamvar et al., "Extrapolation Methods for Accelerating
+    // PageRank Computations") assumes that the last four vectors x0..x3 are mostly made
+    // up of the first three eigenvectors. With y1..y3 the differences of x1..x3 from x0,
+    // the least squares solution of [y1 y2] g = -y3 gives the weights of the 
+    // extrapolated vector. Returns the weights, scaled to add up to one, as a comma
+    // separated string, or null if the system is too close to singular.
+    private static String quadraticExtrapolationWeights(Counters counters) {
+        double y11 = counters.findCounter(PageRankEnums.EXTRAPOLATION_11).getValue() 
+                / MultiplyMatrixAndVector.EXTRAPOLATION_LONG_CONVERSION_FACTOR;
+        double y12 = counters.findCounter(PageRankEnums.EXTRAPOLATION_12).getValue() 
+                / MultiplyMatrixAndVector.EXTRAPOLATION_LONG_CONVERSION_FACTOR;
+        double y22 = counters.findCounter(PageRankEnums.EXTRAPOLATION_22).getValue() 
+                / MultiplyMatrixAndVector.EXTRAPOLATION_LONG_CONVERSION_FACTOR;
+        double y13 = counters.findCounter(PageRankEnums.EXTRAPOLATION_13).getValue() 
+                / MultiplyMatrixAndVector.EXTRAPOLATION_LONG_CONVERSION_FACTOR;
+        double y23 = counters.findCounter(PageRankEnums.EXTRAPOLATION_23).getValue() 
+                / MultiplyMatrixAndVector.EXTRAPOLATION_LONG_CONVERSION_FACTOR;
+        double determinant = y11 * y22 - y12 * y12;
+        if (determinant <= 1e-9 * y11 * y22) {
+            return null;
+        }
+        double gamma1 = -(y22 * y13 - y12 * y23) / determinant;
+        double gamma2 = -(y11 * y23 - y12 * y13) / determinant;
+        double[] weights = { gamma1 + gamma2 + 1, gamma2 + 1, 1 };
+        double sum = weights[0] + weights[1] + weights[2];
+        if (Math.abs(sum) < 1e-6) {
+            return null;
+        }
+        return (weights[0] / sum) + "," + (weights[1] / sum) + "," + (weights[2] / sum);
+    }
     
-            jobConvergenceChecking.setMapOutputKeyClass(LongWritable.class);
-            jobConvergenceChecking.setMapOutputValueClass(DoubleWritable.class);
+    // The state file of a work directory holds the number of pages and divs of the run
+    // that wrote it and whether its blocks were balanced.
+    private static long[] readState(FileSystem fs, Path statePath) throws IOException {
+        Scanner scanner = new Scanner(fs.open(statePath));
+        String[] fields = scanner.nextLine().split("\t");
+        scanner.close();
+        return new long[] { Long.parseLong(fields[0]), Long.parseLong(fields[1]), 
+                fields.length > 2 ? Long.parseLong(fields[2]) : 0 };
+    }
     
-            jobConvergenceChecking.setOutputKeyClass(LongWritable.class);
-            jobConvergenceChecking.setOutputValueClass(DoubleWritable.class);
+    private static void writeState(FileSystem fs, Path statePath, long numPages, int numDivs, 
+            boolean balancedBlocks) throws IOException {
+        PrintWriter writer = new PrintWriter(fs.create(statePath, true));
+        writer.println(numPages + "\t" + numDivs + "\t" + (balancedBlocks ? 1 : 0));
+        writer.close();
+    }
     
-            jobConvergenceChecking.setCombinerClass(AbsoluteDifferenceCombiner.class);
-            jobConvergenceChecking.setReducerClass(AbsoluteDifferenceReducer.class);
-            FileInputFormat.setInputPaths(jobConvergenceChecking, pathTmpNormed);
-            FileInputFormat.addInputPath(jobConvergenceChecking, pathTmpVector);
-            FileOutputFormat.setOutputPath(jobConvergenceChecking, pathTmpAbsDiff);
-            if (!jobConvergenceChecking.waitForCompletion(true)) 
-                return 1;
-            
-            // use a counter to store the sum of the differences
-            long absDiffSum = jobConvergenceChecking.getCounters()
-                    .findCounter(PageRankEnums.ABS_DIFF_SUM).getValue();
-            double sumDiffs = (absDiffSum / ConvergenceChecker.DECIMAL_LONG_CONVERSION_FACTOR);
-            System.out.println("Sum of absolute differences: " + sumDiffs);
-            if (sumDiffs < epsilon) {
-                break;
-            }
-            
-            // store the new vector result as the previous result and delete
-            // directories before starting next iteration of loop
-            fs.delete(pathTmpVector, true);
-            FileUtil.copy(fs, pathTmpNormed, fs, pathTmpVector, true, true, getConf());
-            fs.delete(pathTmpResult, true);
-            fs.delete(pathTmpAbsDiff, true);
+    // Add the vector to the inputs of a multiplication job. An adaptive iteration splits
+    // the vector into active, newly frozen and frozen pages, each with its own mapper.
+    // Only the active pages can be packed.
+    private static void addVectorInputPaths(Job job, FileSystem fs, Path pathVector, 
+            Class<? extends InputFormat<?, ?>> vectorFormat, Class<? extends Mapper<?, ?, ?, ?>> vectorMapper) 
+            throws IOException {
+        MultipleInputs.addInputPath(job, new Path(pathVector, "part-*"), vectorFormat, vectorMapper);
+        Path pathNewlyFrozen = new Path(pathVector, MultiplyMatrixAndVector.NEWLY_FROZEN_OUTPUT);
+        if (fs.exists(pathNewlyFrozen)) {
+            MultipleInputs.addInputPath(job, new Path(pathNewlyFrozen, "part-*"),
+                    SequenceFileInputFormat.class, NewlyFrozenVectorMapper.class);
         }
-
-        Job jobVectorReassembly = Job.getInstance(getConf());
-        jobVectorReassembly.setInputFormatClass(SequenceFileInputFormat.class);
-        jobVectorReassembly.setOutputFormatClass(TextOutputFormat.class);
-
-        jobVectorReassembly.setMapOutputKeyClass(LongWritable.class);
-        jobVectorReassembly.setMapOutputValueClass(DoubleWritable.class);
-
-        jobVectorReassembly.setOutputKeyClass(LongWritable.class);
-        jobVectorReassembly.setOutputValueClass(DoubleWritable.class);
-
-        jobVectorReassembly.setNumReduceTasks(1);
-        FileInputFormat.setInputPaths(jobVectorReassembly, pathTmpNormed);
-        FileOutputFormat.setOutputPath(jobVectorReassembly, pathTmpOutput);
+        Path pathFrozen = new Path(pathVector, MultiplyMatrixAndVector.FROZEN_OUTPUT);
+        if (fs.exists(pathFrozen)) {
+            MultipleInputs.addInputPath(job, new Path(pathFrozen, "part-*"),
+                    SequenceFileInputFormat.class, FrozenVectorMapper.class);
+        }
+    }
+    
+    // Assign consecutive IDs to the pages of the graph file with the PageDictionary jobs,
+    // writing the renumbered graph file and the dictionary from new to original IDs.
+    // Returns the number of pages or -1 if one of the jobs fails.
+    private long createDictionaryAndWriteConsecutiveIdGraphFile(Path in, Path provisionalPath,
+            Path graphPath, Path dictionaryPath) throws Exception {
+        int numReducers = PageDictionary.numReducers(getConf());
+        Job jobProvisionalIds = Job.getInstance(getConf());
+        jobProvisionalIds.setJarByClass(PageDictionary.class);
+        jobProvisionalIds.setInputFormatClass(KeyValueTextInputFormat.class);
+        jobProvisionalIds.setOutputFormatClass(SequenceFileOutputFormat.class);
         
-        if (!jobVectorReassembly.waitForCompletion(true))
-            return 1;
+        jobProvisionalIds.setMapOutputKeyClass(Text.class);
+        jobProvisionalIds.setMapOutputValueClass(Text.class);
         
-        // copy output to local file system and delete temp HDFS directories
-        FileUtil.copy(fs, new Path(pathTmpOutput, "part-r-00000"), outputFile, false, getConf());
+        jobProvisionalIds.setOutputKeyClass(Text.class);
+        jobProvisionalIds.setOutputValueClass(ProvisionalIdWritable.class);
         
-        Scanner scanner = new Scanner(fs.open(new Path(pathTmpOutput, "part-r-00000")));
-        PrintWriter writer = new PrintWriter(outputFile);
-        while (scanner.hasNextLine()) {
-            String line = scanner.nextLine();
-            String[] pair = line.split("\t");
-            String origKey = twoWayLookUp.getKey(Integer.parseInt(pair[0]));
-            writer.println(origKey + "\t" + pair[1]);
+        jobProvisionalIds.setMapperClass(LinkMapper.class);
+        jobProvisionalIds.setCombinerClass(MarkerCombiner.class);
+        jobProvisionalIds.setReducerClass(ProvisionalIdReducer.class);
+        jobProvisionalIds.setNumReduceTasks(numReducers);
+        MultipleOutputs.addNamedOutput(jobProvisionalIds, PageDictionary.DICTIONARY_OUTPUT,
+                SequenceFileOutputFormat.class, Text.class, ProvisionalIdWritable.class);
+        
+        FileInputFormat.setInputPaths(jobProvisionalIds, in);
+        FileOutputFormat.setOutputPath(jobProvisionalIds, provisionalPath);
+        if (!runJob(jobProvisionalIds, 0, "provisionalIds"))
+            return -1;
+        
+        long[] offsets = PageDictionary.partitionOffsets(jobProvisionalIds.getCounters(), 
+                jobProvisionalIds.getNumReduceTasks());
+        
+        Job jobEdgeEncoding = Job.getInstance(getConf());
+        jobEdgeEncoding.getConfiguration().set("map.dictionary.offsets", PageDictionary.formatOffsets(offsets));
+        jobEdgeEncoding.setJarByClass(PageDictionary.class);
+        jobEdgeEncoding.setInputFormatClass(SequenceFileInputFormat.class);
+        jobEdgeEncoding.setOutputFormatClass(TextOutputFormat.class);
+        
+        jobEdgeEncoding.setMapOutputKeyClass(Text.class);
+        jobEdgeEncoding.setMapOutputValueClass(ProvisionalIdWritable.class);
+        
+        jobEdgeEncoding.setOutputKeyClass(LongWritable.class);
+        jobEdgeEncoding.setOutputValueClass(LongWritable.class);
+        
+        jobEdgeEncoding.setMapperClass(Mapper.class);
+        jobEdgeEncoding.setReducerClass(EdgeEncodingReducer.class);
+        jobEdgeEncoding.setNumReduceTasks(numReducers);
+        MultipleOutputs.addNamedOutput(jobEdgeEncoding, PageDictionary.DICTIONARY_OUTPUT,
+                SequenceFileOutputFormat.class, LongWritable.class, Text.class);
+        
+        FileInputFormat.setInputPaths(jobEdgeEncoding, new Path(provisionalPath, "part-*"),
+                new Path(provisionalPath, PageDictionary.DICTIONARY_OUTPUT + "/part-*"));
+        FileOutputFormat.setOutputPath(jobEdgeEncoding, graphPath);
+        if (!runJob(jobEdgeEncoding, 0, "edgeEncoding"))
+            return -1;
+        
+        // keep the dictionary next to the graph rather than inside it
+        FileSystem fs = FileSystem.get(getConf());
+        if (!fs.rename(new Path(graphPath, PageDictionary.DICTIONARY_OUTPUT), dictionaryPath)) {
+            throw new IOException("Could not move the dictionary to " + dictionaryPath);
+        }
+        fs.delete(provisionalPath, true);
+        return offsets[offsets.length - 1];
+    }
+    
+    private void writeDictionary(TwoWayLookUp<String> twoWayLookUp, Path dictionaryPath) 
+            throws IOException {
+        SequenceFile.Writer writer = SequenceFile.createWriter(getConf(), 
+                SequenceFile.Writer.file(new Path(dictionaryPath, "part-00000")), 
+                SequenceFile.Writer.keyClass(LongWritable.class), SequenceFile.Writer.valueClass(Text.class));
+        for (int page = 0; page < twoWayLookUp.size(); page++) {
+            writer.append(new LongWritable(page), new Text(twoWayLookUp.getKey(page)));
         }
-        scanner.close();
         writer.close();
-        
-        fs.delete(pathTmp, true);
-        return 0;
     }
     
     // Input the original page IDs into a two way look up and then re-write the original 
-    // graph file to HDFS using the new consecutive page IDs
+    // graph file to HDFS using the new consecutive page IDs, either as text or as the 
+    // packed binary links read by EdgeListInputFormat
     private static TwoWayLookUp<String> createTwoWayLookUpAndWriteConsecutiveIdGraphFile(
-            FileSystem fs, File in, Path outPath) throws FileNotFoundException, IOException {
+            FileSystem fs, File in, Path outPath, boolean binary) throws FileNotFoundException, IOException {
         Scanner scanner = new Scanner(in);
-        PrintWriter writer = new PrintWriter(fs.create(outPath));
+        FSDataOutputStream out = fs.create(outPath);
+        PrintWriter writer = binary ? null : new PrintWriter(out);
         TwoWayLookUp<String> twlu = new TwoWayLookUp<String>();
         while (scanner.hasNextLine()) {
             String line = scanner.nextLine();
             if (line.startsWith("#"))
                 continue;
-            String[] pair = line.split("\t");
-            int idSrc = twlu.getValue(pair[0]);
-            int idDest = twlu.getValue(pair[1]);
-            writer.println(idSrc + "\t" + idDest);
+            int tab = line.indexOf('\t');
+            int end = line.indexOf('\t', tab + 1);
+            int idSrc = twlu.getValue(line.substring(0, tab));
+            int idDest = twlu.getValue(end < 0 ? line.substring(tab + 1) : line.substring(tab + 1, end));
+            if (binary) {
+                out.writeLong(idSrc);
+                out.writeLong(idDest);
+            }
+            else {
+                writer.println(idSrc + "\t" + idDest);
+            }
         }
         scanner.close();
-        writer.close();
+        if (binary) {
+            out.close();
+        }
+        else {
+            writer.close();
+        }
         return twlu;
     }
 
 
-    private static class TwoWayLookUp<K extends Comparable<K>> {
+    public static class TwoWayLookUp<K extends Comparable<K>> {
         
         private TreeMap<K, Integer> keyToValueMap;
         private ArrayList<K> valueToKeyList;
@@ -292,10 +1270,24 @@ public class CalculatePageRank extends Configured implements Tool {
             return this.keyToValueMap.get(key);
         }
         
+        // gives every key the value newValues[value] instead of value
+        public void reorder(int[] newValues) {
+            ArrayList<K> reorderedList = new ArrayList<K>(valueToKeyList);
+            for (int value = 0; value < newValues.length; value++) {
+                reorderedList.set(newValues[value], valueToKeyList.get(value));
+                keyToValueMap.put(valueToKeyList.get(value), newValues[value]);
+            }
+            valueToKeyList = reorderedList;
+        }
+        
         public K getKey(int value) {
             return valueToKeyList.get(value);
         }
         
+        public boolean containsKey(K key) {
+            return keyToValueMap.containsKey(key);
+        }
+        
         public int size() {
             return valueToKeyList.size();
         }
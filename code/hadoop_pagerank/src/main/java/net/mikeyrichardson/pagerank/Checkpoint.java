@@ -0,0 +1,81 @@
+package net.mikeyrichardson.pagerank;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * The checkpoint a run keeps in its work directory, from which "--resume" picks up a
+ * failed run. It holds the last finished iteration, its residual, the paths of the
+ * vector, matrix and dictionary, and every "map." setting of the run, so that a
+ * resumed run iterates exactly like the one it takes over from.
+ * @author Michael Richardson
+ *
+ */
+public class Checkpoint {
+
+    final public static String CHECKPOINT_FILE = "_checkpoint";
+
+    // a resumed run takes over every setting of the checkpointed one with this prefix
+    final private static String SETTINGS_PREFIX = "map.";
+
+    /**
+     * Records the progress of a run. The checkpoint is written next to the old one and
+     * then renamed over it, so that a failure never leaves a half written checkpoint
+     * behind.
+     */
+    public static void write(FileSystem fs, Configuration conf, Path checkpointPath, int iteration,
+            double sumDiffs, Path vectorPath, Path matrixPath, Path dictionaryPath) throws IOException {
+        Properties checkpoint = new Properties();
+        for (Map.Entry<String, String> setting : conf) {
+            if (setting.getKey().startsWith(SETTINGS_PREFIX)) {
+                checkpoint.setProperty(setting.getKey(), setting.getValue());
+            }
+        }
+        checkpoint.setProperty("iteration", "" + iteration);
+        checkpoint.setProperty("residual", "" + sumDiffs);
+        checkpoint.setProperty("vector", vectorPath.toString());
+        checkpoint.setProperty("matrix", matrixPath.toString());
+        checkpoint.setProperty("dictionary", dictionaryPath.toString());
+        Path newCheckpointPath = checkpointPath.suffix(".new");
+        OutputStream out = fs.create(newCheckpointPath, true);
+        checkpoint.store(out, "PageRank checkpoint");
+        out.close();
+        fs.delete(checkpointPath, false);
+        fs.rename(newCheckpointPath, checkpointPath);
+    }
+
+    /**
+     * Reads the checkpoint of a work directory, falling back to a new checkpoint that
+     * was written but not yet renamed. Returns null if there is no checkpoint.
+     */
+    public static Properties read(FileSystem fs, Path workPath) throws IOException {
+        Path checkpointPath = new Path(workPath, CHECKPOINT_FILE);
+        if (!fs.exists(checkpointPath)) {
+            checkpointPath = checkpointPath.suffix(".new");
+            if (!fs.exists(checkpointPath)) {
+                return null;
+            }
+        }
+        Properties checkpoint = new Properties();
+        InputStream in = fs.open(checkpointPath);
+        checkpoint.load(in);
+        in.close();
+        return checkpoint;
+    }
+
+    /** Sets the settings of the checkpointed run over those given to the resumed one. */
+    public static void restoreSettings(Properties checkpoint, Configuration conf) {
+        for (String name : checkpoint.stringPropertyNames()) {
+            if (name.startsWith(SETTINGS_PREFIX)) {
+                conf.set(name, checkpoint.getProperty(name));
+            }
+        }
+    }
+}
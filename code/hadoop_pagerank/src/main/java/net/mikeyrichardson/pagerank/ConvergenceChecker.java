@@ -19,6 +19,8 @@ public class ConvergenceChecker {
     public static class AbsoluteDifferenceCombiner
             extends Reducer<LongWritable, DoubleWritable, LongWritable, DoubleWritable> {
 
+        private DoubleWritable absDiff = new DoubleWritable();
+
         @Override
         public void reduce(LongWritable key, Iterable<DoubleWritable> values, Context context)
                 throws IOException, InterruptedException {
@@ -28,14 +30,17 @@ public class ConvergenceChecker {
                 diff += sign * v.get();
                 sign *= -1;
             }
-            context.write(key, new DoubleWritable(Math.abs(diff)));
+            absDiff.set(Math.abs(diff));
+            context.write(key, absDiff);
         }
     }  
     
     public static class AbsoluteDifferenceReducer extends
-            Reducer<LongWritable, DoubleWritable, LongWritable, DoubleWritable> {
+            IterationReport.AllocationCountingReducer<LongWritable, DoubleWritable, LongWritable, DoubleWritable> {
         
         private double absDiffSum = 0.0;
+        private DoubleWritable absDiff = new DoubleWritable();
+        private IterationReport.Statistics statistics = new IterationReport.Statistics();
         
         @Override
         public void reduce(LongWritable key, Iterable<DoubleWritable> values, Context context)
@@ -47,13 +52,16 @@ public class ConvergenceChecker {
                 sign *= -1;
             }
             this.absDiffSum += Math.abs(diff);
-            context.write(key, new DoubleWritable(Math.abs(diff)));
+            statistics.addDifference(Math.abs(diff));
+            absDiff.set(Math.abs(diff));
+            context.write(key, absDiff);
         }
         
         @Override
-        public void cleanup(Context context) {
+        public void cleanup(Context context) throws IOException, InterruptedException {
             long sum = (long) (DECIMAL_LONG_CONVERSION_FACTOR * this.absDiffSum);
             context.getCounter(CalculatePageRank.PageRankEnums.ABS_DIFF_SUM).increment(sum);
+            statistics.write(context);
         }
         
     }
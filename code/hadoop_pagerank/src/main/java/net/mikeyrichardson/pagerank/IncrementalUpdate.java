@@ -0,0 +1,699 @@
+package net.mikeyrichardson.pagerank;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+import net.mikeyrichardson.pagerank.io.BlockEntryKey;
+import net.mikeyrichardson.pagerank.io.DeltaIdWritable;
+import net.mikeyrichardson.pagerank.io.EdgeListInputFormat;
+import net.mikeyrichardson.pagerank.io.MatrixBlockWritable;
+import net.mikeyrichardson.pagerank.io.MatrixEntryWritable;
+import net.mikeyrichardson.pagerank.io.PackedVectorInputFormat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * This class contains the mappers and reducers that apply an edge delta to the
+ * renumbered graph kept from an earlier run. Two jobs renumber the delta against the
+ * dictionary, like the PageDictionary jobs, and add its new pages to the dictionary,
+ * without reading the dictionary into memory. The graph update job writes the new
+ * graph, the complete new links of every source page mentioned in the delta and the
+ * list of those pages. The filter mappers then drop the matrix columns and
+ * out-degrees of those pages, so that only their links have to go through the
+ * transition matrix job again. The driver runs these jobs with applyEdgeDelta,
+ * updateTransitionMatrix and writeWarmStartVector.
+ * @author Michael Richardson
+ *
+ */
+public class IncrementalUpdate {
+
+    final public static String AFFECTED_OUTPUT = "affected";
+    final public static String SOURCES_OUTPUT = "sources";
+
+    // Links of the current graph and added links are sent as the destination page and
+    // removed links as -(destination + 1). Every line of the delta also marks its
+    // source page as affected.
+    final public static long AFFECTED_MARKER = Long.MIN_VALUE;
+
+    public static class GraphEdgeMapper extends Mapper<LongWritable, LongWritable, LongWritable, LongWritable> {
+
+        public void map(LongWritable key, LongWritable value, Context context)
+                throws IOException, InterruptedException {
+            context.write(key, value);
+        }
+    }
+
+    /**
+     * Reads the renumbered delta, one "+" or "-" and a tab separated link per line.
+     */
+    public static class DeltaEdgeMapper extends Mapper<LongWritable, Text, LongWritable, LongWritable> {
+
+        private LongWritable srcPage = new LongWritable();
+        private LongWritable link = new LongWritable();
+
+        public void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+            String[] fields = value.toString().split("\t");
+            srcPage.set(Long.parseLong(fields[1]));
+            long destPage = Long.parseLong(fields[2]);
+            link.set(fields[0].equals("-") ? -(destPage + 1) : destPage);
+            context.write(srcPage, link);
+            link.set(AFFECTED_MARKER);
+            context.write(srcPage, link);
+        }
+    }
+
+    /**
+     * Writes the links of each source page that are not removed by the delta. A link
+     * that is removed drops every copy of it, including ones added by the same delta.
+     * The links of affected pages also go to the "affected" output and the pages
+     * themselves to the "sources" output.
+     */
+    public static class GraphUpdateReducer extends
+            Reducer<LongWritable, LongWritable, LongWritable, LongWritable> {
+
+        private long[] links = new long[1024];
+        private long[] removedLinks = new long[16];
+        private LongWritable destPage = new LongWritable();
+        private MultipleOutputs<LongWritable, LongWritable> multipleOutputs;
+
+        @Override
+        public void setup(Context context) {
+            multipleOutputs = new MultipleOutputs<LongWritable, LongWritable>(context);
+        }
+
+        public void reduce(LongWritable key, Iterable<LongWritable> values, Context context)
+                throws IOException, InterruptedException {
+            int numLinks = 0;
+            int numRemovedLinks = 0;
+            boolean affected = false;
+            for (LongWritable value : values) {
+                long link = value.get();
+                if (link == AFFECTED_MARKER) {
+                    affected = true;
+                }
+                else if (link < 0) {
+                    if (numRemovedLinks == removedLinks.length) {
+                        removedLinks = Arrays.copyOf(removedLinks, 2 * numRemovedLinks);
+                    }
+                    removedLinks[numRemovedLinks++] = -link - 1;
+                }
+                else {
+                    if (numLinks == links.length) {
+                        links = Arrays.copyOf(links, 2 * numLinks);
+                    }
+                    links[numLinks++] = link;
+                }
+            }
+            Arrays.sort(removedLinks, 0, numRemovedLinks);
+            for (int i = 0; i < numLinks; i++) {
+                if (Arrays.binarySearch(removedLinks, 0, numRemovedLinks, links[i]) >= 0) {
+                    continue;
+                }
+                destPage.set(links[i]);
+                context.write(key, destPage);
+                if (affected) {
+                    multipleOutputs.write(AFFECTED_OUTPUT, key, destPage, AFFECTED_OUTPUT + "/part");
+                }
+            }
+            if (affected) {
+                multipleOutputs.write(SOURCES_OUTPUT, key, NullWritable.get(), SOURCES_OUTPUT + "/part");
+            }
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            multipleOutputs.close();
+        }
+    }
+
+    /**
+     * Drops the matrix entries in the columns of affected source pages.
+     */
+    public static class MatrixColumnFilterMapper extends
+            Mapper<BlockEntryKey, MatrixEntryWritable, BlockEntryKey, MatrixEntryWritable> {
+
+        private BlockLayout layout;
+        private BitSet affectedPages;
+
+        @Override
+        public void setup(Context context) throws IOException {
+            layout = BlockLayout.fromConfiguration(context.getConfiguration());
+            affectedPages = readAffectedPages(context.getConfiguration(), (int) layout.getNumPages());
+        }
+
+        public void map(BlockEntryKey key, MatrixEntryWritable value, Context context)
+                throws IOException, InterruptedException {
+            long srcPage = layout.blockOffset(key.col.get()) + value.col.get();
+            if (!affectedPages.get((int) srcPage)) {
+                context.write(key, value);
+            }
+        }
+    }
+
+    /**
+     * Drops the columns of affected source pages from the blocks of a partitioned matrix.
+     * Blocks left without columns are dropped as well.
+     */
+    public static class MatrixBlockColumnFilterMapper extends
+            Mapper<BlockEntryKey, MatrixBlockWritable, BlockEntryKey, MatrixBlockWritable> {
+
+        private BlockLayout layout;
+        private BitSet affectedPages;
+
+        @Override
+        public void setup(Context context) throws IOException {
+            layout = BlockLayout.fromConfiguration(context.getConfiguration());
+            affectedPages = readAffectedPages(context.getConfiguration(), (int) layout.getNumPages());
+        }
+
+        public void map(BlockEntryKey key, MatrixBlockWritable value, Context context)
+                throws IOException, InterruptedException {
+            long blockOffset = layout.blockOffset(key.col.get());
+            int numColumns = 0;
+            int numEntries = 0;
+            for (int k = 0; k < value.numColumns; k++) {
+                if (affectedPages.get((int) (blockOffset + value.columns[k]))) {
+                    continue;
+                }
+                int start = value.columnOffsets[k];
+                int numRows = value.columnOffsets[k + 1] - start;
+                System.arraycopy(value.rows, start, value.rows, numEntries, numRows);
+                value.columns[numColumns] = value.columns[k];
+                value.outDegrees[numColumns] = value.outDegrees[k];
+                value.columnOffsets[numColumns] = numEntries;
+                numColumns++;
+                numEntries += numRows;
+            }
+            value.columnOffsets[numColumns] = numEntries;
+            value.numColumns = numColumns;
+            if (numColumns > 0) {
+                context.write(key, value);
+            }
+        }
+    }
+
+    /**
+     * Drops the out-degrees of affected source pages.
+     */
+    public static class OutLinksFilterMapper extends
+            Mapper<LongWritable, IntWritable, LongWritable, IntWritable> {
+
+        private BitSet affectedPages;
+
+        @Override
+        public void setup(Context context) throws IOException {
+            affectedPages = readAffectedPages(context.getConfiguration(),
+                    context.getConfiguration().getInt("map.pages.num", 1000000));
+        }
+
+        public void map(LongWritable key, IntWritable value, Context context)
+                throws IOException, InterruptedException {
+            if (!affectedPages.get((int) key.get())) {
+                context.write(key, value);
+            }
+        }
+    }
+
+    /**
+     * Sends the ID of each page in the dictionary to the reducer for its original ID.
+     */
+    public static class DeltaDictionaryMapper extends Mapper<LongWritable, Text, Text, DeltaIdWritable> {
+
+        private DeltaIdWritable pageId = new DeltaIdWritable();
+
+        public void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+            pageId.source = DeltaIdWritable.PAGE_SOURCE;
+            pageId.setPage(key.get());
+            context.write(value, pageId);
+        }
+    }
+
+    /**
+     * Reads the delta with original page IDs, one "+" or "-" and a tab separated link
+     * per line. Each link goes to the reducer for its source page, and its destination
+     * page is marked so that new pages are numbered whether they are a source or not.
+     */
+    public static class DeltaLinkMapper extends Mapper<LongWritable, Text, Text, DeltaIdWritable> {
+
+        private Text page = new Text();
+        private DeltaIdWritable link = new DeltaIdWritable();
+
+        public void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+            String line = value.toString();
+            if (line.isEmpty() || line.startsWith("#")) {
+                return;
+            }
+            String[] fields = line.split("\t");
+            link.removed = fields[0].equals("-");
+            link.source = DeltaIdWritable.LINK_SOURCE;
+            link.origKey.set(fields[2]);
+            page.set(fields[1]);
+            context.write(page, link);
+            link.source = DeltaIdWritable.MARKER_SOURCE;
+            page.set(fields[2]);
+            context.write(page, link);
+        }
+    }
+
+    /**
+     * Gives every page of the delta its ID from the dictionary or, if it is new and
+     * some added link mentions it, a provisional ID within this reducer's partition.
+     * The ID is written for the page itself and for every link leaving it, keyed by
+     * the link's destination. Removed links with a page that is not in the dictionary
+     * are dropped. The number of new pages in each partition is kept in a counter.
+     */
+    public static class DeltaIdReducer extends Reducer<Text, DeltaIdWritable, Text, DeltaIdWritable> {
+
+        private int partition = 0;
+        private int numNewPages = 0;
+        private Text[] destPages = new Text[16];
+        private boolean[] removedLinks = new boolean[16];
+        private DeltaIdWritable pageId = new DeltaIdWritable();
+        private DeltaIdWritable link = new DeltaIdWritable();
+
+        @Override
+        public void setup(Context context) {
+            this.partition = context.getTaskAttemptID().getTaskID().getId();
+        }
+
+        public void reduce(Text key, Iterable<DeltaIdWritable> values, Context context)
+                throws IOException, InterruptedException {
+            boolean known = false;
+            boolean mentioned = false;
+            boolean added = false;
+            int numLinks = 0;
+            for (DeltaIdWritable value : values) {
+                if (value.source == DeltaIdWritable.PAGE_SOURCE) {
+                    pageId.setPage(value.page);
+                    known = true;
+                    continue;
+                }
+                mentioned = true;
+                added |= !value.removed;
+                if (value.source == DeltaIdWritable.LINK_SOURCE) {
+                    if (numLinks == destPages.length) {
+                        destPages = Arrays.copyOf(destPages, 2 * numLinks);
+                        removedLinks = Arrays.copyOf(removedLinks, 2 * numLinks);
+                    }
+                    if (destPages[numLinks] == null) {
+                        destPages[numLinks] = new Text();
+                    }
+                    destPages[numLinks].set(value.origKey);
+                    removedLinks[numLinks++] = value.removed;
+                }
+            }
+            if (!mentioned || (!known && !added)) {
+                return;
+            }
+            if (!known) {
+                pageId.setProvisional(partition, numNewPages++);
+            }
+            pageId.source = DeltaIdWritable.PAGE_SOURCE;
+            context.write(key, pageId);
+            link.source = DeltaIdWritable.LINK_SOURCE;
+            link.origKey.clear();
+            link.setId(pageId);
+            for (int i = 0; i < numLinks; i++) {
+                link.removed = removedLinks[i];
+                context.write(destPages[i], link);
+            }
+        }
+
+        @Override
+        public void cleanup(Context context) {
+            context.getCounter(PageDictionary.PARTITION_SIZE_GROUP, 
+                    PageDictionary.partitionName(partition)).increment(numNewPages);
+        }
+    }
+
+    /**
+     * Writes every link of the delta with the final IDs of its pages, as a line of 
+     * "+" or "-" and the tab separated link, dropping links to pages that got no ID.
+     * New pages are numbered after the "map.incremental.pages.old" pages of the earlier
+     * run using the offsets in "map.dictionary.offsets", and go to the dictionary output.
+     */
+    public static class DeltaEncodingReducer extends Reducer<Text, DeltaIdWritable, Text, Text> {
+
+        private long numOldPages = 0;
+        private long[] offsets;
+        private long[] srcPages = new long[16];
+        private boolean[] removedLinks = new boolean[16];
+        private Text sign = new Text();
+        private Text link = new Text();
+        private LongWritable destPage = new LongWritable();
+        private MultipleOutputs<Text, Text> multipleOutputs;
+
+        @Override
+        public void setup(Context context) {
+            numOldPages = context.getConfiguration().getLong("map.incremental.pages.old", 0);
+            offsets = PageDictionary.parseOffsets(context.getConfiguration().get("map.dictionary.offsets"));
+            multipleOutputs = new MultipleOutputs<Text, Text>(context);
+        }
+
+        public void reduce(Text key, Iterable<DeltaIdWritable> values, Context context)
+                throws IOException, InterruptedException {
+            boolean hasId = false;
+            boolean isNew = false;
+            int numLinks = 0;
+            for (DeltaIdWritable value : values) {
+                if (value.source == DeltaIdWritable.PAGE_SOURCE) {
+                    destPage.set(value.resolve(numOldPages, offsets));
+                    isNew = value.isNew();
+                    hasId = true;
+                }
+                else {
+                    if (numLinks == srcPages.length) {
+                        srcPages = Arrays.copyOf(srcPages, 2 * numLinks);
+                        removedLinks = Arrays.copyOf(removedLinks, 2 * numLinks);
+                    }
+                    srcPages[numLinks] = value.resolve(numOldPages, offsets);
+                    removedLinks[numLinks++] = value.removed;
+                }
+            }
+            if (!hasId) {
+                return;
+            }
+            if (isNew) {
+                multipleOutputs.write(PageDictionary.DICTIONARY_OUTPUT, destPage, key, 
+                        PageDictionary.DICTIONARY_OUTPUT + "/part");
+            }
+            for (int i = 0; i < numLinks; i++) {
+                sign.set(removedLinks[i] ? "-" : "+");
+                link.set(srcPages[i] + "\t" + destPage.get());
+                context.write(sign, link);
+            }
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            multipleOutputs.close();
+        }
+    }
+
+    /**
+     * Scales the ranks of the earlier run by the old number of pages over the new one,
+     * so that together with the new pages at 1 / the number of pages they add up to 1.
+     */
+    public static class WarmStartMapper extends Mapper<LongWritable, DoubleWritable, LongWritable, DoubleWritable> {
+
+        private double scale = 1.0;
+
+        @Override
+        public void setup(Context context) {
+            Configuration conf = context.getConfiguration();
+            scale = (double) conf.getLong("map.incremental.pages.old", 1) / conf.getLong("map.pages.num", 1);
+        }
+
+        public void map(LongWritable key, DoubleWritable value, Context context)
+                throws IOException, InterruptedException {
+            value.set(value.get() * scale);
+            context.write(key, value);
+        }
+    }
+
+    // read the "sources" output of the graph update job from "map.incremental.sources.path"
+    private static BitSet readAffectedPages(Configuration conf, int numPages) throws IOException {
+        BitSet pages = new BitSet(numPages);
+        Path sourcesPath = new Path(conf.get("map.incremental.sources.path"));
+        FileSystem fs = sourcesPath.getFileSystem(conf);
+        LongWritable page = new LongWritable();
+        for (FileStatus status : fs.globStatus(new Path(sourcesPath, "part-*"))) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+                    SequenceFile.Reader.file(status.getPath()));
+            while (reader.next(page)) {
+                pages.set((int) page.get());
+            }
+            reader.close();
+        }
+        return pages;
+    }
+
+    /**
+     * Apply an edge delta to the renumbered graph of an earlier run. Each line of the
+     * delta is a tab separated link preceded by "+" for an added link or "-" for a
+     * removed one. Two jobs join the delta with the dictionary: new pages get the next
+     * free IDs and are added to the dictionary, and removed links with pages that are
+     * not in it are dropped. The new graph replaces the old one, and the links and IDs
+     * of the source pages in the delta are left in the "affected" and "sources" directories.
+     * Returns the new number of pages or -1 if one of the jobs fails.
+     */
+    public static long applyEdgeDelta(FileSystem fs, Configuration conf, IterationReport report, 
+            File localDelta, Path deltaPath, long numPages, Path dictionaryPath, Path graphPath, Path tmpPath) 
+            throws Exception {
+        Path pathDeltaInput = deltaPath;
+        if (localDelta.exists()) {
+            pathDeltaInput = new Path(new Path(tmpPath, "deltaInput"), localDelta.getName());
+            fs.copyFromLocalFile(new Path(localDelta.getAbsolutePath()), pathDeltaInput);
+        }
+        conf.setLong("map.incremental.pages.old", numPages);
+        
+        Path pathDeltaIds = new Path(tmpPath, "deltaIds");
+        Job jobDeltaIds = Job.getInstance(conf);
+        jobDeltaIds.setJarByClass(IncrementalUpdate.class);
+        jobDeltaIds.setOutputFormatClass(SequenceFileOutputFormat.class);
+        
+        jobDeltaIds.setMapOutputKeyClass(Text.class);
+        jobDeltaIds.setMapOutputValueClass(DeltaIdWritable.class);
+        
+        jobDeltaIds.setOutputKeyClass(Text.class);
+        jobDeltaIds.setOutputValueClass(DeltaIdWritable.class);
+        
+        MultipleInputs.addInputPath(jobDeltaIds, new Path(dictionaryPath, "part-*"), 
+                SequenceFileInputFormat.class, DeltaDictionaryMapper.class);
+        MultipleInputs.addInputPath(jobDeltaIds, pathDeltaInput, 
+                TextInputFormat.class, DeltaLinkMapper.class);
+        jobDeltaIds.setReducerClass(DeltaIdReducer.class);
+        jobDeltaIds.setNumReduceTasks(PageDictionary.numReducers(conf));
+        FileOutputFormat.setOutputPath(jobDeltaIds, pathDeltaIds);
+        if (!IterationReport.runJob(report, jobDeltaIds, 0, "deltaIds"))
+            return -1;
+        
+        long[] offsets = PageDictionary.partitionOffsets(jobDeltaIds.getCounters(), 
+                jobDeltaIds.getNumReduceTasks());
+        
+        Path pathRenumberedDelta = new Path(tmpPath, "delta");
+        Job jobDeltaEncoding = Job.getInstance(conf);
+        jobDeltaEncoding.getConfiguration().set("map.dictionary.offsets", PageDictionary.formatOffsets(offsets));
+        jobDeltaEncoding.setJarByClass(IncrementalUpdate.class);
+        jobDeltaEncoding.setInputFormatClass(SequenceFileInputFormat.class);
+        jobDeltaEncoding.setOutputFormatClass(TextOutputFormat.class);
+        
+        jobDeltaEncoding.setMapOutputKeyClass(Text.class);
+        jobDeltaEncoding.setMapOutputValueClass(DeltaIdWritable.class);
+        
+        jobDeltaEncoding.setOutputKeyClass(Text.class);
+        jobDeltaEncoding.setOutputValueClass(Text.class);
+        
+        jobDeltaEncoding.setMapperClass(Mapper.class);
+        jobDeltaEncoding.setReducerClass(DeltaEncodingReducer.class);
+        jobDeltaEncoding.setNumReduceTasks(PageDictionary.numReducers(conf));
+        MultipleOutputs.addNamedOutput(jobDeltaEncoding, PageDictionary.DICTIONARY_OUTPUT,
+                SequenceFileOutputFormat.class, LongWritable.class, Text.class);
+        
+        FileInputFormat.setInputPaths(jobDeltaEncoding, new Path(pathDeltaIds, "part-*"));
+        FileOutputFormat.setOutputPath(jobDeltaEncoding, pathRenumberedDelta);
+        if (!IterationReport.runJob(report, jobDeltaEncoding, 0, "deltaEncoding"))
+            return -1;
+        
+        // the new pages join the dictionary, and the renumbered delta is left on its own
+        FileStatus[] newDictionaryFiles = fs.globStatus(new Path(pathRenumberedDelta, 
+                PageDictionary.DICTIONARY_OUTPUT + "/part-*"));
+        for (FileStatus status : newDictionaryFiles == null ? new FileStatus[0] : newDictionaryFiles) {
+            Path target = new Path(dictionaryPath, "part-u-" + numPages + status.getPath().getName().substring(4));
+            if (!fs.rename(status.getPath(), target)) {
+                throw new IOException("Could not move " + status.getPath() + " to " + target);
+            }
+        }
+        fs.delete(new Path(pathRenumberedDelta, PageDictionary.DICTIONARY_OUTPUT), true);
+        fs.delete(pathDeltaIds, true);
+        fs.delete(new Path(tmpPath, "deltaInput"), true);
+        long nextPage = numPages + offsets[offsets.length - 1];
+        
+        Path pathGraphUpdate = new Path(tmpPath, "graphUpdate");
+        Job jobGraphUpdate = Job.getInstance(conf);
+        jobGraphUpdate.setJarByClass(IncrementalUpdate.class);
+        jobGraphUpdate.setOutputFormatClass(TextOutputFormat.class);
+        
+        jobGraphUpdate.setMapOutputKeyClass(LongWritable.class);
+        jobGraphUpdate.setMapOutputValueClass(LongWritable.class);
+        
+        jobGraphUpdate.setOutputKeyClass(LongWritable.class);
+        jobGraphUpdate.setOutputValueClass(LongWritable.class);
+        
+        MultipleInputs.addInputPath(jobGraphUpdate, graphPath, 
+                EdgeListInputFormat.class, GraphEdgeMapper.class);
+        MultipleInputs.addInputPath(jobGraphUpdate, pathRenumberedDelta, 
+                TextInputFormat.class, DeltaEdgeMapper.class);
+        jobGraphUpdate.setReducerClass(GraphUpdateReducer.class);
+        MultipleOutputs.addNamedOutput(jobGraphUpdate, AFFECTED_OUTPUT,
+                TextOutputFormat.class, LongWritable.class, LongWritable.class);
+        MultipleOutputs.addNamedOutput(jobGraphUpdate, SOURCES_OUTPUT,
+                SequenceFileOutputFormat.class, LongWritable.class, NullWritable.class);
+        FileOutputFormat.setOutputPath(jobGraphUpdate, pathGraphUpdate);
+        if (!IterationReport.runJob(report, jobGraphUpdate, 0, "graphUpdate"))
+            return -1;
+        
+        Path pathAffected = new Path(tmpPath, AFFECTED_OUTPUT);
+        Path pathSources = new Path(tmpPath, SOURCES_OUTPUT);
+        fs.delete(pathAffected, true);
+        fs.delete(pathSources, true);
+        fs.rename(new Path(pathGraphUpdate, AFFECTED_OUTPUT), pathAffected);
+        fs.rename(new Path(pathGraphUpdate, SOURCES_OUTPUT), pathSources);
+        fs.delete(graphPath, true);
+        fs.rename(pathGraphUpdate, graphPath);
+        fs.delete(pathRenumberedDelta, true);
+        return nextPage;
+    }
+
+    /**
+     * Replace the matrix columns and out-degrees of the source pages changed by an edge
+     * delta. The old entries are filtered out by map-only jobs and only the links of the
+     * changed pages go through the transition matrix job. The columns kept from the stored
+     * matrix and the new ones end up in matrixPath, which for a partitioned matrix are the
+     * blocks that the partitioning job gathers again.
+     */
+    public static boolean updateTransitionMatrix(FileSystem fs, Configuration conf, IterationReport report, 
+            Path storedMatrixPath, Path matrixPath, Path outLinksPath, Path tmpPath, boolean fusedIteration, 
+            boolean partitionedMatrix) throws Exception {
+        Path pathAffected = new Path(tmpPath, AFFECTED_OUTPUT);
+        Path pathMatrixFiltered = new Path(tmpPath, "matrixFiltered");
+        Path pathOutLinksFiltered = new Path(tmpPath, "outlinksFiltered");
+        Path pathMatrixUpdate = new Path(tmpPath, "matrixUpdate");
+        conf.set("map.incremental.sources.path", 
+                new Path(tmpPath, SOURCES_OUTPUT).toString());
+        
+        Job jobMatrixFilter = Job.getInstance(conf);
+        jobMatrixFilter.setJarByClass(IncrementalUpdate.class);
+        jobMatrixFilter.setInputFormatClass(SequenceFileInputFormat.class);
+        jobMatrixFilter.setOutputFormatClass(SequenceFileOutputFormat.class);
+        jobMatrixFilter.setOutputKeyClass(BlockEntryKey.class);
+        if (partitionedMatrix) {
+            jobMatrixFilter.setOutputValueClass(MatrixBlockWritable.class);
+            jobMatrixFilter.setMapperClass(MatrixBlockColumnFilterMapper.class);
+        }
+        else {
+            jobMatrixFilter.setOutputValueClass(MatrixEntryWritable.class);
+            jobMatrixFilter.setMapperClass(MatrixColumnFilterMapper.class);
+        }
+        jobMatrixFilter.setNumReduceTasks(0);
+        FileInputFormat.setInputPaths(jobMatrixFilter, storedMatrixPath);
+        FileOutputFormat.setOutputPath(jobMatrixFilter, pathMatrixFiltered);
+        if (!IterationReport.runJob(report, jobMatrixFilter, 0, "matrixFilter"))
+            return false;
+        
+        if (fusedIteration) {
+            Job jobOutLinksFilter = Job.getInstance(conf);
+            jobOutLinksFilter.setJarByClass(IncrementalUpdate.class);
+            jobOutLinksFilter.setInputFormatClass(SequenceFileInputFormat.class);
+            jobOutLinksFilter.setOutputFormatClass(SequenceFileOutputFormat.class);
+            jobOutLinksFilter.setOutputKeyClass(LongWritable.class);
+            jobOutLinksFilter.setOutputValueClass(IntWritable.class);
+            jobOutLinksFilter.setMapperClass(OutLinksFilterMapper.class);
+            jobOutLinksFilter.setNumReduceTasks(0);
+            FileInputFormat.setInputPaths(jobOutLinksFilter, outLinksPath);
+            FileOutputFormat.setOutputPath(jobOutLinksFilter, pathOutLinksFiltered);
+            if (!IterationReport.runJob(report, jobOutLinksFilter, 0, "outlinksFilter"))
+                return false;
+        }
+        
+        // the filtered files are named part-m-* and the new ones part-r-*, so they 
+        // can share a directory
+        if (fs.exists(pathAffected)) {
+            if (!TransitionMatrixCreator.createTransitionMatrix(conf, report, pathAffected, pathMatrixUpdate, fusedIteration))
+                return false;
+            for (FileStatus status : fs.globStatus(new Path(pathMatrixUpdate, "part-*"))) {
+                fs.rename(status.getPath(), new Path(pathMatrixFiltered, status.getPath().getName()));
+            }
+            if (fusedIteration) {
+                Path pathNewOutLinks = new Path(pathMatrixUpdate, TransitionMatrixCreator.OUTLINKS_OUTPUT);
+                for (FileStatus status : fs.globStatus(new Path(pathNewOutLinks, "part-*"))) {
+                    fs.rename(status.getPath(), new Path(pathOutLinksFiltered, status.getPath().getName()));
+                }
+            }
+        }
+        fs.delete(matrixPath, true);
+        fs.rename(pathMatrixFiltered, matrixPath);
+        if (fusedIteration) {
+            fs.delete(outLinksPath, true);
+            fs.rename(pathOutLinksFiltered, outLinksPath);
+        }
+        fs.delete(pathMatrixUpdate, true);
+        fs.delete(pathAffected, true);
+        fs.delete(new Path(tmpPath, SOURCES_OUTPUT), true);
+        return true;
+    }
+
+    /**
+     * Start from the ranks of an earlier run. The old ranks are scaled down to make room
+     * for the pages added since, which start at 1 / numPages like in a fresh run.
+     */
+    public static boolean writeWarmStartVector(FileSystem fs, Configuration conf, IterationReport report, 
+            Path vectorPath, Path tmpPath, long previousNumPages, long numPages) throws Exception {
+        Path pathWarmStart = new Path(tmpPath, "warmStart");
+        conf.setLong("map.incremental.pages.old", previousNumPages);
+        Job jobWarmStart = Job.getInstance(conf);
+        jobWarmStart.setJarByClass(IncrementalUpdate.class);
+        jobWarmStart.setInputFormatClass(PackedVectorInputFormat.class);
+        jobWarmStart.setOutputFormatClass(SequenceFileOutputFormat.class);
+        jobWarmStart.setOutputKeyClass(LongWritable.class);
+        jobWarmStart.setOutputValueClass(DoubleWritable.class);
+        jobWarmStart.setMapperClass(WarmStartMapper.class);
+        jobWarmStart.setNumReduceTasks(0);
+        for (String vectorFiles : new String[] { "part-*", MultiplyMatrixAndVector.NEWLY_FROZEN_OUTPUT + "/part-*",
+                MultiplyMatrixAndVector.FROZEN_OUTPUT + "/part-*" }) {
+            FileStatus[] statuses = fs.globStatus(new Path(vectorPath, vectorFiles));
+            if (statuses != null && statuses.length > 0) {
+                FileInputFormat.addInputPath(jobWarmStart, new Path(vectorPath, vectorFiles));
+            }
+        }
+        FileOutputFormat.setOutputPath(jobWarmStart, pathWarmStart);
+        if (!IterationReport.runJob(report, jobWarmStart, 0, "warmStart"))
+            return false;
+        
+        // only the new pages are written here, which the delta keeps few
+        if (numPages > previousNumPages) {
+            LongWritable page = new LongWritable();
+            DoubleWritable rank = new DoubleWritable(1.0 / numPages);
+            SequenceFile.Writer sfWriter = SequenceFile.createWriter(conf, 
+                    SequenceFile.Writer.file(new Path(pathWarmStart, "part-n-00000")), 
+                    SequenceFile.Writer.keyClass(LongWritable.class), 
+                    SequenceFile.Writer.valueClass(DoubleWritable.class));
+            for (long i = previousNumPages; i < numPages; i++) {
+                page.set(i);
+                sfWriter.append(page, rank);
+            }
+            sfWriter.close();
+        }
+        fs.delete(vectorPath, true);
+        if (!fs.rename(pathWarmStart, vectorPath)) {
+            throw new IOException("Could not move " + pathWarmStart + " to " + vectorPath);
+        }
+        return true;
+    }
+
+}
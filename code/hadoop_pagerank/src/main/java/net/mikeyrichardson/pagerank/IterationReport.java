@@ -0,0 +1,230 @@
+package net.mikeyrichardson.pagerank;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.FileSystemCounter;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.apache.hadoop.mapreduce.TaskReport;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Scanner;
+
+/**
+ * Writes a CSV report with a row for every job the driver runs and a row for every
+ * iteration. A job row has the wall time of the job, its record and byte counters and
+ * the largest and median input records and run time of its reducers, which show how
+ * evenly the divs spread the work, and the time its tasks spent in garbage collection
+ * and the bytes allocated by its main mappers and reducers. An iteration row has the
+ * wall time of the whole iteration, the L1 and L-infinity residuals and the sum of the
+ * new vector.
+ * @author Michael Richardson
+ *
+ */
+public class IterationReport {
+
+    final public static String STATISTICS_PREFIX = "_statistics-";
+
+    final private static String HEADER = "iteration,phase,seconds,map_input_records,map_output_records,"
+            + "reduce_input_records,reduce_output_records,map_output_materialized_bytes,reduce_shuffle_bytes,"
+            + "spilled_records,local_bytes_written,reducers,reducer_records_max,reducer_records_median,"
+            + "reducer_seconds_max,reducer_seconds_median,l1_residual,linf_residual,vector_sum,"
+            + "gc_seconds,allocated_bytes";
+
+    /**
+     * The residuals and vector sum added up by one reducer. Counters only hold longs,
+     * so each reducer also writes these at full precision to a hidden file next to its
+     * output, where the driver reads them back once the job is done.
+     */
+    public static class Statistics {
+
+        public double absDiffSum = 0.0;
+        public double maxAbsDiff = 0.0;
+        public double vectorSum = 0.0;
+
+        public void addDifference(double diff) {
+            absDiffSum += diff;
+            maxAbsDiff = Math.max(maxAbsDiff, diff);
+        }
+
+        public void write(TaskInputOutputContext<?, ?, ?, ?> context) throws IOException, InterruptedException {
+            Path path = new Path(FileOutputFormat.getWorkOutputPath(context),
+                    STATISTICS_PREFIX + PageDictionary.partitionName(context.getTaskAttemptID().getTaskID().getId()));
+            PrintWriter writer = new PrintWriter(path.getFileSystem(context.getConfiguration()).create(path, true));
+            writer.println(absDiffSum + "\t" + maxAbsDiff + "\t" + vectorSum);
+            writer.close();
+        }
+
+        // combines the statistics of every reducer of a job, which must have written some
+        public static Statistics read(FileSystem fs, Path outputPath) throws IOException {
+            FileStatus[] statuses = fs.globStatus(new Path(outputPath, STATISTICS_PREFIX + "*"));
+            if (statuses == null || statuses.length == 0) {
+                throw new IOException("No " + STATISTICS_PREFIX + "* files in " + outputPath);
+            }
+            Statistics statistics = new Statistics();
+            for (FileStatus status : statuses) {
+                Scanner scanner = new Scanner(fs.open(status.getPath()));
+                String[] fields = scanner.nextLine().split("\t");
+                scanner.close();
+                statistics.absDiffSum += Double.parseDouble(fields[0]);
+                statistics.maxAbsDiff = Math.max(statistics.maxAbsDiff, Double.parseDouble(fields[1]));
+                statistics.vectorSum += Double.parseDouble(fields[2]);
+            }
+            return statistics;
+        }
+    }
+
+    /**
+     * Counts the bytes allocated by the thread of a task between its setup and its
+     * cleanup, which takes in the deserialization of its input and the serialization of
+     * its output. Nothing is counted on JVMs that cannot measure this for one thread.
+     */
+    public static class AllocationCounter {
+
+        private long startBytes = -1;
+
+        public void start() {
+            startBytes = allocatedBytes();
+        }
+
+        public void stop(TaskInputOutputContext<?, ?, ?, ?> context) {
+            long bytes = allocatedBytes();
+            if (startBytes >= 0 && bytes >= startBytes) {
+                context.getCounter(CalculatePageRank.PageRankEnums.ALLOCATED_BYTES).increment(bytes - startBytes);
+            }
+        }
+
+        private static long allocatedBytes() {
+            java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+                if (threadBean.isThreadAllocatedMemorySupported() && threadBean.isThreadAllocatedMemoryEnabled()) {
+                    return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * A mapper whose task counts its allocated bytes with an AllocationCounter from
+     * before its setup to after its cleanup.
+     */
+    public static class AllocationCountingMapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT>
+            extends Mapper<KEYIN, VALUEIN, KEYOUT, VALUEOUT> {
+
+        @Override
+        public void run(Context context) throws IOException, InterruptedException {
+            AllocationCounter allocationCounter = new AllocationCounter();
+            allocationCounter.start();
+            super.run(context);
+            allocationCounter.stop(context);
+        }
+    }
+
+    /**
+     * A reducer whose task counts its allocated bytes like AllocationCountingMapper.
+     */
+    public static class AllocationCountingReducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT>
+            extends Reducer<KEYIN, VALUEIN, KEYOUT, VALUEOUT> {
+
+        @Override
+        public void run(Context context) throws IOException, InterruptedException {
+            AllocationCounter allocationCounter = new AllocationCounter();
+            allocationCounter.start();
+            super.run(context);
+            allocationCounter.stop(context);
+        }
+    }
+
+    private PrintWriter writer;
+
+    public IterationReport(FileSystem fs, Path reportPath) throws IOException {
+        writer = new PrintWriter(fs.create(reportPath, true));
+        writer.println(HEADER);
+    }
+
+    public void addJob(int iteration, String phase, Job job, long millis)
+            throws IOException, InterruptedException {
+        Counters counters = job.getCounters();
+        TaskReport[] reports = job.getTaskReports(TaskType.REDUCE);
+        long[] reducerRecords = new long[reports.length];
+        long[] reducerMillis = new long[reports.length];
+        for (int i = 0; i < reports.length; i++) {
+            reducerRecords[i] = reports[i].getTaskCounters().findCounter(TaskCounter.REDUCE_INPUT_RECORDS).getValue();
+            reducerMillis[i] = Math.max(0, reports[i].getFinishTime() - reports[i].getStartTime());
+        }
+        writer.println(iteration + "," + phase + "," + millis / 1000.0
+                + "," + counters.findCounter(TaskCounter.MAP_INPUT_RECORDS).getValue()
+                + "," + counters.findCounter(TaskCounter.MAP_OUTPUT_RECORDS).getValue()
+                + "," + counters.findCounter(TaskCounter.REDUCE_INPUT_RECORDS).getValue()
+                + "," + counters.findCounter(TaskCounter.REDUCE_OUTPUT_RECORDS).getValue()
+                + "," + counters.findCounter(TaskCounter.MAP_OUTPUT_MATERIALIZED_BYTES).getValue()
+                + "," + counters.findCounter(TaskCounter.REDUCE_SHUFFLE_BYTES).getValue()
+                + "," + counters.findCounter(TaskCounter.SPILLED_RECORDS).getValue()
+                + "," + counters.findCounter("file", FileSystemCounter.BYTES_WRITTEN).getValue()
+                + "," + job.getNumReduceTasks() + "," + skew(reducerRecords, reducerMillis) + ",,,"
+                + "," + counters.findCounter(TaskCounter.GC_TIME_MILLIS).getValue() / 1000.0
+                + "," + counters.findCounter(CalculatePageRank.PageRankEnums.ALLOCATED_BYTES).getValue());
+        writer.flush();
+    }
+
+    public void addIteration(int iteration, long millis, Statistics statistics) {
+        writer.println(iteration + ",iteration," + millis / 1000.0 + ",,,,,,,,,,,,,,"
+                + statistics.absDiffSum + "," + statistics.maxAbsDiff + "," + statistics.vectorSum + ",,");
+        writer.flush();
+    }
+
+    public void close() {
+        writer.close();
+    }
+
+    /**
+     * Runs a job and adds it to the report, if there is one. Returns whether the job
+     * succeeded.
+     */
+    public static boolean runJob(IterationReport report, Job job, int iteration, String phase)
+            throws IOException, InterruptedException, ClassNotFoundException {
+        long startTime = System.currentTimeMillis();
+        boolean success = job.waitForCompletion(true);
+        if (success && report != null) {
+            report.addJob(iteration, phase, job, System.currentTimeMillis() - startTime);
+        }
+        return success;
+    }
+
+    // the local runner has no task reports, which leaves the reducer columns empty
+    private static String skew(long[] reducerRecords, long[] reducerMillis) {
+        if (reducerRecords.length == 0) {
+            return ",,,";
+        }
+        return max(reducerRecords) + "," + median(reducerRecords)
+                + "," + max(reducerMillis) / 1000.0 + "," + median(reducerMillis) / 1000.0;
+    }
+
+    private static long max(long[] values) {
+        long max = 0;
+        for (long value : values) {
+            max = Math.max(max, value);
+        }
+        return max;
+    }
+
+    private static double median(long[] values) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2.0;
+    }
+
+}
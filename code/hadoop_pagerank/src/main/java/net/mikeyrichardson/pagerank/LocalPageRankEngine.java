@@ -0,0 +1,134 @@
+package net.mikeyrichardson.pagerank;
+
+import org.apache.hadoop.conf.Configuration;
+
+import net.mikeyrichardson.pagerank.CalculatePageRank.TwoWayLookUp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * This class calculates PageRank in memory on a single machine for graphs small 
+ * enough to fit in its memory. The renumbered graph is held as compressed sparse rows
+ * of incoming links and each iteration is spread over all cores with parallel streams.
+ * It uses the same teleportation rate, convergence threshold and output format as 
+ * the Hadoop version.
+ * @author Michael Richardson
+ *
+ */
+public class LocalPageRankEngine {
+    
+    private double teleportationRate = 0.0;
+    private double epsilon = 0.0;
+    
+    private TwoWayLookUp<String> twoWayLookUp;
+    private int numPages = 0;
+    private int[] inLinkOffsets;
+    private int[] inLinkSources;
+    private int[] outDegrees;
+    
+    public LocalPageRankEngine(Configuration conf) {
+        this.teleportationRate = conf.getDouble("map.teleportation.rate", 0.15);
+        this.epsilon = conf.getDouble("map.epsilon.value", 0.00001);
+    }
+    
+    public int run(File graphFile, File outputFile) throws IOException {
+        if (!graphFile.exists()) {
+            System.err.println("Input file does not exist");
+            return 1;
+        }
+        loadGraph(graphFile);
+        double[] ranks = calculatePageRank();
+        PrintWriter writer = new PrintWriter(outputFile);
+        for (int page = 0; page < numPages; page++) {
+            writer.println(twoWayLookUp.getKey(page) + "\t" + ranks[page]);
+        }
+        writer.close();
+        return 0;
+    }
+    
+    // Renumber the pages in the order they are first seen and then sort the links 
+    // by destination page with a counting sort
+    private void loadGraph(File graphFile) throws IOException {
+        twoWayLookUp = new TwoWayLookUp<String>();
+        int[] srcPages = new int[1024];
+        int[] destPages = new int[1024];
+        int numLinks = 0;
+        BufferedReader reader = new BufferedReader(new FileReader(graphFile));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int tab = line.indexOf('\t');
+            if (line.startsWith("#") || tab < 0) {
+                continue;
+            }
+            if (numLinks == srcPages.length) {
+                srcPages = Arrays.copyOf(srcPages, 2 * numLinks);
+                destPages = Arrays.copyOf(destPages, 2 * numLinks);
+            }
+            // like the dictionary of the driver, columns after the destination page are ignored
+            int end = line.indexOf('\t', tab + 1);
+            srcPages[numLinks] = twoWayLookUp.getValue(line.substring(0, tab));
+            destPages[numLinks] = twoWayLookUp.getValue(end < 0 ? line.substring(tab + 1) : line.substring(tab + 1, end));
+            numLinks++;
+        }
+        reader.close();
+        
+        numPages = twoWayLookUp.size();
+        outDegrees = new int[numPages];
+        inLinkOffsets = new int[numPages + 1];
+        for (int link = 0; link < numLinks; link++) {
+            outDegrees[srcPages[link]]++;
+            inLinkOffsets[destPages[link] + 1]++;
+        }
+        for (int page = 0; page < numPages; page++) {
+            inLinkOffsets[page + 1] += inLinkOffsets[page];
+        }
+        inLinkSources = new int[numLinks];
+        int[] position = Arrays.copyOf(inLinkOffsets, numPages);
+        for (int link = 0; link < numLinks; link++) {
+            inLinkSources[position[destPages[link]]++] = srcPages[link];
+        }
+    }
+    
+    // Power iteration with the rank lost to teleportation and dangling pages spread 
+    // evenly over all pages, stopping when the sum of absolute differences between
+    // successive vectors drops below epsilon
+    private double[] calculatePageRank() {
+        final double[] ranks = new double[numPages];
+        final double[] shares = new double[numPages];
+        final double[] nextRanks = new double[numPages];
+        Arrays.fill(ranks, 1.0 / numPages);
+        final double linkRate = 1 - teleportationRate;
+        while (true) {
+            IntStream.range(0, numPages).parallel().forEach(page -> {
+                shares[page] = outDegrees[page] == 0 ? 0.0 : ranks[page] / outDegrees[page];
+            });
+            IntStream.range(0, numPages).parallel().forEach(page -> {
+                double sum = 0.0;
+                for (int i = inLinkOffsets[page]; i < inLinkOffsets[page + 1]; i++) {
+                    sum += shares[inLinkSources[i]];
+                }
+                nextRanks[page] = linkRate * sum;
+            });
+            double vectorSum = IntStream.range(0, numPages).parallel()
+                    .mapToDouble(page -> nextRanks[page]).sum();
+            final double normAmount = (1 - vectorSum) / numPages;
+            double sumDiffs = IntStream.range(0, numPages).parallel().mapToDouble(page -> {
+                nextRanks[page] += normAmount;
+                double diff = Math.abs(nextRanks[page] - ranks[page]);
+                ranks[page] = nextRanks[page];
+                return diff;
+            }).sum();
+            System.out.println("Sum of absolute differences: " + sumDiffs);
+            if (sumDiffs < epsilon) {
+                break;
+            }
+        }
+        return ranks;
+    }
+}
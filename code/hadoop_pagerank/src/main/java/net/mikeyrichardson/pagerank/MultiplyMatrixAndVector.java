@@ -1,15 +1,26 @@
 package net.mikeyrichardson.pagerank;
 
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.DoubleWritable;
-import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.mapreduce.Partitioner;
-import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
 
 import net.mikeyrichardson.pagerank.io.BlockEntryKey;
+import net.mikeyrichardson.pagerank.io.MatrixBlockWritable;
 import net.mikeyrichardson.pagerank.io.MatrixEntryWritable;
+import net.mikeyrichardson.pagerank.io.VectorBlockWritable;
+import net.mikeyrichardson.pagerank.io.VectorFileReader;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
  * This class contains mapper and reducer classes to carry out matrix/vector multiplication
@@ -21,23 +32,30 @@ import java.io.IOException;
 public class MultiplyMatrixAndVector {
     
     final public static double DECIMAL_LONG_CONVERSION_FACTOR = 1e18;
+    final public static double EXTRAPOLATION_LONG_CONVERSION_FACTOR = 1e12;
+    
+    // In an adaptive iteration, pages whose rank has stopped changing are frozen. The
+    // status of a page travels in the column of its vector entry.
+    final public static int ACTIVE_PAGE = 0;
+    final public static int NEWLY_FROZEN_PAGE = 1;
+    final public static int FROZEN_PAGE = 2;
+    final public static String NEWLY_FROZEN_OUTPUT = "newlyfrozen";
+    final public static String FROZEN_OUTPUT = "frozen";
+    final public static String CONTRIBUTION_OUTPUT = "contribution";
  
     public static class VectorMapper extends
-            Mapper<LongWritable, DoubleWritable, BlockEntryKey, MatrixEntryWritable> {
+            IterationReport.AllocationCountingMapper<LongWritable, DoubleWritable, BlockEntryKey, MatrixEntryWritable> {
         
+        protected int pageStatus = ACTIVE_PAGE;
         private int numDivs = 0;
-        private int numPages = 0;
-        private int numPagesPerDiv = 0;
-        private int numDivsWithOneExtraPage = 0;
+        private BlockLayout layout;
+        private BlockEntryKey entryKey = new BlockEntryKey();
+        private MatrixEntryWritable entry = new MatrixEntryWritable();
 
         @Override
         public void setup(Context context) {
-            this.numDivs = context.getConfiguration().getInt(
-                    "map.divs.num", 2);
-            this.numPages = context.getConfiguration().getInt(
-                    "map.pages.num", 1000000);
-            this.numPagesPerDiv = this.numPages / numDivs;
-            this.numDivsWithOneExtraPage = this.numPages % this.numDivs;
+            this.layout = BlockLayout.fromConfiguration(context.getConfiguration());
+            this.numDivs = layout.getNumBlocks();
         }
         
         // sends the 
@@ -45,51 +63,262 @@ public class MultiplyMatrixAndVector {
                 throws IOException, InterruptedException {
             long page = key.get();
             double weight = value.get();
-            int vectorDiv = 0, i = 0, j = 0;
-            if (page < this.numDivsWithOneExtraPage * (numPagesPerDiv + 1)) {
-                vectorDiv = (int) (page / (numPagesPerDiv + 1));
-                i = (int) (page % (numPagesPerDiv + 1));
-            }
-            else {
-                vectorDiv = (int) ((page - this.numDivsWithOneExtraPage) / numPagesPerDiv);
-                i = (int) ((page - this.numDivsWithOneExtraPage) % numPagesPerDiv);
+            int vectorDiv = layout.blockOf(page);
+            int i = (int) (page - layout.blockOffset(vectorDiv)), j = pageStatus;
+            entry.set(i, j, weight);
+            // a frozen page only goes to the reducer for its own block, which writes it 
+            // out again unchanged
+            if (pageStatus == FROZEN_PAGE) {
+                entryKey.set(vectorDiv, vectorDiv, BlockEntryKey.VECTOR_SOURCE);
+                context.write(entryKey, entry);
+                return;
             }
             for (int blockRow = 0; blockRow < numDivs; blockRow++) {
-                context.write(new BlockEntryKey(blockRow, vectorDiv, BlockEntryKey.VECTOR_SOURCE),
-                          new MatrixEntryWritable(i, j, weight));
+                entryKey.set(blockRow, vectorDiv, BlockEntryKey.VECTOR_SOURCE);
+                context.write(entryKey, entry);
             }
 
         }
     }
+    
+    /**
+     * Sends the pages frozen in the previous adaptive iteration to every block row one
+     * last time, so that the reducers can keep their contribution to each row.
+     */
+    public static class NewlyFrozenVectorMapper extends VectorMapper {
+        
+        public NewlyFrozenVectorMapper() {
+            this.pageStatus = NEWLY_FROZEN_PAGE;
+        }
+    }
+    
+    /**
+     * Sends pages frozen in earlier adaptive iterations to their own block only.
+     */
+    public static class FrozenVectorMapper extends VectorMapper {
+        
+        public FrozenVectorMapper() {
+            this.pageStatus = FROZEN_PAGE;
+        }
+    }
 
-    public static class BlockMultiplicationReducer extends
-            Reducer<BlockEntryKey, MatrixEntryWritable, LongWritable, DoubleWritable> {
+    /**
+     * Sends the vector to every block row like VectorMapper, but packs the ranks of up to
+     * "map.vector.block.pages" consecutive pages of a block (4096 by default) into one
+     * record, so that the pages themselves do not go through the shuffle. With
+     * "map.vector.float" the ranks are sent as floats.
+     */
+    public static class PackedVectorMapper extends
+            IterationReport.AllocationCountingMapper<LongWritable, DoubleWritable, BlockEntryKey, VectorBlockWritable> {
+        
+        private BlockLayout layout;
+        private int maxLength = 0;
+        private int vectorDiv = -1;
+        private long nextPage = 0;
+        private long blockEnd = 0;
+        private BlockEntryKey entryKey = new BlockEntryKey();
+        private VectorBlockWritable block;
+
+        @Override
+        public void setup(Context context) {
+            Configuration conf = context.getConfiguration();
+            this.layout = BlockLayout.fromConfiguration(conf);
+            this.maxLength = conf.getInt("map.vector.block.pages", 4096);
+            this.block = new VectorBlockWritable(conf.getBoolean("map.vector.float", false));
+        }
+        
+        @Override
+        public void map(LongWritable key, DoubleWritable value, Context context) 
+                throws IOException, InterruptedException {
+            long page = key.get();
+            if (block.length > 0 && (page != nextPage || page == blockEnd || block.length == maxLength)) {
+                writeBlock(context);
+            }
+            if (block.length == 0) {
+                vectorDiv = layout.blockOf(page);
+                blockEnd = layout.blockOffset(vectorDiv) + layout.blockLength(vectorDiv);
+                block.clear((int) (page - layout.blockOffset(vectorDiv)));
+            }
+            block.add(value.get());
+            nextPage = page + 1;
+        }
+        
+        private void writeBlock(Context context) throws IOException, InterruptedException {
+            for (int blockRow = 0; blockRow < layout.getNumBlocks(); blockRow++) {
+                entryKey.set(blockRow, vectorDiv, BlockEntryKey.VECTOR_SOURCE);
+                context.write(entryKey, block);
+            }
+            block.clear(0);
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            if (block.length > 0) {
+                writeBlock(context);
+            }
+        }
+    }
+
+    /**
+     * Multiplies the block rows of the matrix by the vector. The vector blocks arrive as
+     * MatrixEntryWritable entries from VectorMapper or as VectorBlockWritable runs from
+     * PackedVectorMapper, and the matrix blocks as entries or from the partition file.
+     */
+    public static class BlockMultiplicationReducer<V extends Writable> extends
+            IterationReport.AllocationCountingReducer<BlockEntryKey, V, LongWritable, DoubleWritable> {
         
-        private int numDivs = 0;
         private int numPages = 0;
-        private int numPagesPerDiv = 0;
-        private int numDivsWithOneExtraPage = 0;
+        private BlockLayout layout;
         private double teleportationRate = 0.0;
         private int currentBlockRow = -1;
         private double[] vectorBlock;
         private double[] resultBlock;
+        private SequenceFile.Reader matrixReader;
+        private BlockEntryKey matrixKey = new BlockEntryKey();
+        private MatrixBlockWritable matrixBlock = new MatrixBlockWritable();
+        private boolean matrixBlockPending = false;
+        private boolean fused = false;
+        private BitSet pagesWithOutLinks;
+        private double[] previousBlock;
+        private double vectorMass = 0.0;
+        private double danglingMass = 0.0;
+        private boolean gaussSeidel = false;
+        private long[] diagonalEntries = new long[1024];
+        private int numDiagonalEntries = 0;
+        private double[] diagonalWeights;
+        private int currentVectorCol = -1;
+        private boolean adaptive = false;
+        private double adaptiveTolerance = 0.0;
+        private double frozenMass = 0.0;
+        private double frozenDanglingMass = 0.0;
+        private int[] rowStatus;
+        private double[] newlyFrozenBlock;
+        private boolean newlyFrozenInBlock = false;
+        private double[] frozenContribution;
+        private PartitionVectorReader contributionReader;
+        private MultipleOutputs<LongWritable, DoubleWritable> multipleOutputs;
+        private boolean extrapolationStatistics = false;
+        private double extrapolationScale = 1.0;
+        private double[] extrapolationWeights;
+        private PartitionVectorReader olderHistoryReader;
+        private PartitionVectorReader historyReader;
+        private IterationReport.Statistics statistics = new IterationReport.Statistics();
+        private LongWritable outPage = new LongWritable();
+        private DoubleWritable outRank = new DoubleWritable();
 
         @Override
-        public void setup(Context context) {
+        public void setup(Context context) throws IOException {
             this.teleportationRate = context.getConfiguration().getDouble(
                     "map.teleportation.rate", 0.15);
-            this.numDivs = context.getConfiguration().getInt(
-                    "map.divs.num", 2);
             this.numPages = context.getConfiguration().getInt(
                     "map.pages.num", 1000000);
-            this.numPagesPerDiv = this.numPages / numDivs;
-            this.numDivsWithOneExtraPage = this.numPages % this.numDivs;
-            vectorBlock = new double[this.numPagesPerDiv + 1];
-            resultBlock = new double[this.numPagesPerDiv + 1];
+            this.layout = BlockLayout.fromConfiguration(context.getConfiguration());
+            int maxBlockLength = layout.maxBlockLength();
+            vectorBlock = new double[maxBlockLength];
+            resultBlock = new double[maxBlockLength];
+            
+            // when the matrix has already been partitioned by row block, this reducer 
+            // reads its own partition directly instead of receiving it through the shuffle
+            String partitionedMatrix = context.getConfiguration().get("map.matrix.partitioned.path");
+            if (partitionedMatrix != null) {
+                Configuration conf = context.getConfiguration();
+                Path partitionPath = new Path(partitionedMatrix, String.format("part-r-%05d",
+                        context.getTaskAttemptID().getTaskID().getId()));
+                matrixReader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(partitionPath));
+                matrixBlockPending = matrixReader.next(matrixKey, matrixBlock);
+            }
+            
+            // a fused iteration normalizes and checks convergence in this reducer, which
+            // needs to know which pages are dangling in order to account for the rank they lose
+            this.fused = context.getConfiguration().getBoolean("map.iteration.fused", false);
+            if (this.fused) {
+                previousBlock = new double[maxBlockLength];
+                pagesWithOutLinks = readPagesWithOutLinks(context.getConfiguration(), 
+                        new Path(context.getConfiguration().get("map.outlinks.path")), this.numPages);
+            }
+            
+            // block Gauss-Seidel holds back the diagonal block of each block row until
+            // the end, when the new ranks of the block's earlier rows are already known
+            this.gaussSeidel = this.fused && 
+                    context.getConfiguration().getBoolean("map.iteration.gaussseidel", false);
+            if (this.gaussSeidel) {
+                diagonalWeights = new double[maxBlockLength];
+            }
+            
+            // An adaptive iteration stops updating pages whose rank has stopped changing.
+            // Their contribution to the rows of this reducer's blocks is kept between 
+            // iterations, and the total rank they hold is passed in by the driver.
+            this.adaptive = this.fused && 
+                    context.getConfiguration().getBoolean("map.iteration.adaptive", false);
+            if (this.adaptive) {
+                this.gaussSeidel = false;
+                Configuration conf = context.getConfiguration();
+                this.adaptiveTolerance = conf.getDouble("map.adaptive.tolerance", 
+                        conf.getDouble("map.epsilon.value", 0.00001) / this.numPages);
+                this.frozenMass = conf.getDouble("map.adaptive.frozen.mass", 0.0);
+                this.frozenDanglingMass = conf.getDouble("map.adaptive.frozen.dangling.mass", 0.0);
+                rowStatus = new int[maxBlockLength];
+                newlyFrozenBlock = new double[maxBlockLength];
+                frozenContribution = new double[maxBlockLength];
+                multipleOutputs = new MultipleOutputs<LongWritable, DoubleWritable>(context);
+                String contributionPath = conf.get("map.adaptive.contribution.path");
+                if (contributionPath != null) {
+                    contributionReader = new PartitionVectorReader(conf, new Path(contributionPath), 
+                            context.getTaskAttemptID().getTaskID().getId());
+                }
+            }
+            
+            // Quadratic extrapolation takes two iterations. In the first the reducers add
+            // up the inner products of the differences between the last four vectors, from
+            // which the driver works out the weights of the extrapolated vector. In the
+            // second they write the weighted sum of the last three vectors instead of the
+            // new one. The older vectors are kept by the driver in the history paths.
+            Configuration conf = context.getConfiguration();
+            int partition = context.getTaskAttemptID().getTaskID().getId();
+            if (this.fused && !this.adaptive && !this.gaussSeidel) {
+                this.extrapolationStatistics = conf.getBoolean("map.extrapolation.statistics", false);
+                this.extrapolationScale = conf.getDouble("map.extrapolation.scale", 1.0);
+                if (this.extrapolationStatistics) {
+                    olderHistoryReader = new PartitionVectorReader(conf, 
+                            new Path(conf.get("map.extrapolation.history.older")), partition);
+                }
+                String weights = conf.get("map.extrapolation.weights");
+                if (weights != null) {
+                    extrapolationWeights = new double[3];
+                    String[] parts = weights.split(",");
+                    for (int i = 0; i < 3; i++) {
+                        extrapolationWeights[i] = Double.parseDouble(parts[i]);
+                    }
+                }
+                if (this.extrapolationStatistics || extrapolationWeights != null) {
+                    historyReader = new PartitionVectorReader(conf, 
+                            new Path(conf.get("map.extrapolation.history")), partition);
+                }
+            }
+        }
+        
+        static BitSet readPagesWithOutLinks(Configuration conf, Path outLinksPath, int numPages) 
+                throws IOException {
+            BitSet pages = new BitSet(numPages);
+            LongWritable page = new LongWritable();
+            IntWritable outDegree = new IntWritable();
+            FileSystem fs = outLinksPath.getFileSystem(conf);
+            for (FileStatus status : fs.listStatus(outLinksPath)) {
+                if (!status.getPath().getName().startsWith("part")) {
+                    continue;
+                }
+                SequenceFile.Reader reader = new SequenceFile.Reader(conf, 
+                        SequenceFile.Reader.file(status.getPath()));
+                while (reader.next(page, outDegree)) {
+                    pages.set((int) page.get());
+                }
+                reader.close();
+            }
+            return pages;
         }
         
         @Override
-        public void reduce(BlockEntryKey key, Iterable<MatrixEntryWritable> values, Context context)
+        public void reduce(BlockEntryKey key, Iterable<V> values, Context context)
                 throws IOException, InterruptedException {
             // when moving to a new row, write the results before zeroing the vector
             if (key.row.get() != currentBlockRow) {
@@ -101,53 +330,405 @@ public class MultiplyMatrixAndVector {
                     vectorBlock[row] = 0;
                     resultBlock[row] = 0;
                 }
+                vectorMass = 0.0;
+                danglingMass = 0.0;
+                numDiagonalEntries = 0;
+                currentVectorCol = -1;
+                if (adaptive) {
+                    startAdaptiveBlock();
+                }
             }
             if (key.source.get() == BlockEntryKey.VECTOR_SOURCE) {
-                for (MatrixEntryWritable entry : values) {
-                   vectorBlock[entry.row.get()] = entry.value.get();
+                currentVectorCol = key.col.get();
+                boolean diagonal = key.col.get() == key.row.get();
+                long colOffset = blockOffset(key.col.get());
+                if (adaptive) {
+                    // pages that are not sent leave no stale ranks behind
+                    Arrays.fill(vectorBlock, 0.0);
+                    Arrays.fill(newlyFrozenBlock, 0.0);
+                    newlyFrozenInBlock = false;
+                }
+                for (V value : values) {
+                    if (value instanceof VectorBlockWritable) {
+                        VectorBlockWritable block = (VectorBlockWritable) value;
+                        for (int i = 0; i < block.length; i++) {
+                            addVectorRank(block.offset + i, ACTIVE_PAGE, block.ranks[i], colOffset, diagonal);
+                        }
+                    }
+                    else {
+                        MatrixEntryWritable entry = (MatrixEntryWritable) value;
+                        addVectorRank(entry.row.get(), entry.col.get(), entry.value.get(), colOffset, diagonal);
+                    }
+                }
+                if (matrixReader != null) {
+                    multiplyPartitionedBlock(key);
+                }
+            }
+            else if (key.col.get() != currentVectorCol) {
+                // every page of this column block is frozen, so its contribution is 
+                // already in frozenContribution
+                return;
+            }
+            else if (gaussSeidel && key.col.get() == key.row.get()) {
+                for (V value : values) {
+                    MatrixEntryWritable entry = (MatrixEntryWritable) value;
+                    addDiagonalEntry(entry.row.get(), entry.col.get(), entry.value.get());
                 }
             }
             else {
-                for (MatrixEntryWritable entry : values) {
+                for (V value : values) {
+                    MatrixEntryWritable entry = (MatrixEntryWritable) value;
                     resultBlock[entry.row.get()] += entry.value.get() * vectorBlock[entry.col.get()];
+                    if (newlyFrozenInBlock) {
+                        frozenContribution[entry.row.get()] += 
+                                entry.value.get() * newlyFrozenBlock[entry.col.get()];
+                    }
+                }
+            }
+        }
+        
+        private void addVectorRank(int row, int status, double rank, long colOffset, boolean diagonal) {
+            if (status == FROZEN_PAGE) {
+                previousBlock[row] = rank;
+                rowStatus[row] = FROZEN_PAGE;
+                return;
+            }
+            if (status == NEWLY_FROZEN_PAGE) {
+                newlyFrozenBlock[row] = rank;
+                newlyFrozenInBlock = true;
+            }
+            else {
+                vectorBlock[row] = rank;
+            }
+            // every reducer sees the whole vector, so each one can work out on its 
+            // own how much rank is lost to dangling pages in this iteration
+            if (fused) {
+                vectorMass += rank;
+                if (!pagesWithOutLinks.get((int) (colOffset + row))) {
+                    danglingMass += rank;
+                }
+                if (diagonal) {
+                    previousBlock[row] = rank;
+                    if (adaptive) {
+                        rowStatus[row] = status;
+                    }
+                }
+            }
+        }
+        
+        // Sets up the frozen pages' contribution to the rows of a new block row from 
+        // the previous iteration. The contributions are written in the same block order
+        // as the block rows arrive at this reducer.
+        private void startAdaptiveBlock() throws IOException {
+            Arrays.fill(rowStatus, ACTIVE_PAGE);
+            Arrays.fill(frozenContribution, 0.0);
+            if (contributionReader != null) {
+                long rowOffset = blockOffset(currentBlockRow);
+                int blockLength = blockLength(currentBlockRow);
+                for (int row = 0; row < blockLength; row++) {
+                    frozenContribution[row] = contributionReader.get(rowOffset + row, 0.0);
+                }
+            }
+        }
+        
+        private void addDiagonalEntry(int row, int col, double value) {
+            if (numDiagonalEntries == diagonalEntries.length) {
+                diagonalEntries = Arrays.copyOf(diagonalEntries, 2 * numDiagonalEntries);
+            }
+            diagonalEntries[numDiagonalEntries++] = ((long) row << 32) | col;
+            diagonalWeights[col] = value;
+        }
+        
+        // The partition file is sorted by block key in the same order as the keys arriving
+        // at this reducer, so the matrix blocks matching the vector block that was just read 
+        // are always next in the file. Blocks that sort before it have no vector entries 
+        // and are skipped.
+        private void multiplyPartitionedBlock(BlockEntryKey vectorKey) throws IOException {
+            while (matrixBlockPending) {
+                int row = matrixKey.row.get();
+                int col = matrixKey.col.get();
+                if (row > vectorKey.row.get() || 
+                        (row == vectorKey.row.get() && col > vectorKey.col.get())) {
+                    return;
+                }
+                if (row == vectorKey.row.get() && col == vectorKey.col.get()) {
+                    if (gaussSeidel && col == row) {
+                        for (int k = 0; k < matrixBlock.numColumns; k++) {
+                            for (int i = matrixBlock.columnOffsets[k]; i < matrixBlock.columnOffsets[k + 1]; i++) {
+                                addDiagonalEntry(matrixBlock.rows[i], matrixBlock.columns[k], 
+                                        1.0 / matrixBlock.outDegrees[k]);
+                            }
+                        }
+                    }
+                    else {
+                        multiplyColumns(matrixBlock, vectorBlock, resultBlock);
+                        if (newlyFrozenInBlock) {
+                            multiplyColumns(matrixBlock, newlyFrozenBlock, frozenContribution);
+                        }
+                    }
+                }
+                matrixBlockPending = matrixReader.next(matrixKey, matrixBlock);
+            }
+        }
+        
+        // each source page passes an equal share of its rank to every page it links to
+        public static void multiplyColumns(MatrixBlockWritable block, double[] vector, double[] result) {
+            int[] columns = block.columns;
+            int[] outDegrees = block.outDegrees;
+            int[] columnOffsets = block.columnOffsets;
+            int[] rows = block.rows;
+            for (int k = 0; k < block.numColumns; k++) {
+                double share = vector[columns[k]] / outDegrees[k];
+                if (share == 0.0) {
+                    continue;
+                }
+                for (int i = columnOffsets[k]; i < columnOffsets[k + 1]; i++) {
+                    result[rows[i]] += share;
                 }
             }
         }
         
         @Override
         public void cleanup(Context context) throws InterruptedException, IOException {
-            writeResultBlock(context);
+            if (currentBlockRow != -1) {
+                writeResultBlock(context);
+            }
+            statistics.write(context);
+            if (matrixReader != null) {
+                matrixReader.close();
+            }
+            for (PartitionVectorReader reader : new PartitionVectorReader[] { contributionReader, 
+                    olderHistoryReader, historyReader }) {
+                if (reader != null) {
+                    reader.close();
+                }
+            }
+            if (multipleOutputs != null) {
+                multipleOutputs.close();
+            }
+        }
+        
+        private int blockLength(int block) {
+            return layout.blockLength(block);
+        }
+        
+        private long blockOffset(int block) {
+            return layout.blockOffset(block);
+        }
+        
+        // Goes through the diagonal block row by row, using the new rank of every earlier 
+        // row of the block in place of its rank from the previous iteration. The sums for
+        // the block's rows are completed in resultBlock, so they are written as usual.
+        private void applyDiagonalBlock(double normAmount) {
+            Arrays.sort(diagonalEntries, 0, numDiagonalEntries);
+            double[] ranks = vectorBlock;
+            System.arraycopy(previousBlock, 0, ranks, 0, previousBlock.length);
+            int i = 0;
+            int blockLength = blockLength(currentBlockRow);
+            for (int row = 0; row < blockLength; row++) {
+                for (; i < numDiagonalEntries && (int) (diagonalEntries[i] >>> 32) == row; i++) {
+                    int col = (int) diagonalEntries[i];
+                    resultBlock[row] += diagonalWeights[col] * ranks[col];
+                }
+                ranks[row] = (1 - this.teleportationRate) * resultBlock[row] + normAmount;
+            }
         }
         
         private void writeResultBlock(Context context) throws IOException, InterruptedException {
-            int blockLength = this.numPagesPerDiv;
-            if (currentBlockRow < this.numDivsWithOneExtraPage) {
-                blockLength++;
+            int blockLength = blockLength(currentBlockRow);
+            long rowOffset = blockOffset(currentBlockRow);
+            
+            // The rank that does not reach any page through a link (teleportation plus 
+            // the rank of dangling pages) is spread evenly over all pages, which is exactly 
+            // what the separate normalization job does with the vector sum.
+            double normAmount = 0.0;
+            if (fused) {
+                double linkedSum = (1 - this.teleportationRate) * 
+                        (vectorMass + frozenMass - danglingMass - frozenDanglingMass);
+                normAmount = (1 - linkedSum) / this.numPages;
             }
-            double entriesSum = 0.0;
-            long rowOffset = 0;
-            if (currentBlockRow < this.numDivsWithOneExtraPage) {
-                rowOffset = ((long) numPagesPerDiv + 1) * currentBlockRow;
+            if (gaussSeidel) {
+                // The new ranks of the block's earlier rows no longer add up to one with
+                // the rest of the vector, so the next reducers scale the vector they receive
+                // back to a sum of one before using it. The rank reaching dangling pages 
+                // is then spread evenly along with the teleportation.
+                double scale = 1.0 / vectorMass;
+                for (int row = 0; row < blockLength; row++) {
+                    resultBlock[row] *= scale;
+                    previousBlock[row] *= scale;
+                }
+                normAmount = (this.teleportationRate 
+                        + (1 - this.teleportationRate) * danglingMass * scale) / this.numPages;
+                applyDiagonalBlock(normAmount);
             }
-            else {
-                rowOffset = ((long) numPagesPerDiv + 1) * this.numDivsWithOneExtraPage +
-                        ((long) numPagesPerDiv) * (currentBlockRow - this.numDivsWithOneExtraPage);
+            if (adaptive) {
+                writeAdaptiveResultBlock(context, normAmount);
+                return;
             }
+            double entriesSum = 0.0;
+            double absDiffSum = 0.0;
+            // inner products of the scaled differences from the oldest vector kept
+            double[] innerProducts = new double[5];
             for (int row = 0; row < blockLength; row++) {
-                double product = (1 - this.teleportationRate) * resultBlock[row];
+                double product = (1 - this.teleportationRate) * resultBlock[row] + normAmount;
+                if (fused) {
+                    double diff = Math.abs(product - previousBlock[row]);
+                    absDiffSum += diff;
+                    statistics.addDifference(diff);
+                }
+                if (extrapolationStatistics) {
+                    double oldest = olderHistoryReader.get(rowOffset + row, Double.NaN);
+                    double older = historyReader.get(rowOffset + row, Double.NaN);
+                    if (!Double.isNaN(oldest) && !Double.isNaN(older)) {
+                        double diff1 = extrapolationScale * (older - oldest);
+                        double diff2 = extrapolationScale * (previousBlock[row] - oldest);
+                        double diff3 = extrapolationScale * (product - oldest);
+                        innerProducts[0] += diff1 * diff1;
+                        innerProducts[1] += diff1 * diff2;
+                        innerProducts[2] += diff2 * diff2;
+                        innerProducts[3] += diff1 * diff3;
+                        innerProducts[4] += diff2 * diff3;
+                    }
+                }
+                if (extrapolationWeights != null) {
+                    product = extrapolateRank(rowOffset + row, previousBlock[row], product);
+                }
                 entriesSum += product;
-                context.write(new LongWritable(rowOffset + row), 
-                        new DoubleWritable(product));
+                outPage.set(rowOffset + row);
+                outRank.set(product);
+                context.write(outPage, outRank);
+            }
+            if (extrapolationStatistics) {
+                CalculatePageRank.PageRankEnums[] counters = { 
+                    CalculatePageRank.PageRankEnums.EXTRAPOLATION_11, CalculatePageRank.PageRankEnums.EXTRAPOLATION_12,
+                    CalculatePageRank.PageRankEnums.EXTRAPOLATION_22, CalculatePageRank.PageRankEnums.EXTRAPOLATION_13,
+                    CalculatePageRank.PageRankEnums.EXTRAPOLATION_23 };
+                for (int i = 0; i < counters.length; i++) {
+                    context.getCounter(counters[i]).increment(
+                            (long) (EXTRAPOLATION_LONG_CONVERSION_FACTOR * innerProducts[i]));
+                }
             }
             long longSum = (long) (DECIMAL_LONG_CONVERSION_FACTOR * entriesSum); 
             context.getCounter(CalculatePageRank.PageRankEnums.VECTOR_SUM).increment(longSum);
+            statistics.vectorSum += entriesSum;
+            if (fused) {
+                long longDiff = (long) (ConvergenceChecker.DECIMAL_LONG_CONVERSION_FACTOR * absDiffSum);
+                context.getCounter(CalculatePageRank.PageRankEnums.ABS_DIFF_SUM).increment(longDiff);
+            }
+        }
+        
+        // Applying the PageRank step to the extrapolated vector gives the same weighted 
+        // sum of the three vectors that followed the ones it was made from, as the 
+        // weights add up to one. Ranks the extrapolation would make negative are kept.
+        private double extrapolateRank(long page, double previous, double current) throws IOException {
+            double older = historyReader.get(page, Double.NaN);
+            if (Double.isNaN(older)) {
+                return current;
+            }
+            double extrapolated = extrapolationWeights[0] * older + extrapolationWeights[1] * previous 
+                    + extrapolationWeights[2] * current;
+            return extrapolated > 0.0 ? extrapolated : current;
+        }
+        
+        // Frozen pages keep their rank. Active pages whose rank changed by less than the
+        // tolerance are written to the newly frozen output, and their contribution is 
+        // added to frozenContribution by every reducer in the next iteration.
+        private void writeAdaptiveResultBlock(Context context, double normAmount) 
+                throws IOException, InterruptedException {
+            int blockLength = blockLength(currentBlockRow);
+            long rowOffset = blockOffset(currentBlockRow);
+            double entriesSum = 0.0;
+            double absDiffSum = 0.0;
+            double frozenMassSum = 0.0;
+            double frozenDanglingMassSum = 0.0;
+            long numFrozen = 0;
+            for (int row = 0; row < blockLength; row++) {
+                LongWritable page = outPage;
+                page.set(rowOffset + row);
+                if (rowStatus[row] != ACTIVE_PAGE) {
+                    double rank = previousBlock[row];
+                    entriesSum += rank;
+                    frozenMassSum += rank;
+                    if (!pagesWithOutLinks.get((int) page.get())) {
+                        frozenDanglingMassSum += rank;
+                    }
+                    numFrozen++;
+                    outRank.set(rank);
+                    multipleOutputs.write(FROZEN_OUTPUT, page, outRank, FROZEN_OUTPUT + "/part");
+                }
+                else {
+                    double product = (1 - this.teleportationRate) * 
+                            (resultBlock[row] + frozenContribution[row]) + normAmount;
+                    double diff = Math.abs(product - previousBlock[row]);
+                    entriesSum += product;
+                    absDiffSum += diff;
+                    statistics.addDifference(diff);
+                    outRank.set(product);
+                    if (diff < adaptiveTolerance) {
+                        numFrozen++;
+                        multipleOutputs.write(NEWLY_FROZEN_OUTPUT, page, outRank, NEWLY_FROZEN_OUTPUT + "/part");
+                    }
+                    else {
+                        context.write(page, outRank);
+                    }
+                }
+                if (frozenContribution[row] != 0.0) {
+                    outRank.set(frozenContribution[row]);
+                    multipleOutputs.write(CONTRIBUTION_OUTPUT, page, outRank, CONTRIBUTION_OUTPUT + "/part");
+                }
+            }
+            statistics.vectorSum += entriesSum;
+            context.getCounter(CalculatePageRank.PageRankEnums.VECTOR_SUM).increment(
+                    (long) (DECIMAL_LONG_CONVERSION_FACTOR * entriesSum));
+            context.getCounter(CalculatePageRank.PageRankEnums.ABS_DIFF_SUM).increment(
+                    (long) (ConvergenceChecker.DECIMAL_LONG_CONVERSION_FACTOR * absDiffSum));
+            context.getCounter(CalculatePageRank.PageRankEnums.FROZEN_PAGES).increment(numFrozen);
+            context.getCounter(CalculatePageRank.PageRankEnums.FROZEN_MASS).increment(
+                    (long) (DECIMAL_LONG_CONVERSION_FACTOR * frozenMassSum));
+            context.getCounter(CalculatePageRank.PageRankEnums.FROZEN_DANGLING_MASS).increment(
+                    (long) (DECIMAL_LONG_CONVERSION_FACTOR * frozenDanglingMassSum));
+        }
+    }
+    
+    /**
+     * Reads one partition file of a vector written by the multiplication reducers, packed
+     * or not, in which the pages are in increasing order. Pages have to be looked up in
+     * increasing order as well. A missing partition file reads as an empty vector.
+     */
+    static class PartitionVectorReader {
+        
+        private VectorFileReader reader;
+        private LongWritable page = new LongWritable();
+        private DoubleWritable value = new DoubleWritable();
+        private boolean pending = false;
+        
+        PartitionVectorReader(Configuration conf, Path vectorPath, int partition) throws IOException {
+            Path partitionPath = new Path(vectorPath, String.format("part-r-%05d", partition));
+            if (partitionPath.getFileSystem(conf).exists(partitionPath)) {
+                reader = new VectorFileReader(conf, SequenceFile.Reader.file(partitionPath));
+                pending = reader.next(page, value);
+            }
+        }
+        
+        // returns the value of the page, or the default value if the vector does not have it
+        double get(long target, double defaultValue) throws IOException {
+            while (pending && page.get() < target) {
+                pending = reader.next(page, value);
+            }
+            return pending && page.get() == target ? value.get() : defaultValue;
+        }
+        
+        void close() throws IOException {
+            if (reader != null) {
+                reader.close();
+            }
         }
     }
     
-    public static class RowPartitioner extends Partitioner<BlockEntryKey, MatrixEntryWritable> {
+    public static class RowPartitioner<V> extends Partitioner<BlockEntryKey, V> {
         
         @Override
-        public int getPartition(BlockEntryKey key, MatrixEntryWritable value, int numPartitions) {
+        public int getPartition(BlockEntryKey key, V value, int numPartitions) {
             return key.row.get() % numPartitions;
         }
     }
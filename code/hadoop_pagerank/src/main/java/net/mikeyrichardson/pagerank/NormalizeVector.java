@@ -2,7 +2,6 @@ package net.mikeyrichardson.pagerank;
 
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.DoubleWritable;
-import org.apache.hadoop.mapreduce.Mapper;
 
 import java.io.IOException;
 
@@ -15,11 +14,12 @@ import java.io.IOException;
 public class NormalizeVector {
     
     public static class NormalizeMapper extends
-            Mapper<LongWritable, DoubleWritable, LongWritable, DoubleWritable> {
+            IterationReport.AllocationCountingMapper<LongWritable, DoubleWritable, LongWritable, DoubleWritable> {
 
         private double vectorSum = 0.0;
         private long numPages = 0;
         private double normAmount = 0.0;
+        private DoubleWritable normalized = new DoubleWritable();
 
         @Override
         public void setup(Context context) {
@@ -30,7 +30,8 @@ public class NormalizeVector {
         
         public void map(LongWritable key, DoubleWritable value, Context context)
                 throws IOException, InterruptedException {
-            context.write(key, new DoubleWritable(value.get() + this.normAmount));
+            normalized.set(value.get() + this.normAmount);
+            context.write(key, normalized);
         }
     }
 
@@ -0,0 +1,319 @@
+package net.mikeyrichardson.pagerank;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+
+import net.mikeyrichardson.pagerank.io.EdgeFileReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * This class calculates PageRank on a single machine for graphs that are too large 
+ * for its memory but fit on its local disk. The renumbered graph written by the 
+ * PageDictionary jobs is converted into compressed sparse row files of incoming links
+ * in "pagerank.engine.dir", and each iteration streams through those files with 
+ * memory mapped buffers split over "pagerank.engine.threads" threads. Only the rank 
+ * vectors are held on the heap.
+ * @author Michael Richardson
+ *
+ */
+public class OutOfCorePageRankEngine {
+    
+    final private static String OUT_DEGREES_FILE = "outdegrees";
+    final private static String OFFSETS_FILE = "offsets";
+    final private static String POSITIONS_FILE = "positions";
+    final private static String SOURCES_FILE = "sources";
+    final private static String[] ENGINE_FILES = { OUT_DEGREES_FILE, OFFSETS_FILE, POSITIONS_FILE, SOURCES_FILE };
+    
+    private double teleportationRate = 0.0;
+    private double epsilon = 0.0;
+    private int numThreads = 0;
+    private File engineDir;
+    
+    private int numPages = 0;
+    private long numLinks = 0;
+    private MappedLongFile inLinkOffsets;
+    private MappedIntFile inLinkSources;
+    private MappedIntFile outDegrees;
+    
+    public OutOfCorePageRankEngine(Configuration conf) {
+        this.teleportationRate = conf.getDouble("map.teleportation.rate", 0.15);
+        this.epsilon = conf.getDouble("map.epsilon.value", 0.00001);
+        this.numThreads = conf.getInt("pagerank.engine.threads", 
+                Runtime.getRuntime().availableProcessors());
+        this.engineDir = new File(conf.get("pagerank.engine.dir", 
+                System.getProperty("java.io.tmpdir") + "/pagerank-" + System.nanoTime()));
+    }
+    
+    // The engine directory may be one the user already has, so it has to be empty, 
+    // only the files of the engine are deleted afterwards and the directory itself 
+    // only if it was created here
+    public int run(FileSystem fs, Path graphPath, Path dictionaryPath, int numPages, File outputFile)
+            throws IOException, InterruptedException {
+        this.numPages = numPages;
+        boolean createdDir = false;
+        if (engineDir.isDirectory()) {
+            String[] names = engineDir.list();
+            if (names == null || names.length > 0) {
+                throw new IOException("pagerank.engine.dir " + engineDir + " is not empty");
+            }
+        }
+        else if (engineDir.mkdirs()) {
+            createdDir = true;
+        }
+        else {
+            throw new IOException("Could not create pagerank.engine.dir " + engineDir);
+        }
+        try {
+            createSparseRowFiles(fs, graphPath);
+            double[] ranks = calculatePageRank();
+            writeRanks(fs, dictionaryPath, ranks, outputFile);
+        }
+        finally {
+            close();
+            for (String name : ENGINE_FILES) {
+                new File(engineDir, name).delete();
+            }
+            if (createdDir) {
+                engineDir.delete();
+            }
+        }
+        return 0;
+    }
+    
+    // The first pass over the graph counts the links into and out of every page, 
+    // which gives the offset of each page's incoming links. The second pass writes
+    // the source of every link at the next free position of its destination page.
+    // Both read the graph like the jobs do, so it can be binary or compressed.
+    private void createSparseRowFiles(FileSystem fs, Path graphPath) throws IOException {
+        outDegrees = new MappedIntFile(new File(engineDir, OUT_DEGREES_FILE), numPages);
+        inLinkOffsets = new MappedLongFile(new File(engineDir, OFFSETS_FILE), numPages + 1L);
+        long[] link = new long[2];
+        EdgeFileReader edges = new EdgeFileReader(fs, fs.getConf(), graphPath);
+        while (edges.next(link)) {
+            outDegrees.set(link[0], outDegrees.get(link[0]) + 1);
+            inLinkOffsets.set(link[1] + 1, inLinkOffsets.get(link[1] + 1) + 1);
+            numLinks++;
+        }
+        for (long page = 0; page < numPages; page++) {
+            inLinkOffsets.set(page + 1, inLinkOffsets.get(page + 1) + inLinkOffsets.get(page));
+        }
+        
+        MappedLongFile positions = new MappedLongFile(new File(engineDir, POSITIONS_FILE), numPages);
+        for (long page = 0; page < numPages; page++) {
+            positions.set(page, inLinkOffsets.get(page));
+        }
+        inLinkSources = new MappedIntFile(new File(engineDir, SOURCES_FILE), numLinks);
+        edges = new EdgeFileReader(fs, fs.getConf(), graphPath);
+        while (edges.next(link)) {
+            long position = positions.get(link[1]);
+            inLinkSources.set(position, (int) link[0]);
+            positions.set(link[1], position + 1);
+        }
+        positions.close();
+    }
+    
+    // Power iteration with the same normalization and stopping rule as the Hadoop 
+    // version. The pages are split into one range per thread with roughly the same 
+    // number of incoming links, and each thread streams through its range of the files.
+    private double[] calculatePageRank() throws InterruptedException, IOException {
+        final double[] ranks = new double[numPages];
+        final double[] shares = new double[numPages];
+        Arrays.fill(ranks, 1.0 / numPages);
+        final double linkRate = 1 - teleportationRate;
+        final int[] rangeStarts = balancedRanges();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            while (true) {
+                for (int page = 0; page < numPages; page++) {
+                    int outDegree = outDegrees.get(page);
+                    shares[page] = outDegree == 0 ? 0.0 : ranks[page] / outDegree;
+                }
+                List<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+                for (int range = 0; range < numThreads; range++) {
+                    final int start = rangeStarts[range];
+                    final int end = rangeStarts[range + 1];
+                    futures.add(executor.submit(() -> {
+                        // the new ranks of this range are written over the shares of 
+                        // the range only after all threads have read them, so they are
+                        // kept in a buffer of the range's size until then
+                        double[] rangeRanks = new double[end - start];
+                        long link = inLinkOffsets.get(start);
+                        for (int page = start; page < end; page++) {
+                            long lastLink = inLinkOffsets.get(page + 1);
+                            double sum = 0.0;
+                            for (; link < lastLink; link++) {
+                                sum += shares[inLinkSources.get(link)];
+                            }
+                            rangeRanks[page - start] = linkRate * sum;
+                        }
+                        return rangeRanks;
+                    }));
+                }
+                double[][] rangeRanks = new double[numThreads][];
+                double vectorSum = 0.0;
+                for (int range = 0; range < numThreads; range++) {
+                    rangeRanks[range] = futures.get(range).get();
+                    for (double rank : rangeRanks[range]) {
+                        vectorSum += rank;
+                    }
+                }
+                double normAmount = (1 - vectorSum) / numPages;
+                double sumDiffs = 0.0;
+                for (int range = 0; range < numThreads; range++) {
+                    for (int i = 0; i < rangeRanks[range].length; i++) {
+                        int page = rangeStarts[range] + i;
+                        double rank = rangeRanks[range][i] + normAmount;
+                        sumDiffs += Math.abs(rank - ranks[page]);
+                        ranks[page] = rank;
+                    }
+                }
+                System.out.println("Sum of absolute differences: " + sumDiffs);
+                if (sumDiffs < epsilon) {
+                    break;
+                }
+            }
+        }
+        catch (ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+        finally {
+            executor.shutdown();
+        }
+        return ranks;
+    }
+    
+    private int[] balancedRanges() {
+        int[] rangeStarts = new int[numThreads + 1];
+        int page = 0;
+        for (int range = 1; range < numThreads; range++) {
+            long target = numLinks * range / numThreads;
+            while (page < numPages && inLinkOffsets.get(page) < target) {
+                page++;
+            }
+            rangeStarts[range] = page;
+        }
+        rangeStarts[numThreads] = numPages;
+        return rangeStarts;
+    }
+    
+    // The dictionary is streamed so the original IDs never have to be held in memory
+    private void writeRanks(FileSystem fs, Path dictionaryPath, double[] ranks, File outputFile) 
+            throws IOException {
+        PrintWriter writer = new PrintWriter(outputFile);
+        LongWritable page = new LongWritable();
+        Text origKey = new Text();
+        for (FileStatus status : fs.globStatus(new Path(dictionaryPath, "part-*"))) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(fs.getConf(), 
+                    SequenceFile.Reader.file(status.getPath()));
+            while (reader.next(page, origKey)) {
+                writer.println(origKey + "\t" + ranks[(int) page.get()]);
+            }
+            reader.close();
+        }
+        writer.close();
+    }
+    
+    private void close() throws IOException {
+        if (outDegrees != null) {
+            outDegrees.close();
+        }
+        if (inLinkOffsets != null) {
+            inLinkOffsets.close();
+        }
+        if (inLinkSources != null) {
+            inLinkSources.close();
+        }
+    }
+    
+    /**
+     * A file of ints mapped into memory in segments, since a single mapped buffer 
+     * cannot be larger than 2 GB. Reads use absolute positions, so several threads 
+     * can read the same file at once.
+     */
+    static class MappedIntFile {
+        
+        private static final int SEGMENT_SHIFT = 28;
+        private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+        private RandomAccessFile file;
+        private MappedByteBuffer[] segments;
+        
+        MappedIntFile(File path, long length) throws IOException {
+            file = new RandomAccessFile(path, "rw");
+            file.setLength(length * 4);
+            segments = map(file, length, SEGMENT_SHIFT, 4);
+        }
+        
+        int get(long index) {
+            return segments[(int) (index >>> SEGMENT_SHIFT)].getInt((int) (index & SEGMENT_MASK) << 2);
+        }
+        
+        void set(long index, int value) {
+            segments[(int) (index >>> SEGMENT_SHIFT)].putInt((int) (index & SEGMENT_MASK) << 2, value);
+        }
+        
+        void close() throws IOException {
+            segments = null;
+            file.close();
+        }
+    }
+    
+    /** The long counterpart of {@link MappedIntFile}. */
+    static class MappedLongFile {
+        
+        private static final int SEGMENT_SHIFT = 27;
+        private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+        private RandomAccessFile file;
+        private MappedByteBuffer[] segments;
+        
+        MappedLongFile(File path, long length) throws IOException {
+            file = new RandomAccessFile(path, "rw");
+            file.setLength(length * 8);
+            segments = map(file, length, SEGMENT_SHIFT, 8);
+        }
+        
+        long get(long index) {
+            return segments[(int) (index >>> SEGMENT_SHIFT)].getLong((int) (index & SEGMENT_MASK) << 3);
+        }
+        
+        void set(long index, long value) {
+            segments[(int) (index >>> SEGMENT_SHIFT)].putLong((int) (index & SEGMENT_MASK) << 3, value);
+        }
+        
+        void close() throws IOException {
+            segments = null;
+            file.close();
+        }
+    }
+    
+    private static MappedByteBuffer[] map(RandomAccessFile file, long length, int segmentShift, 
+            int entrySize) throws IOException {
+        long entriesPerSegment = 1L << segmentShift;
+        int numSegments = (int) ((length + entriesPerSegment - 1) / entriesPerSegment);
+        MappedByteBuffer[] segments = new MappedByteBuffer[Math.max(numSegments, 1)];
+        FileChannel channel = file.getChannel();
+        for (int i = 0; i < segments.length; i++) {
+            long start = i * entriesPerSegment * entrySize;
+            long size = Math.min(entriesPerSegment * entrySize, length * entrySize - start);
+            segments[i] = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.max(size, 0));
+        }
+        return segments;
+    }
+}
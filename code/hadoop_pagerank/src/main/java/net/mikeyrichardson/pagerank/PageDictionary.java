@@ -0,0 +1,377 @@
+package net.mikeyrichardson.pagerank;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+import net.mikeyrichardson.pagerank.io.DictionaryJoinWritable;
+import net.mikeyrichardson.pagerank.io.PackedVectorInputFormat;
+import net.mikeyrichardson.pagerank.io.ProvisionalIdWritable;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+/**
+ * This class contains the mappers and reducers that renumber the pages of a graph
+ * file with consecutive IDs starting at 0. The first job gives every page an ID
+ * within the partition of the reducer that handles it and attaches that ID to the
+ * links leaving the page. The second job turns the partition IDs into consecutive IDs
+ * and writes both the renumbered graph and a dictionary from the new IDs back to
+ * the original page IDs. Neither job needs to hold more than one page's links in memory.
+ * At the end of a run a third job joins the final vector with the dictionary, so that
+ * the ranks are written with the original page IDs without reading the dictionary
+ * into memory.
+ * @author Michael Richardson
+ *
+ */
+public class PageDictionary {
+
+    final public static String DICTIONARY_OUTPUT = "dictionary";
+    final public static String PARTITION_SIZE_GROUP = "pagerank.dictionary.partition.size";
+
+    /**
+     * Sends each link to the reducer for its source page and marks its destination
+     * page with an empty value so that pages without links are numbered as well.
+     * KeyValueTextInputFormat leaves everything after the first tab in the value, so
+     * the destination page is cut off at the next tab and further columns are ignored.
+     */
+    public static class LinkMapper extends Mapper<Text, Text, Text, Text> {
+
+        private final Text destPage = new Text();
+        private final Text marker = new Text();
+
+        public void map(Text key, Text value, Context context)
+                throws IOException, InterruptedException {
+            int end = value.find("\t");
+            destPage.set(value.getBytes(), 0, end < 0 ? value.getLength() : end);
+            if (key.getLength() == 0 || key.getBytes()[0] == '#' || destPage.getLength() == 0) {
+                return;
+            }
+            context.write(key, destPage);
+            context.write(destPage, marker);
+        }
+    }
+
+    /**
+     * Drops duplicate destination markers before they reach the reducer.
+     */
+    public static class MarkerCombiner extends Reducer<Text, Text, Text, Text> {
+
+        public void reduce(Text key, Iterable<Text> values, Context context)
+                throws IOException, InterruptedException {
+            boolean markerWritten = false;
+            for (Text value : values) {
+                if (value.getLength() > 0) {
+                    context.write(key, value);
+                }
+                else if (!markerWritten) {
+                    context.write(key, value);
+                    markerWritten = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Numbers the pages handled by this reducer in key order and writes the number
+     * both to the dictionary output and to every link leaving the page, keyed by the
+     * destination page. The number of pages in each partition is kept in a counter.
+     */
+    public static class ProvisionalIdReducer extends
+            Reducer<Text, Text, Text, ProvisionalIdWritable> {
+
+        private int partition = 0;
+        private int numPages = 0;
+        private MultipleOutputs<Text, ProvisionalIdWritable> multipleOutputs;
+        private ProvisionalIdWritable pageId = new ProvisionalIdWritable();
+        private ProvisionalIdWritable srcId = new ProvisionalIdWritable();
+
+        @Override
+        public void setup(Context context) {
+            this.partition = context.getTaskAttemptID().getTaskID().getId();
+            multipleOutputs = new MultipleOutputs<Text, ProvisionalIdWritable>(context);
+        }
+
+        public void reduce(Text key, Iterable<Text> values, Context context)
+                throws IOException, InterruptedException {
+            pageId.set(partition, numPages, ProvisionalIdWritable.DICTIONARY_SOURCE);
+            multipleOutputs.write(DICTIONARY_OUTPUT, key, pageId, DICTIONARY_OUTPUT + "/part");
+            srcId.set(partition, numPages, ProvisionalIdWritable.EDGE_SOURCE);
+            for (Text value : values) {
+                if (value.getLength() > 0) {
+                    context.write(value, srcId);
+                }
+            }
+            numPages++;
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            context.getCounter(PARTITION_SIZE_GROUP, partitionName(partition)).increment(numPages);
+            multipleOutputs.close();
+        }
+    }
+
+    /**
+     * Replaces the partition IDs of a page and the sources of its incoming links with
+     * consecutive IDs, using the offsets in "map.dictionary.offsets". The renumbered
+     * links are the main output and the page's new ID goes to the dictionary output.
+     */
+    public static class EdgeEncodingReducer extends
+            Reducer<Text, ProvisionalIdWritable, LongWritable, LongWritable> {
+
+        private long[] offsets;
+        private long[] srcPages = new long[1024];
+        private LongWritable destPage = new LongWritable();
+        private LongWritable srcPage = new LongWritable();
+        private MultipleOutputs<LongWritable, LongWritable> multipleOutputs;
+
+        @Override
+        public void setup(Context context) {
+            offsets = parseOffsets(context.getConfiguration().get("map.dictionary.offsets"));
+            multipleOutputs = new MultipleOutputs<LongWritable, LongWritable>(context);
+        }
+
+        public void reduce(Text key, Iterable<ProvisionalIdWritable> values, Context context)
+                throws IOException, InterruptedException {
+            long page = -1;
+            int numSrcPages = 0;
+            for (ProvisionalIdWritable value : values) {
+                long id = offsets[value.partition.get()] + value.index.get();
+                if (value.source.get() == ProvisionalIdWritable.DICTIONARY_SOURCE) {
+                    page = id;
+                }
+                else {
+                    if (numSrcPages == srcPages.length) {
+                        srcPages = Arrays.copyOf(srcPages, 2 * numSrcPages);
+                    }
+                    srcPages[numSrcPages++] = id;
+                }
+            }
+            destPage.set(page);
+            multipleOutputs.write(DICTIONARY_OUTPUT, destPage, key, DICTIONARY_OUTPUT + "/part");
+            for (int i = 0; i < numSrcPages; i++) {
+                srcPage.set(srcPages[i]);
+                context.write(srcPage, destPage);
+            }
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            multipleOutputs.close();
+        }
+    }
+
+    /**
+     * Sends the original ID of each page in the dictionary to the join reducers.
+     */
+    public static class DictionaryJoinMapper extends
+            Mapper<LongWritable, Text, LongWritable, DictionaryJoinWritable> {
+
+        private DictionaryJoinWritable entry = new DictionaryJoinWritable();
+
+        public void map(LongWritable key, Text value, Context context)
+                throws IOException, InterruptedException {
+            entry.source = DictionaryJoinWritable.DICTIONARY_SOURCE;
+            entry.origKey.set(value);
+            context.write(key, entry);
+        }
+    }
+
+    /**
+     * Sends the final rank of each page to the join reducers.
+     */
+    public static class RankJoinMapper extends
+            Mapper<LongWritable, DoubleWritable, LongWritable, DictionaryJoinWritable> {
+
+        private DictionaryJoinWritable entry = new DictionaryJoinWritable();
+
+        public void map(LongWritable key, DoubleWritable value, Context context)
+                throws IOException, InterruptedException {
+            entry.source = DictionaryJoinWritable.RANK_SOURCE;
+            entry.rank.set(value.get());
+            context.write(key, entry);
+        }
+    }
+
+    /**
+     * Splits the pages into ranges of consecutive IDs, one per reducer, so that the 
+     * output files of the join follow each other in page order like the vector does.
+     */
+    public static class PageRangePartitioner extends Partitioner<LongWritable, DictionaryJoinWritable>
+            implements Configurable {
+
+        private Configuration conf;
+        private long numPages = 1;
+
+        @Override
+        public void setConf(Configuration conf) {
+            this.conf = conf;
+            this.numPages = Math.max(1, conf.getLong("map.pages.num", 1));
+        }
+
+        @Override
+        public Configuration getConf() {
+            return conf;
+        }
+
+        @Override
+        public int getPartition(LongWritable key, DictionaryJoinWritable value, int numPartitions) {
+            return (int) Math.min(numPartitions - 1, key.get() * numPartitions / numPages);
+        }
+    }
+
+    /**
+     * Writes the rank of each page with its original ID.
+     */
+    public static class DictionaryJoinReducer extends
+            Reducer<LongWritable, DictionaryJoinWritable, Text, DoubleWritable> {
+
+        private Text origKey = new Text();
+        private DoubleWritable rank = new DoubleWritable();
+
+        public void reduce(LongWritable key, Iterable<DictionaryJoinWritable> values, Context context)
+                throws IOException, InterruptedException {
+            boolean hasOrigKey = false;
+            boolean hasRank = false;
+            for (DictionaryJoinWritable value : values) {
+                if (value.source == DictionaryJoinWritable.DICTIONARY_SOURCE) {
+                    origKey.set(value.origKey);
+                    hasOrigKey = true;
+                }
+                else {
+                    rank.set(value.rank.get());
+                    hasRank = true;
+                }
+            }
+            if (hasOrigKey && hasRank) {
+                context.write(origKey, rank);
+            }
+        }
+    }
+
+    public static String partitionName(int partition) {
+        return String.format("%05d", partition);
+    }
+
+    /**
+     * Turns the partition size counters of the first job into the offset of the first
+     * ID of each partition. The last entry is the total number of pages.
+     */
+    public static long[] partitionOffsets(Counters counters, int numPartitions) {
+        long[] offsets = new long[numPartitions + 1];
+        for (int partition = 0; partition < numPartitions; partition++) {
+            long size = counters.findCounter(PARTITION_SIZE_GROUP, partitionName(partition)).getValue();
+            offsets[partition + 1] = offsets[partition] + size;
+        }
+        return offsets;
+    }
+
+    public static String formatOffsets(long[] offsets) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < offsets.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(offsets[i]);
+        }
+        return builder.toString();
+    }
+
+    public static long[] parseOffsets(String offsets) {
+        String[] parts = offsets.split(",");
+        long[] result = new long[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            result[i] = Long.parseLong(parts[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Join the final vector with the dictionary so that every reducer writes the ranks
+     * of its range of pages with their original IDs, as text or as a SequenceFile of
+     * original IDs and ranks for the rank ordering job.
+     */
+    public static boolean joinDictionary(Configuration conf, IterationReport report, List<Path> vectorPaths, 
+            Path dictionaryPath, Path outputPath, boolean sequenceOutput, int numReducers) throws Exception {
+        Job jobDictionaryJoin = Job.getInstance(conf);
+        jobDictionaryJoin.setJarByClass(PageDictionary.class);
+        jobDictionaryJoin.setOutputFormatClass(sequenceOutput ? SequenceFileOutputFormat.class 
+                : TextOutputFormat.class);
+        
+        jobDictionaryJoin.setMapOutputKeyClass(LongWritable.class);
+        jobDictionaryJoin.setMapOutputValueClass(DictionaryJoinWritable.class);
+        
+        jobDictionaryJoin.setOutputKeyClass(Text.class);
+        jobDictionaryJoin.setOutputValueClass(DoubleWritable.class);
+        
+        for (Path vectorPath : vectorPaths) {
+            MultipleInputs.addInputPath(jobDictionaryJoin, vectorPath, PackedVectorInputFormat.class, 
+                    RankJoinMapper.class);
+        }
+        MultipleInputs.addInputPath(jobDictionaryJoin, new Path(dictionaryPath, "part-*"), 
+                SequenceFileInputFormat.class, DictionaryJoinMapper.class);
+        jobDictionaryJoin.setPartitionerClass(PageRangePartitioner.class);
+        jobDictionaryJoin.setReducerClass(DictionaryJoinReducer.class);
+        jobDictionaryJoin.setNumReduceTasks(numReducers);
+        FileOutputFormat.setOutputPath(jobDictionaryJoin, outputPath);
+        
+        return IterationReport.runJob(report, jobDictionaryJoin, 0, "dictionaryJoin");
+    }
+
+    /**
+     * Reads the original IDs of only the pages in the text output files of a job
+     * from the dictionary.
+     */
+    public static Map<Long, String> lookUpOrigKeys(FileSystem fs, Path dictionaryPath, Path outputPath) 
+            throws IOException {
+        Map<Long, String> origKeys = new HashMap<Long, String>();
+        for (FileStatus status : fs.globStatus(new Path(outputPath, "part-r-*"))) {
+            Scanner scanner = new Scanner(fs.open(status.getPath()));
+            while (scanner.hasNextLine()) {
+                origKeys.put(Long.parseLong(scanner.nextLine().split("\t")[0]), null);
+            }
+            scanner.close();
+        }
+        LongWritable page = new LongWritable();
+        Text origKey = new Text();
+        for (FileStatus status : fs.globStatus(new Path(dictionaryPath, "part-*"))) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(fs.getConf(), 
+                    SequenceFile.Reader.file(status.getPath()));
+            while (reader.next(page, origKey)) {
+                if (origKeys.containsKey(page.get())) {
+                    origKeys.put(page.get(), origKey.toString());
+                }
+            }
+            reader.close();
+        }
+        return origKeys;
+    }
+
+    /** The reducers of the jobs that renumber the pages of a graph or an edge delta. */
+    public static int numReducers(Configuration conf) {
+        return conf.getInt("map.dictionary.reducers", conf.getInt("map.divs.num", 2));
+    }
+
+}
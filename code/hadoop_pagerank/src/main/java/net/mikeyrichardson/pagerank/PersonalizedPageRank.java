@@ -0,0 +1,587 @@
+package net.mikeyrichardson.pagerank;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.MultipleInputs;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+import net.mikeyrichardson.pagerank.CalculatePageRank.TwoWayLookUp;
+import net.mikeyrichardson.pagerank.MultiplyMatrixAndVector.BlockMultiplicationReducer;
+import net.mikeyrichardson.pagerank.MultiplyMatrixAndVector.RowPartitioner;
+import net.mikeyrichardson.pagerank.PageDictionary.DictionaryJoinMapper;
+import net.mikeyrichardson.pagerank.PageDictionary.PageRangePartitioner;
+import net.mikeyrichardson.pagerank.io.BlockEntryKey;
+import net.mikeyrichardson.pagerank.io.DictionaryJoinWritable;
+import net.mikeyrichardson.pagerank.io.MatrixBlockWritable;
+import net.mikeyrichardson.pagerank.io.RankVectorWritable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * This class contains the mapper and reducer of a batched personalized PageRank
+ * iteration. Each of the "map.personalization.vectors" vectors teleports to its own
+ * set of seed pages instead of to every page, and the ranks of a page in all of them
+ * travel together, so every entry of the partitioned matrix read by a reducer is
+ * applied to the whole batch at once. The iteration is fused: the reducers spread the
+ * rank lost to teleportation and dangling pages over the seed pages of each vector and
+ * add up the differences from the previous vectors, one sum per vector. The driver
+ * computes the batch of a seed file with run, which also writes the ranks out with the
+ * original page IDs.
+ * @author Michael Richardson
+ *
+ */
+public class PersonalizedPageRank {
+
+    final public static String RESIDUALS_PREFIX = "_residuals-";
+
+    /**
+     * Sends the ranks of a page to every block row, like VectorMapper. Pages that have
+     * no rank in any of the vectors, such as most pages before the first iteration, are
+     * left out, and the reducers treat them as 0.
+     */
+    public static class RankVectorMapper extends
+            Mapper<LongWritable, RankVectorWritable, BlockEntryKey, RankVectorWritable> {
+
+        private BlockLayout layout;
+        private BlockEntryKey entryKey = new BlockEntryKey();
+        private RankVectorWritable entry = new RankVectorWritable();
+
+        @Override
+        public void setup(Context context) {
+            this.layout = BlockLayout.fromConfiguration(context.getConfiguration());
+        }
+
+        @Override
+        public void map(LongWritable key, RankVectorWritable value, Context context)
+                throws IOException, InterruptedException {
+            boolean empty = true;
+            for (double rank : value.ranks) {
+                empty &= rank == 0.0;
+            }
+            if (empty) {
+                return;
+            }
+            long page = key.get();
+            int vectorDiv = layout.blockOf(page);
+            entry.row = (int) (page - layout.blockOffset(vectorDiv));
+            entry.ranks = value.ranks;
+            for (int blockRow = 0; blockRow < layout.getNumBlocks(); blockRow++) {
+                entryKey.set(blockRow, vectorDiv, BlockEntryKey.VECTOR_SOURCE);
+                context.write(entryKey, entry);
+            }
+        }
+    }
+
+    /**
+     * Multiplies the matrix blocks of this reducer's partition by the blocks of all the
+     * vectors at once. The ranks of a block are kept page by page, so the ranks of a
+     * page in every vector are next to each other.
+     */
+    public static class PersonalizedMultiplicationReducer extends
+            Reducer<BlockEntryKey, RankVectorWritable, LongWritable, RankVectorWritable> {
+
+        private int numVectors = 0;
+        private double teleportationRate = 0.0;
+        private BlockLayout layout;
+        private int currentBlockRow = -1;
+        private double[] vectorBlock;
+        private double[] resultBlock;
+        private double[] previousBlock;
+        private double[] vectorMass;
+        private double[] danglingMass;
+        private double[] residuals;
+        private BitSet pagesWithOutLinks;
+        private long[] teleportPages;
+        private double[] teleportWeights;
+        private SequenceFile.Reader matrixReader;
+        private BlockEntryKey matrixKey = new BlockEntryKey();
+        private MatrixBlockWritable matrixBlock = new MatrixBlockWritable();
+        private boolean matrixBlockPending = false;
+        private IterationReport.Statistics statistics = new IterationReport.Statistics();
+        private double[] lostMass;
+        private LongWritable outPage = new LongWritable();
+        private RankVectorWritable outRanks = new RankVectorWritable();
+
+        @Override
+        public void setup(Context context) throws IOException {
+            Configuration conf = context.getConfiguration();
+            this.numVectors = conf.getInt("map.personalization.vectors", 1);
+            this.teleportationRate = conf.getDouble("map.teleportation.rate", 0.15);
+            this.layout = BlockLayout.fromConfiguration(conf);
+            int blockSize = layout.maxBlockLength() * numVectors;
+            vectorBlock = new double[blockSize];
+            resultBlock = new double[blockSize];
+            previousBlock = new double[blockSize];
+            vectorMass = new double[numVectors];
+            danglingMass = new double[numVectors];
+            residuals = new double[numVectors];
+            lostMass = new double[numVectors];
+            outRanks.ranks = new double[numVectors];
+            pagesWithOutLinks = BlockMultiplicationReducer.readPagesWithOutLinks(conf,
+                    new Path(conf.get("map.outlinks.path")), conf.getInt("map.pages.num", 1000000));
+            readTeleportVectors(conf, new Path(conf.get("map.personalization.teleport.path")));
+
+            Path partitionPath = new Path(conf.get("map.matrix.partitioned.path"), String.format("part-r-%05d",
+                    context.getTaskAttemptID().getTaskID().getId()));
+            matrixReader = new SequenceFile.Reader(conf, SequenceFile.Reader.file(partitionPath));
+            matrixBlockPending = matrixReader.next(matrixKey, matrixBlock);
+        }
+
+        // the seed pages are few enough to be kept in memory by every reducer
+        private void readTeleportVectors(Configuration conf, Path teleportPath) throws IOException {
+            List<Long> pages = new ArrayList<Long>();
+            List<double[]> weights = new ArrayList<double[]>();
+            LongWritable page = new LongWritable();
+            RankVectorWritable weight = new RankVectorWritable();
+            FileSystem fs = teleportPath.getFileSystem(conf);
+            for (FileStatus status : fs.globStatus(new Path(teleportPath, "part-*"))) {
+                SequenceFile.Reader reader = new SequenceFile.Reader(conf,
+                        SequenceFile.Reader.file(status.getPath()));
+                while (reader.next(page, weight)) {
+                    pages.add(page.get());
+                    weights.add(weight.ranks.clone());
+                }
+                reader.close();
+            }
+            teleportPages = new long[pages.size()];
+            teleportWeights = new double[pages.size() * numVectors];
+            for (int i = 0; i < teleportPages.length; i++) {
+                teleportPages[i] = pages.get(i);
+                System.arraycopy(weights.get(i), 0, teleportWeights, i * numVectors, numVectors);
+            }
+        }
+
+        @Override
+        public void reduce(BlockEntryKey key, Iterable<RankVectorWritable> values, Context context)
+                throws IOException, InterruptedException {
+            if (key.row.get() != currentBlockRow) {
+                if (currentBlockRow != -1) {
+                    writeResultBlock(context);
+                }
+                currentBlockRow = key.row.get();
+                Arrays.fill(resultBlock, 0.0);
+                Arrays.fill(previousBlock, 0.0);
+                Arrays.fill(vectorMass, 0.0);
+                Arrays.fill(danglingMass, 0.0);
+            }
+            // pages that are not sent have no rank in any vector
+            Arrays.fill(vectorBlock, 0.0);
+            boolean diagonal = key.col.get() == key.row.get();
+            long colOffset = layout.blockOffset(key.col.get());
+            for (RankVectorWritable entry : values) {
+                int start = entry.row * numVectors;
+                boolean dangling = !pagesWithOutLinks.get((int) (colOffset + entry.row));
+                for (int k = 0; k < numVectors; k++) {
+                    double rank = entry.ranks[k];
+                    vectorBlock[start + k] = rank;
+                    vectorMass[k] += rank;
+                    if (dangling) {
+                        danglingMass[k] += rank;
+                    }
+                }
+                if (diagonal) {
+                    System.arraycopy(entry.ranks, 0, previousBlock, start, numVectors);
+                }
+            }
+            multiplyPartitionedBlocks(key);
+        }
+
+        // the partition file is in the same block order as the keys, as for the
+        // single vector iteration
+        private void multiplyPartitionedBlocks(BlockEntryKey vectorKey) throws IOException {
+            while (matrixBlockPending) {
+                int row = matrixKey.row.get();
+                int col = matrixKey.col.get();
+                if (row > vectorKey.row.get() ||
+                        (row == vectorKey.row.get() && col > vectorKey.col.get())) {
+                    return;
+                }
+                if (row == vectorKey.row.get() && col == vectorKey.col.get()) {
+                    multiplyColumns(matrixBlock, vectorBlock, resultBlock, numVectors);
+                }
+                matrixBlockPending = matrixReader.next(matrixKey, matrixBlock);
+            }
+        }
+
+        // Each source page passes an equal share of its rank in every vector to every
+        // page it links to. The shares of a column are worked out once for all vectors.
+        public static void multiplyColumns(MatrixBlockWritable block, double[] vectors, double[] results,
+                int numVectors) {
+            double[] shares = new double[numVectors];
+            for (int k = 0; k < block.numColumns; k++) {
+                int col = block.columns[k] * numVectors;
+                boolean empty = true;
+                for (int v = 0; v < numVectors; v++) {
+                    shares[v] = vectors[col + v] / block.outDegrees[k];
+                    empty &= shares[v] == 0.0;
+                }
+                if (empty) {
+                    continue;
+                }
+                for (int i = block.columnOffsets[k]; i < block.columnOffsets[k + 1]; i++) {
+                    int row = block.rows[i] * numVectors;
+                    for (int v = 0; v < numVectors; v++) {
+                        results[row + v] += shares[v];
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            if (currentBlockRow != -1) {
+                writeResultBlock(context);
+            }
+            matrixReader.close();
+            statistics.write(context);
+            writeResiduals(context, residuals);
+        }
+
+        // The rank of each vector that does not reach any page through a link goes
+        // back to its seed pages in proportion to their teleportation weights.
+        private void writeResultBlock(Context context) throws IOException, InterruptedException {
+            int blockLength = layout.blockLength(currentBlockRow);
+            long rowOffset = layout.blockOffset(currentBlockRow);
+            for (int k = 0; k < numVectors; k++) {
+                lostMass[k] = 1 - (1 - teleportationRate) * (vectorMass[k] - danglingMass[k]);
+            }
+            int seed = Arrays.binarySearch(teleportPages, rowOffset);
+            if (seed < 0) {
+                seed = -seed - 1;
+            }
+            for (int row = 0; row < blockLength; row++) {
+                long page = rowOffset + row;
+                boolean seedPage = seed < teleportPages.length && teleportPages[seed] == page;
+                double[] ranks = outRanks.ranks;
+                for (int k = 0; k < numVectors; k++) {
+                    double rank = (1 - teleportationRate) * resultBlock[row * numVectors + k];
+                    if (seedPage) {
+                        rank += lostMass[k] * teleportWeights[seed * numVectors + k];
+                    }
+                    double diff = Math.abs(rank - previousBlock[row * numVectors + k]);
+                    residuals[k] += diff;
+                    statistics.addDifference(diff);
+                    statistics.vectorSum += rank;
+                    ranks[k] = rank;
+                }
+                if (seedPage) {
+                    seed++;
+                }
+                outPage.set(page);
+                context.write(outPage, outRanks);
+            }
+        }
+    }
+
+    /**
+     * Sends the ranks of each page in the converged vectors to the reducers that join
+     * them with the dictionary, like RankJoinMapper does with a single vector.
+     */
+    public static class RankVectorJoinMapper extends
+            Mapper<LongWritable, RankVectorWritable, LongWritable, DictionaryJoinWritable> {
+
+        private DictionaryJoinWritable entry = new DictionaryJoinWritable();
+
+        @Override
+        public void map(LongWritable key, RankVectorWritable value, Context context)
+                throws IOException, InterruptedException {
+            entry.source = DictionaryJoinWritable.RANK_VECTOR_SOURCE;
+            entry.ranks = value;
+            context.write(key, entry);
+        }
+    }
+
+    /**
+     * Writes the ranks of each page in every vector with its original ID.
+     */
+    public static class RankVectorJoinReducer extends
+            Reducer<LongWritable, DictionaryJoinWritable, Text, RankVectorWritable> {
+
+        private Text origKey = new Text();
+        private RankVectorWritable ranks = new RankVectorWritable();
+
+        @Override
+        public void reduce(LongWritable key, Iterable<DictionaryJoinWritable> values, Context context)
+                throws IOException, InterruptedException {
+            boolean hasOrigKey = false;
+            boolean hasRanks = false;
+            for (DictionaryJoinWritable value : values) {
+                if (value.source == DictionaryJoinWritable.DICTIONARY_SOURCE) {
+                    origKey.set(value.origKey);
+                    hasOrigKey = true;
+                }
+                else {
+                    ranks.ranks = Arrays.copyOf(value.ranks.ranks, value.ranks.ranks.length);
+                    hasRanks = true;
+                }
+            }
+            if (hasOrigKey && hasRanks) {
+                context.write(origKey, ranks);
+            }
+        }
+    }
+
+    // the L1 difference of every vector from its previous value, next to the reducer's output
+    static void writeResiduals(Reducer<?, ?, ?, ?>.Context context, double[] residuals)
+            throws IOException, InterruptedException {
+        Path path = new Path(FileOutputFormat.getWorkOutputPath(context),
+                RESIDUALS_PREFIX + PageDictionary.partitionName(context.getTaskAttemptID().getTaskID().getId()));
+        PrintWriter writer = new PrintWriter(path.getFileSystem(context.getConfiguration()).create(path, true));
+        StringBuilder line = new StringBuilder();
+        for (int k = 0; k < residuals.length; k++) {
+            line.append(k > 0 ? "\t" : "").append(residuals[k]);
+        }
+        writer.println(line);
+        writer.close();
+    }
+
+    public static double[] readResiduals(FileSystem fs, Path outputPath, int numVectors) throws IOException {
+        double[] residuals = new double[numVectors];
+        for (FileStatus status : fs.globStatus(new Path(outputPath, RESIDUALS_PREFIX + "*"))) {
+            Scanner scanner = new Scanner(fs.open(status.getPath()));
+            String[] fields = scanner.nextLine().split("\t");
+            scanner.close();
+            for (int k = 0; k < numVectors; k++) {
+                residuals[k] += Double.parseDouble(fields[k]);
+            }
+        }
+        return residuals;
+    }
+
+    /**
+     * Computes a batch of personalized PageRank vectors, one for each line of the seed
+     * file. A line holds the tab separated IDs of the pages its vector teleports to, with
+     * equal weights. The vectors start from their teleportation vectors and are iterated
+     * together until every one of them has converged. The output has a line per page with
+     * its rank in each vector, in the order of the seed file. Returns false if the seed
+     * pages are not in the graph or a job fails.
+     */
+    public static boolean run(FileSystem fs, Configuration conf, IterationReport report, Path seedPath, 
+            Path tmpPath, Path dictionaryPath, TwoWayLookUp<String> twoWayLookUp, long numPages, int numDivs, 
+            double epsilon, File outputFile) throws Exception {
+        List<String[]> seedLines = new ArrayList<String[]>();
+        Scanner scanner = new Scanner(fs.open(seedPath));
+        while (scanner.hasNextLine()) {
+            String line = scanner.nextLine();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            seedLines.add(line.split("\t"));
+        }
+        scanner.close();
+        Map<String, Long> newKeys = lookUpSeedPages(fs, dictionaryPath, twoWayLookUp, seedLines);
+        List<Set<Long>> seedSets = new ArrayList<Set<Long>>();
+        for (String[] seedLine : seedLines) {
+            Set<Long> seeds = new TreeSet<Long>();
+            for (String origKey : seedLine) {
+                Long page = newKeys.get(origKey);
+                if (page != null) {
+                    seeds.add(page);
+                }
+            }
+            if (seeds.isEmpty()) {
+                System.err.println("None of the pages of seed set " + (seedSets.size() + 1) + " are in the graph");
+                return false;
+            }
+            seedSets.add(seeds);
+        }
+        int numVectors = seedSets.size();
+        System.out.println("Personalized vectors: " + numVectors);
+        
+        // the teleportation vectors are also the starting vectors
+        TreeMap<Long, double[]> teleportWeights = new TreeMap<Long, double[]>();
+        for (int k = 0; k < numVectors; k++) {
+            for (long page : seedSets.get(k)) {
+                if (!teleportWeights.containsKey(page)) {
+                    teleportWeights.put(page, new double[numVectors]);
+                }
+                teleportWeights.get(page)[k] = 1.0 / seedSets.get(k).size();
+            }
+        }
+        Path pathTeleport = new Path(tmpPath, "teleport");
+        Path pathVector = new Path(tmpPath, "vector");
+        Path pathResult = new Path(tmpPath, "result");
+        Path pathOutput = new Path(tmpPath, "output");
+        for (Path path : new Path[] { pathTeleport, pathVector }) {
+            SequenceFile.Writer writer = SequenceFile.createWriter(conf, 
+                    SequenceFile.Writer.file(new Path(path, "part-m-00000")), 
+                    SequenceFile.Writer.keyClass(LongWritable.class), 
+                    SequenceFile.Writer.valueClass(RankVectorWritable.class));
+            for (Map.Entry<Long, double[]> entry : teleportWeights.entrySet()) {
+                writer.append(new LongWritable(entry.getKey()), new RankVectorWritable(0, entry.getValue()));
+            }
+            writer.close();
+        }
+        conf.setInt("map.personalization.vectors", numVectors);
+        conf.set("map.personalization.teleport.path", pathTeleport.toString());
+        
+        int numIterations = 0;
+        int[] convergedAfter = new int[numVectors];
+        int numConverged = 0;
+        long iterationStartTime = System.currentTimeMillis();
+        while (numConverged < numVectors) {
+            numIterations++;
+            long iterationJobsStartTime = System.currentTimeMillis();
+            Job jobPersonalizedMultiplication = Job.getInstance(conf);
+            jobPersonalizedMultiplication.setJarByClass(PersonalizedPageRank.class);
+            jobPersonalizedMultiplication.setInputFormatClass(SequenceFileInputFormat.class);
+            jobPersonalizedMultiplication.setOutputFormatClass(SequenceFileOutputFormat.class);
+            
+            jobPersonalizedMultiplication.setMapOutputKeyClass(BlockEntryKey.class);
+            jobPersonalizedMultiplication.setMapOutputValueClass(RankVectorWritable.class);
+            
+            jobPersonalizedMultiplication.setOutputKeyClass(LongWritable.class);
+            jobPersonalizedMultiplication.setOutputValueClass(RankVectorWritable.class);
+            
+            jobPersonalizedMultiplication.setMapperClass(RankVectorMapper.class);
+            jobPersonalizedMultiplication.setPartitionerClass(RowPartitioner.class);
+            jobPersonalizedMultiplication.setReducerClass(PersonalizedMultiplicationReducer.class);
+            jobPersonalizedMultiplication.setNumReduceTasks(numDivs);
+            
+            FileInputFormat.setInputPaths(jobPersonalizedMultiplication, pathVector);
+            FileOutputFormat.setOutputPath(jobPersonalizedMultiplication, pathResult);
+            if (!IterationReport.runJob(report, jobPersonalizedMultiplication, numIterations, "multiply"))
+                return false;
+            
+            // every vector keeps the iteration it first converged in
+            double[] residuals = readResiduals(fs, pathResult, numVectors);
+            double maxResidual = 0.0;
+            for (int k = 0; k < numVectors; k++) {
+                maxResidual = Math.max(maxResidual, residuals[k]);
+                if (convergedAfter[k] == 0 && residuals[k] < epsilon) {
+                    convergedAfter[k] = numIterations;
+                    numConverged++;
+                }
+            }
+            System.out.println("Largest sum of absolute differences: " + maxResidual 
+                    + ", converged vectors: " + numConverged + " of " + numVectors);
+            if (report != null) {
+                report.addIteration(numIterations, System.currentTimeMillis() - iterationJobsStartTime, 
+                        IterationReport.Statistics.read(fs, pathResult));
+            }
+            fs.delete(pathVector, true);
+            if (!fs.rename(pathResult, pathVector)) {
+                throw new IOException("Could not move " + pathResult + " to " + pathVector);
+            }
+        }
+        int minIterations = numIterations;
+        for (int iterations : convergedAfter) {
+            minIterations = Math.min(minIterations, iterations);
+        }
+        System.out.println("Converged after " + numIterations + " iterations in " 
+                + (System.currentTimeMillis() - iterationStartTime) / 1000.0 + " seconds");
+        System.out.println("Vectors converged after " + minIterations + " to " + numIterations + " iterations");
+        
+        // the distributed dictionary is joined with the vectors by page ranges, like the
+        // ranks of a single vector, while an in-memory dictionary is applied by this driver
+        if (twoWayLookUp == null) {
+            Job jobDictionaryJoin = Job.getInstance(conf);
+            jobDictionaryJoin.setJarByClass(PersonalizedPageRank.class);
+            jobDictionaryJoin.setOutputFormatClass(TextOutputFormat.class);
+            
+            jobDictionaryJoin.setMapOutputKeyClass(LongWritable.class);
+            jobDictionaryJoin.setMapOutputValueClass(DictionaryJoinWritable.class);
+            
+            jobDictionaryJoin.setOutputKeyClass(Text.class);
+            jobDictionaryJoin.setOutputValueClass(RankVectorWritable.class);
+            
+            MultipleInputs.addInputPath(jobDictionaryJoin, new Path(pathVector, "part-*"), 
+                    SequenceFileInputFormat.class, RankVectorJoinMapper.class);
+            MultipleInputs.addInputPath(jobDictionaryJoin, new Path(dictionaryPath, "part-*"), 
+                    SequenceFileInputFormat.class, DictionaryJoinMapper.class);
+            jobDictionaryJoin.setPartitionerClass(PageRangePartitioner.class);
+            jobDictionaryJoin.setReducerClass(RankVectorJoinReducer.class);
+            jobDictionaryJoin.setNumReduceTasks(numDivs);
+            FileOutputFormat.setOutputPath(jobDictionaryJoin, pathOutput);
+            if (!IterationReport.runJob(report, jobDictionaryJoin, 0, "dictionaryJoin"))
+                return false;
+            FileUtil.copyMerge(fs, pathOutput, FileSystem.getLocal(conf), 
+                    new Path(outputFile.getAbsolutePath()), false, conf, null);
+            return true;
+        }
+        
+        Job jobVectorReassembly = Job.getInstance(conf);
+        jobVectorReassembly.setJarByClass(PersonalizedPageRank.class);
+        jobVectorReassembly.setInputFormatClass(SequenceFileInputFormat.class);
+        jobVectorReassembly.setOutputFormatClass(TextOutputFormat.class);
+        
+        jobVectorReassembly.setOutputKeyClass(LongWritable.class);
+        jobVectorReassembly.setOutputValueClass(RankVectorWritable.class);
+        
+        jobVectorReassembly.setNumReduceTasks(1);
+        FileInputFormat.setInputPaths(jobVectorReassembly, new Path(pathVector, "part-*"));
+        FileOutputFormat.setOutputPath(jobVectorReassembly, pathOutput);
+        if (!IterationReport.runJob(report, jobVectorReassembly, 0, "reassemble"))
+            return false;
+        
+        scanner = new Scanner(fs.open(new Path(pathOutput, "part-r-00000")));
+        PrintWriter writer = new PrintWriter(outputFile);
+        while (scanner.hasNextLine()) {
+            String[] pair = scanner.nextLine().split("\t", 2);
+            int page = Integer.parseInt(pair[0]);
+            writer.println(twoWayLookUp.getKey(page) + "\t" + pair[1]);
+        }
+        scanner.close();
+        writer.close();
+        return true;
+    }
+
+    // Finds the new IDs of the seed pages with one pass over the dictionary, keeping 
+    // only the pages that are seeds
+    private static Map<String, Long> lookUpSeedPages(FileSystem fs, Path dictionaryPath, 
+            TwoWayLookUp<String> twoWayLookUp, List<String[]> seedLines) throws IOException {
+        Map<String, Long> newKeys = new HashMap<String, Long>();
+        for (String[] seedLine : seedLines) {
+            for (String origKey : seedLine) {
+                if (twoWayLookUp == null) {
+                    newKeys.put(origKey, null);
+                }
+                else if (twoWayLookUp.containsKey(origKey)) {
+                    newKeys.put(origKey, (long) twoWayLookUp.getValue(origKey));
+                }
+            }
+        }
+        if (twoWayLookUp != null) {
+            return newKeys;
+        }
+        LongWritable page = new LongWritable();
+        Text origKey = new Text();
+        for (FileStatus status : fs.globStatus(new Path(dictionaryPath, "part-*"))) {
+            SequenceFile.Reader reader = new SequenceFile.Reader(fs.getConf(), 
+                    SequenceFile.Reader.file(status.getPath()));
+            while (reader.next(page, origKey)) {
+                String key = origKey.toString();
+                if (newKeys.containsKey(key)) {
+                    newKeys.put(key, page.get());
+                }
+            }
+            reader.close();
+        }
+        return newKeys;
+    }
+
+}
@@ -0,0 +1,323 @@
+package net.mikeyrichardson.pagerank;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.mapreduce.InputFormat;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileRecordReader;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.mapreduce.lib.partition.InputSampler;
+import org.apache.hadoop.mapreduce.lib.partition.TotalOrderPartitioner;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import net.mikeyrichardson.pagerank.io.PackedVectorInputFormat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * This class contains the classes that write the final vector ordered by rank instead
+ * of by page. The vector is read keyed by rank, so that the jobs can sort on it in
+ * decreasing order. For the top pages each mapper keeps only its "map.output.top"
+ * highest ranked pages and a single reducer merges those. For the fully sorted output
+ * the ranks are split between the reducers with a total order partitioner, so the
+ * output files follow each other in rank order. Without either, a single reducer puts
+ * the vector back in page order for the in-memory dictionary of the driver.
+ * @author Michael Richardson
+ *
+ */
+public class RankedOutput {
+
+    /**
+     * Reads files of pages and ranks with the rank as the key and the page as the value.
+     * The page is the new ID in the vector and the original ID once the vector has been
+     * joined with the dictionary.
+     */
+    public static class RankKeyInputFormat<P extends Writable> extends SequenceFileInputFormat<DoubleWritable, P> {
+
+        // reads the (page, rank) records of a split
+        protected RecordReader<P, DoubleWritable> createPageReader(InputSplit split,
+                TaskAttemptContext context) {
+            return new SequenceFileRecordReader<P, DoubleWritable>();
+        }
+
+        @Override
+        public RecordReader<DoubleWritable, P> createRecordReader(InputSplit split,
+                TaskAttemptContext context) {
+            final RecordReader<P, DoubleWritable> reader = createPageReader(split, context);
+            return new RecordReader<DoubleWritable, P>() {
+
+                @Override
+                public void initialize(InputSplit split, TaskAttemptContext context)
+                        throws IOException, InterruptedException {
+                    reader.initialize(split, context);
+                }
+
+                @Override
+                public boolean nextKeyValue() throws IOException, InterruptedException {
+                    return reader.nextKeyValue();
+                }
+
+                @Override
+                public DoubleWritable getCurrentKey() throws IOException, InterruptedException {
+                    return reader.getCurrentValue();
+                }
+
+                @Override
+                public P getCurrentValue() throws IOException, InterruptedException {
+                    return reader.getCurrentKey();
+                }
+
+                @Override
+                public float getProgress() throws IOException, InterruptedException {
+                    return reader.getProgress();
+                }
+
+                @Override
+                public void close() throws IOException {
+                    reader.close();
+                }
+            };
+        }
+    }
+
+    /**
+     * Reads the final vector keyed by rank, whether or not its ranks are packed.
+     */
+    public static class VectorRankKeyInputFormat extends RankKeyInputFormat<LongWritable> {
+
+        @Override
+        protected RecordReader<LongWritable, DoubleWritable> createPageReader(InputSplit split,
+                TaskAttemptContext context) {
+            return new PackedVectorInputFormat().createRecordReader(split, context);
+        }
+    }
+
+    /**
+     * Sorts ranks from the highest to the lowest, both serialized and as objects, since
+     * InputSampler and TotalOrderPartitioner compare the split points as objects.
+     */
+    public static class DecreasingRankComparator extends DoubleWritable.Comparator {
+
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            return super.compare(b2, s2, l2, b1, s1, l1);
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public int compare(WritableComparable a, WritableComparable b) {
+            return super.compare(b, a);
+        }
+    }
+
+    /**
+     * Keeps the highest ranked pages of the mapper's split in a heap whose lowest rank
+     * is at the top, and writes them out at the end. Once the heap is full, a page that
+     * makes it in takes over the entry of the page it pushes out.
+     */
+    public static class TopPagesMapper extends Mapper<DoubleWritable, LongWritable, DoubleWritable, LongWritable> {
+
+        private int numTopPages = 0;
+        private PriorityQueue<RankedPage> topPages;
+        private DoubleWritable rank = new DoubleWritable();
+        private LongWritable page = new LongWritable();
+
+        @Override
+        public void setup(Context context) {
+            this.numTopPages = context.getConfiguration().getInt("map.output.top", 100);
+            this.topPages = new PriorityQueue<RankedPage>(numTopPages + 1);
+        }
+
+        @Override
+        public void map(DoubleWritable key, LongWritable value, Context context) {
+            if (topPages.size() < numTopPages) {
+                topPages.add(new RankedPage(key.get(), value.get()));
+            }
+            else if (key.get() > topPages.peek().rank) {
+                RankedPage lowest = topPages.poll();
+                lowest.set(key.get(), value.get());
+                topPages.add(lowest);
+            }
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            for (RankedPage topPage : topPages) {
+                rank.set(topPage.rank);
+                page.set(topPage.page);
+                context.write(rank, page);
+            }
+        }
+    }
+
+    private static class RankedPage implements Comparable<RankedPage> {
+
+        private double rank;
+        private long page;
+
+        RankedPage(double rank, long page) {
+            set(rank, page);
+        }
+
+        void set(double rank, long page) {
+            this.rank = rank;
+            this.page = page;
+        }
+
+        public int compareTo(RankedPage other) {
+            return Double.compare(this.rank, other.rank);
+        }
+    }
+
+    /**
+     * Writes the pages back keyed by page, in the decreasing rank order they arrive in.
+     * With "map.output.top" set, only that many pages are written.
+     */
+    public static class RankOrderReducer<P extends Writable> extends Reducer<DoubleWritable, P, P, DoubleWritable> {
+
+        private long numPagesLeft = Long.MAX_VALUE;
+
+        @Override
+        public void setup(Context context) {
+            int numTopPages = context.getConfiguration().getInt("map.output.top", 0);
+            if (numTopPages > 0) {
+                this.numPagesLeft = numTopPages;
+            }
+        }
+
+        @Override
+        public void reduce(DoubleWritable key, Iterable<P> values, Context context)
+                throws IOException, InterruptedException {
+            for (P page : values) {
+                if (numPagesLeft-- <= 0) {
+                    return;
+                }
+                context.write(page, key);
+            }
+        }
+    }
+
+    /**
+     * Writes the pages of the final vector in decreasing rank order, or only the
+     * "map.output.top" highest ranked ones. The vector holds the original page IDs once
+     * it has been joined with the dictionary and the new IDs otherwise. The sorted output
+     * is split by rank between numReducers reducers, with the split points written to
+     * partitionsPath. Returns false if the job fails.
+     */
+    public static boolean writeRankOrder(Configuration conf, IterationReport report, List<Path> vectorPaths, 
+            boolean joined, Path outputPath, Path partitionsPath, long numPages, int numReducers) 
+            throws Exception {
+        Job jobRankOrder = Job.getInstance(conf);
+        jobRankOrder.setJarByClass(RankedOutput.class);
+        jobRankOrder.setInputFormatClass(joined ? RankKeyInputFormat.class : VectorRankKeyInputFormat.class);
+        jobRankOrder.setOutputFormatClass(TextOutputFormat.class);
+        
+        Class<?> pageClass = joined ? Text.class : LongWritable.class;
+        jobRankOrder.setMapOutputKeyClass(DoubleWritable.class);
+        jobRankOrder.setMapOutputValueClass(pageClass);
+        
+        jobRankOrder.setOutputKeyClass(pageClass);
+        jobRankOrder.setOutputValueClass(DoubleWritable.class);
+        
+        jobRankOrder.setSortComparatorClass(DecreasingRankComparator.class);
+        jobRankOrder.setReducerClass(RankOrderReducer.class);
+        FileInputFormat.setInputPaths(jobRankOrder, vectorPaths.toArray(new Path[vectorPaths.size()]));
+        FileOutputFormat.setOutputPath(jobRankOrder, outputPath);
+        if (conf.getInt("map.output.top", 0) > 0) {
+            jobRankOrder.setMapperClass(TopPagesMapper.class);
+            jobRankOrder.setNumReduceTasks(1);
+        }
+        else {
+            int numRankReducers = writeRankPartitions(jobRankOrder, partitionsPath, numPages, numReducers);
+            jobRankOrder.setNumReduceTasks(numRankReducers);
+            if (numRankReducers > 1) {
+                TotalOrderPartitioner.setPartitionFile(jobRankOrder.getConfiguration(), partitionsPath);
+                jobRankOrder.setPartitionerClass(TotalOrderPartitioner.class);
+            }
+        }
+        return IterationReport.runJob(report, jobRankOrder, 0, "rankOrder");
+    }
+
+    /**
+     * Puts the final vector back in page order with a single reducer, for the driver to
+     * look up the original IDs in the in-memory dictionary. Returns false if the job fails.
+     */
+    public static boolean writePageOrder(Configuration conf, IterationReport report, List<Path> vectorPaths, 
+            Path outputPath) throws Exception {
+        Job jobVectorReassembly = Job.getInstance(conf);
+        jobVectorReassembly.setInputFormatClass(PackedVectorInputFormat.class);
+        jobVectorReassembly.setOutputFormatClass(TextOutputFormat.class);
+
+        jobVectorReassembly.setMapOutputKeyClass(LongWritable.class);
+        jobVectorReassembly.setMapOutputValueClass(DoubleWritable.class);
+
+        jobVectorReassembly.setOutputKeyClass(LongWritable.class);
+        jobVectorReassembly.setOutputValueClass(DoubleWritable.class);
+
+        jobVectorReassembly.setNumReduceTasks(1);
+        FileInputFormat.setInputPaths(jobVectorReassembly, vectorPaths.toArray(new Path[vectorPaths.size()]));
+        FileOutputFormat.setOutputPath(jobVectorReassembly, outputPath);
+        return IterationReport.runJob(report, jobVectorReassembly, 0, "reassemble");
+    }
+    
+    // Write the split points between the reducers of the sorted output from a sample of
+    // the ranks, about ten ranks for every reducer. The split points have to differ, but
+    // many pages can have the same rank, so with too few different ranks in the sample
+    // fewer reducers are used, and a sample smaller than the number of reducers leaves 
+    // a single reducer without split points. Returns the number of reducers.
+    private static int writeRankPartitions(Job job, Path partitionsPath, long numPages, int numReducers) 
+            throws Exception {
+        if (numReducers < 2) {
+            return 1;
+        }
+        double frequency = Math.min(1.0, Math.max(0.01, 10.0 * numReducers / numPages));
+        InputSampler.Sampler<DoubleWritable, Writable> sampler = 
+                new InputSampler.RandomSampler<DoubleWritable, Writable>(frequency, 10000, 10);
+        @SuppressWarnings("unchecked")
+        InputFormat<DoubleWritable, Writable> inputFormat = (InputFormat<DoubleWritable, Writable>) 
+                ReflectionUtils.newInstance(job.getInputFormatClass(), job.getConfiguration());
+        // the sampler returns an Object array whatever its key type
+        Object[] samples = sampler.getSample(inputFormat, job);
+        if (samples.length < numReducers) {
+            System.out.println("Sorting the output with one reducer, since only " + samples.length 
+                    + " ranks were sampled");
+            return 1;
+        }
+        DecreasingRankComparator comparator = new DecreasingRankComparator();
+        Arrays.sort(samples, comparator);
+        List<DoubleWritable> splitPoints = new ArrayList<DoubleWritable>();
+        for (int i = 1; i < numReducers; i++) {
+            DoubleWritable splitPoint = (DoubleWritable) samples[(int) ((long) i * samples.length / numReducers)];
+            if (splitPoints.isEmpty() || comparator.compare(splitPoints.get(splitPoints.size() - 1), splitPoint) < 0) {
+                splitPoints.add(splitPoint);
+            }
+        }
+        SequenceFile.Writer writer = SequenceFile.createWriter(job.getConfiguration(), 
+                SequenceFile.Writer.file(partitionsPath), SequenceFile.Writer.keyClass(DoubleWritable.class), 
+                SequenceFile.Writer.valueClass(NullWritable.class));
+        for (DoubleWritable splitPoint : splitPoints) {
+            writer.append(splitPoint, NullWritable.get());
+        }
+        writer.close();
+        return splitPoints.size() + 1;
+    }
+}
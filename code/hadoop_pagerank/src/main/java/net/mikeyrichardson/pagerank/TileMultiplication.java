@@ -0,0 +1,249 @@
+package net.mikeyrichardson.pagerank;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+
+import net.mikeyrichardson.pagerank.io.BlockEntryKey;
+import net.mikeyrichardson.pagerank.io.MatrixEntryWritable;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class contains the partitioners and reducers of the 2D grid iteration. Instead
+ * of one reducer per block row that has to see every column block of its row, each
+ * (block row, block column) tile of the matrix is multiplied on its own and the
+ * reducers write the partial sums of the rows they touch. A second, light job adds up
+ * the partial sums of every page, so the number of multiplication reducers can grow
+ * with the square of the number of divs while each vector entry is still only sent to
+ * every block row once.
+ * @author Michael Richardson
+ *
+ */
+public class TileMultiplication {
+
+    /**
+     * Spreads the tiles over the reducers row by row, so that the tiles of one block
+     * row go to different reducers.
+     */
+    public static class TilePartitioner extends Partitioner<BlockEntryKey, MatrixEntryWritable>
+            implements Configurable {
+
+        private Configuration conf;
+        private int numDivs = 0;
+
+        @Override
+        public void setConf(Configuration conf) {
+            this.conf = conf;
+            this.numDivs = BlockLayout.fromConfiguration(conf).getNumBlocks();
+        }
+
+        @Override
+        public Configuration getConf() {
+            return conf;
+        }
+
+        @Override
+        public int getPartition(BlockEntryKey key, MatrixEntryWritable value, int numPartitions) {
+            return (int) (((long) key.row.get() * numDivs + key.col.get()) % numPartitions);
+        }
+    }
+
+    /**
+     * Multiplies the tiles of the matrix by the vector block of their column. The
+     * vector entries of a tile sort before its matrix entries. The partial sums of the
+     * rows of a tile that have entries are written keyed by page.
+     */
+    public static class TileMultiplicationReducer extends
+            IterationReport.AllocationCountingReducer<BlockEntryKey, MatrixEntryWritable, LongWritable, DoubleWritable> {
+
+        private BlockLayout layout;
+        private double[] vectorBlock;
+        private double[] partialBlock;
+        private int currentBlockRow = -1;
+        private int currentBlockCol = -1;
+        private LongWritable outPage = new LongWritable();
+        private DoubleWritable partialSum = new DoubleWritable();
+
+        @Override
+        public void setup(Context context) {
+            this.layout = BlockLayout.fromConfiguration(context.getConfiguration());
+            int maxBlockLength = layout.maxBlockLength();
+            vectorBlock = new double[maxBlockLength];
+            partialBlock = new double[maxBlockLength];
+        }
+
+        @Override
+        public void reduce(BlockEntryKey key, Iterable<MatrixEntryWritable> values, Context context)
+                throws IOException, InterruptedException {
+            if (key.row.get() != currentBlockRow || key.col.get() != currentBlockCol) {
+                if (currentBlockRow != -1) {
+                    writePartialBlock(context);
+                }
+                currentBlockRow = key.row.get();
+                currentBlockCol = key.col.get();
+                Arrays.fill(vectorBlock, 0.0);
+                Arrays.fill(partialBlock, 0.0);
+            }
+            if (key.source.get() == BlockEntryKey.VECTOR_SOURCE) {
+                for (MatrixEntryWritable entry : values) {
+                    vectorBlock[entry.row.get()] = entry.value.get();
+                }
+            }
+            else {
+                for (MatrixEntryWritable entry : values) {
+                    partialBlock[entry.row.get()] += entry.value.get() * vectorBlock[entry.col.get()];
+                }
+            }
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            if (currentBlockRow != -1) {
+                writePartialBlock(context);
+            }
+        }
+
+        private void writePartialBlock(Context context) throws IOException, InterruptedException {
+            long rowOffset = layout.blockOffset(currentBlockRow);
+            int blockLength = layout.blockLength(currentBlockRow);
+            for (int row = 0; row < blockLength; row++) {
+                if (partialBlock[row] != 0.0) {
+                    outPage.set(rowOffset + row);
+                    partialSum.set(partialBlock[row]);
+                    context.write(outPage, partialSum);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds up the partial sums of a page on the map side.
+     */
+    public static class PartialSumCombiner extends
+            Reducer<LongWritable, DoubleWritable, LongWritable, DoubleWritable> {
+
+        private DoubleWritable partialSum = new DoubleWritable();
+
+        @Override
+        public void reduce(LongWritable key, Iterable<DoubleWritable> values, Context context)
+                throws IOException, InterruptedException {
+            double sum = 0.0;
+            for (DoubleWritable value : values) {
+                sum += value.get();
+            }
+            partialSum.set(sum);
+            context.write(key, partialSum);
+        }
+    }
+
+    /**
+     * Sends each page to the reducer for its block row, the same way RowPartitioner
+     * does for the block keys.
+     */
+    public static class PagePartitioner extends Partitioner<LongWritable, DoubleWritable>
+            implements Configurable {
+
+        private Configuration conf;
+        private BlockLayout layout;
+
+        @Override
+        public void setConf(Configuration conf) {
+            this.conf = conf;
+            this.layout = BlockLayout.fromConfiguration(conf);
+        }
+
+        @Override
+        public Configuration getConf() {
+            return conf;
+        }
+
+        @Override
+        public int getPartition(LongWritable key, DoubleWritable value, int numPartitions) {
+            return layout.blockOf(key.get()) % numPartitions;
+        }
+    }
+
+    /**
+     * Adds up the partial sums of each page and writes its share of the new vector,
+     * like BlockMultiplicationReducer does when it is not fused. Pages without
+     * incoming links get no partial sums, so the reducer walks through every page of
+     * the blocks PagePartitioner sends it and writes 0 for the ones it does not see.
+     * The sum of the entries goes to the vector sum counter for the normalization job.
+     */
+    public static class PartialSumReducer extends
+            IterationReport.AllocationCountingReducer<LongWritable, DoubleWritable, LongWritable, DoubleWritable> {
+
+        protected double teleportationRate = 0.0;
+        protected BlockLayout layout;
+        private int numPartitions = 1;
+        private int currentBlock = 0;
+        private long nextPage = 0;
+        protected IterationReport.Statistics statistics = new IterationReport.Statistics();
+        protected LongWritable outPage = new LongWritable();
+        protected DoubleWritable outRank = new DoubleWritable();
+
+        @Override
+        public void setup(Context context) throws IOException {
+            this.teleportationRate = context.getConfiguration().getDouble(
+                    "map.teleportation.rate", 0.15);
+            this.layout = BlockLayout.fromConfiguration(context.getConfiguration());
+            this.numPartitions = context.getNumReduceTasks();
+            this.currentBlock = context.getTaskAttemptID().getTaskID().getId();
+            if (currentBlock < layout.getNumBlocks()) {
+                nextPage = layout.blockOffset(currentBlock);
+            }
+        }
+
+        @Override
+        public void reduce(LongWritable key, Iterable<DoubleWritable> values, Context context)
+                throws IOException, InterruptedException {
+            writeEmptyPagesBefore(key.get(), context);
+            double sum = 0.0;
+            for (DoubleWritable value : values) {
+                sum += value.get();
+            }
+            writeRank(key.get(), sum, context);
+            nextPage = key.get() + 1;
+        }
+
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            writeEmptyPagesBefore(Long.MAX_VALUE, context);
+            long longSum = (long) (MultiplyMatrixAndVector.DECIMAL_LONG_CONVERSION_FACTOR * statistics.vectorSum);
+            context.getCounter(CalculatePageRank.PageRankEnums.VECTOR_SUM).increment(longSum);
+            statistics.write(context);
+        }
+
+        private void writeEmptyPagesBefore(long page, Context context)
+                throws IOException, InterruptedException {
+            while (currentBlock < layout.getNumBlocks()) {
+                long blockEnd = layout.blockOffset(currentBlock) + layout.blockLength(currentBlock);
+                while (nextPage < Math.min(page, blockEnd)) {
+                    writeRank(nextPage++, 0.0, context);
+                }
+                if (page < blockEnd) {
+                    return;
+                }
+                currentBlock += numPartitions;
+                if (currentBlock < layout.getNumBlocks()) {
+                    nextPage = layout.blockOffset(currentBlock);
+                }
+            }
+        }
+
+        protected void writeRank(long page, double sum, Context context)
+                throws IOException, InterruptedException {
+            double product = (1 - this.teleportationRate) * sum;
+            statistics.vectorSum += product;
+            outPage.set(page);
+            outRank.set(product);
+            context.write(outPage, outRank);
+        }
+    }
+
+}
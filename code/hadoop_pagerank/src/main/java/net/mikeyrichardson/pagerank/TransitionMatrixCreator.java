@@ -1,95 +1,279 @@
 package net.mikeyrichardson.pagerank;
 
-import org.apache.hadoop.io.Text;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
 
 import net.mikeyrichardson.pagerank.io.BlockEntryKey;
+import net.mikeyrichardson.pagerank.io.EdgeListInputFormat;
+import net.mikeyrichardson.pagerank.io.MatrixBlockWritable;
 import net.mikeyrichardson.pagerank.io.MatrixEntryWritable;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 public class TransitionMatrixCreator {
 
+    /**
+     * Passes the links read by EdgeListInputFormat on to the reducer, keyed by source page.
+     */
     public static class BlockCalculationMapper extends
-            Mapper<Text, Text, LongWritable, LongWritable> {
+            IterationReport.AllocationCountingMapper<LongWritable, LongWritable, LongWritable, LongWritable> {
+
+        public void map(LongWritable key, LongWritable value, Context context)
+                throws IOException, InterruptedException {
+            context.write(key, value);
+        }
+    }
+
+    /**
+     * Counts the links into each bucket of "map.balance.bucket.size" consecutive pages,
+     * from which the driver works out block boundaries with about the same number of
+     * matrix entries in every block row. Used with LongSumReducer as the combiner and
+     * reducer.
+     */
+    public static class InDegreeMapper extends
+            Mapper<LongWritable, LongWritable, LongWritable, LongWritable> {
         
+        private long bucketSize = 1;
+        private final LongWritable bucket = new LongWritable();
+        private final LongWritable one = new LongWritable(1);
 
+        @Override
+        public void setup(Context context) {
+            this.bucketSize = context.getConfiguration().getLong("map.balance.bucket.size", 1);
+        }
 
-        public void map(Text key, Text value, Context context)
+        public void map(LongWritable key, LongWritable value, Context context)
                 throws IOException, InterruptedException {
-            if (key.toString().startsWith("#")) {
-                return;
-            }
-            long srcPage = Long.parseLong(key.toString());
-            long destPage = Long.parseLong(value.toString());
-            context.write(new LongWritable(srcPage), new LongWritable(destPage));
-            
+            bucket.set(value.get() / bucketSize);
+            context.write(bucket, one);
         }
     }
 
+    final public static String OUTLINKS_OUTPUT = "outlinks";
+
     /**
      * This reducer calculates the transition probabilities from each page and 
      * also assigns a block key to each matrix entry. This allows matrix/vector multiplication
      * to be carried out when the matrix and/or vector are too large to fit in the memory
-     * of a single machine.
+     * of a single machine. When "map.matrix.partitioned" is set, the entries of a page
+     * in each block are written as a single column of a MatrixBlockWritable instead, 
+     * which keeps the out-degree of the page once rather than a probability per entry.
+     * When "map.outlinks.write" is set, the out-degree of every page with at least one 
+     * link is also written to the "outlinks" named output so that later jobs can tell 
+     * which pages are dangling.
      * @author Michael Richardson
      *
      */
     public static class TransitionMatrixReducer extends
-            Reducer<LongWritable, LongWritable, BlockEntryKey, MatrixEntryWritable> {
+            IterationReport.AllocationCountingReducer<LongWritable, LongWritable, BlockEntryKey, Writable> {
         
-        private int numDivs = 0;
-        private int numPages = 0;
-        private int numPagesPerDiv = 0;
-        private int numDivsWithOneExtraPage = 0;
+        private BlockLayout layout;
+        private boolean writeColumns = false;
+        private MultipleOutputs<BlockEntryKey, Writable> multipleOutputs;
+        private long[] destPages = new long[1024];
+        private int[] rows = new int[1024];
+        private IntWritable outDegree = new IntWritable();
+        private BlockEntryKey entryKey = new BlockEntryKey();
+        private MatrixEntryWritable entry = new MatrixEntryWritable();
+        private MatrixBlockWritable column = new MatrixBlockWritable();
 
         @Override
         public void setup(Context context) {
-            this.numDivs = context.getConfiguration().getInt(
-                    "map.divs.num", 2);
-            this.numPages = context.getConfiguration().getInt(
-                    "map.pages.num", 1000000);
-            this.numPagesPerDiv = this.numPages / this.numDivs;
-            this.numDivsWithOneExtraPage = this.numPages % this.numDivs;
+            this.layout = BlockLayout.fromConfiguration(context.getConfiguration());
+            this.writeColumns = context.getConfiguration().getBoolean("map.matrix.partitioned", false);
+            if (context.getConfiguration().getBoolean("map.outlinks.write", false)) {
+                multipleOutputs = new MultipleOutputs<BlockEntryKey, Writable>(context);
+            }
+        }
+        
+        @Override
+        public void cleanup(Context context) throws IOException, InterruptedException {
+            if (multipleOutputs != null) {
+                multipleOutputs.close();
+            }
         }
         
-        // Most of the logic in this method accounts for unequal block sizes
-        // that are necessary when the number of blocks doesn't divide 
-        // evenly into the number of pages.
         public void reduce(LongWritable key, Iterable<LongWritable> values, Context context)
                 throws IOException, InterruptedException {
             long srcPage = key.get();
-            ArrayList<Long> destPageList = new ArrayList<Long>();
+            int numDestPages = 0;
             for (LongWritable value : values) {
-                destPageList.add(value.get());
+                if (numDestPages == destPages.length) {
+                    destPages = Arrays.copyOf(destPages, 2 * numDestPages);
+                }
+                destPages[numDestPages++] = value.get();
+            }
+            if (multipleOutputs != null) {
+                outDegree.set(numDestPages);
+                multipleOutputs.write(OUTLINKS_OUTPUT, key, outDegree, OUTLINKS_OUTPUT + "/part");
             }
             
-            for (Long destPage : destPageList) {
-                int blockRow = 0, blockCol = 0, entryRow = 0, entryCol = 0;
-                if (destPage < this.numDivsWithOneExtraPage * (numPagesPerDiv + 1)) {
-                    blockRow = (int) (destPage / (numPagesPerDiv + 1));
-                    entryRow = (int) (destPage % (numPagesPerDiv + 1));
-                }
-                else {
-                    blockRow = (int) ((destPage  - this.numDivsWithOneExtraPage) / numPagesPerDiv);
-                    entryRow = (int) ((destPage - this.numDivsWithOneExtraPage) % numPagesPerDiv);
-                }
-                if (srcPage < this.numDivsWithOneExtraPage * (numPagesPerDiv + 1)) {
-                    blockCol = (int) (srcPage / (numPagesPerDiv + 1));
-                    entryCol = (int) (srcPage % (numPagesPerDiv + 1));
+            int blockCol = layout.blockOf(srcPage);
+            int entryCol = (int) (srcPage - layout.blockOffset(blockCol));
+            if (writeColumns) {
+                writeColumns(blockCol, entryCol, numDestPages, context);
+                return;
+            }
+            double transitionProbability = 1.0 / numDestPages;
+            for (int i = 0; i < numDestPages; i++) {
+                int blockRow = layout.blockOf(destPages[i]);
+                int entryRow = (int) (destPages[i] - layout.blockOffset(blockRow));
+                entryKey.set(blockRow, blockCol, BlockEntryKey.MATRIX_SOURCE);
+                entry.set(entryRow, entryCol, transitionProbability);
+                context.write(entryKey, entry);
+            }
+        }
+        
+        // the blocks hold consecutive pages, so the sorted links of a page fall into
+        // one run for every block row they reach
+        private void writeColumns(int blockCol, int entryCol, int numDestPages, Context context) 
+                throws IOException, InterruptedException {
+            Arrays.sort(destPages, 0, numDestPages);
+            if (rows.length < numDestPages) {
+                rows = new int[destPages.length];
+            }
+            int start = 0;
+            while (start < numDestPages) {
+                int blockRow = layout.blockOf(destPages[start]);
+                long blockOffset = layout.blockOffset(blockRow);
+                long blockEnd = blockOffset + layout.blockLength(blockRow);
+                int numRows = 0;
+                while (start + numRows < numDestPages && destPages[start + numRows] < blockEnd) {
+                    rows[numRows] = (int) (destPages[start + numRows] - blockOffset);
+                    numRows++;
                 }
-                else {
-                    blockCol = (int) ((srcPage - this.numDivsWithOneExtraPage) / numPagesPerDiv);
-                    entryCol = (int) ((srcPage - this.numDivsWithOneExtraPage) % numPagesPerDiv);
+                entryKey.set(blockRow, blockCol, BlockEntryKey.MATRIX_SOURCE);
+                column.setColumn(entryCol, numDestPages, rows, numRows);
+                context.write(entryKey, column);
+                start += numRows;
+            }
+        }
+    }
+
+    public static enum MatrixBlockCounter { BLOCKS, DIAGONAL_ENTRIES }
+
+    /**
+     * This reducer gathers the columns written by TransitionMatrixReducer for each matrix
+     * block into a single compressed sparse column record. The columns can also come from
+     * blocks gathered before, which lets an incremental run add the columns of the pages
+     * it changed. Blocks with more than "map.matrix.block.entries.max" entries are split 
+     * over several records with the same key. The blocks with entries and the entries in
+     * diagonal blocks are counted, so the driver can show how the entries are spread over
+     * the blocks.
+     * @author Michael Richardson
+     *
+     */
+    public static class MatrixBlockReducer extends
+            Reducer<BlockEntryKey, MatrixBlockWritable, BlockEntryKey, MatrixBlockWritable> {
+        
+        private int maxEntries = 0;
+        private long[] entries = new long[1024];
+        private int[] outDegreeByColumn;
+        private MatrixBlockWritable block = new MatrixBlockWritable();
+
+        @Override
+        public void setup(Context context) {
+            this.maxEntries = context.getConfiguration().getInt(
+                    "map.matrix.block.entries.max", 1 << 22);
+            outDegreeByColumn = new int[BlockLayout.fromConfiguration(context.getConfiguration()).maxBlockLength()];
+        }
+        
+        public void reduce(BlockEntryKey key, Iterable<MatrixBlockWritable> values, Context context)
+                throws IOException, InterruptedException {
+            int numEntries = 0;
+            long blockEntries = 0;
+            for (MatrixBlockWritable value : values) {
+                for (int k = 0; k < value.numColumns; k++) {
+                    int col = value.columns[k];
+                    outDegreeByColumn[col] = value.outDegrees[k];
+                    for (int i = value.columnOffsets[k]; i < value.columnOffsets[k + 1]; i++) {
+                        blockEntries++;
+                        if (numEntries == maxEntries) {
+                            writeBlock(key, numEntries, context);
+                            numEntries = 0;
+                        }
+                        else if (numEntries == entries.length) {
+                            entries = Arrays.copyOf(entries, Math.min(maxEntries, 2 * numEntries));
+                        }
+                        entries[numEntries++] = ((long) col << 32) | value.rows[i];
+                    }
                 }
-                double transitionProbability = 1.0 / destPageList.size();
-                context.write(new BlockEntryKey(blockRow, blockCol, BlockEntryKey.MATRIX_SOURCE),
-                              new MatrixEntryWritable(entryRow, entryCol, transitionProbability));
             }
+            if (numEntries > 0) {
+                writeBlock(key, numEntries, context);
+            }
+            context.getCounter(MatrixBlockCounter.BLOCKS).increment(1);
+            if (key.row.get() == key.col.get()) {
+                context.getCounter(MatrixBlockCounter.DIAGONAL_ENTRIES).increment(blockEntries);
+            }
+        }
+        
+        private void writeBlock(BlockEntryKey key, int numEntries, Context context) 
+                throws IOException, InterruptedException {
+            Arrays.sort(entries, 0, numEntries);
+            block.set(entries, numEntries, outDegreeByColumn);
+            context.write(key, block);
+        }
+    }
+
+    /**
+     * Writes the transition matrix of a renumbered graph as block entries or, with
+     * "map.matrix.partitioned", as the single columns of its blocks that the partitioning
+     * job gathers. With writeOutLinks the out-degrees of the pages are written to the
+     * OUTLINKS_OUTPUT named output too. Returns false if the job fails.
+     */
+    public static boolean createTransitionMatrix(Configuration conf, IterationReport report, Path graphPath, 
+            Path matrixPath, boolean writeOutLinks) throws Exception {
+        Job jobTransitionMatrixCreation = Job.getInstance(conf);
+        jobTransitionMatrixCreation.setJarByClass(TransitionMatrixCreator.class);
+        jobTransitionMatrixCreation.setInputFormatClass(EdgeListInputFormat.class);
+        jobTransitionMatrixCreation.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+        jobTransitionMatrixCreation.setMapOutputKeyClass(LongWritable.class);
+        jobTransitionMatrixCreation.setMapOutputValueClass(LongWritable.class);
+
+        jobTransitionMatrixCreation.setOutputKeyClass(BlockEntryKey.class);
+        if (conf.getBoolean("map.matrix.partitioned", false)) {
+            jobTransitionMatrixCreation.setOutputValueClass(MatrixBlockWritable.class);
+        }
+        else {
+            jobTransitionMatrixCreation.setOutputValueClass(MatrixEntryWritable.class);
+        }
+
+        jobTransitionMatrixCreation.setMapperClass(BlockCalculationMapper.class);
+        jobTransitionMatrixCreation.setReducerClass(TransitionMatrixReducer.class);
+
+        FileInputFormat.setInputPaths(jobTransitionMatrixCreation, graphPath);
+        FileOutputFormat.setOutputPath(jobTransitionMatrixCreation, matrixPath);
+        if (writeOutLinks) {
+            MultipleOutputs.addNamedOutput(jobTransitionMatrixCreation, OUTLINKS_OUTPUT,
+                    SequenceFileOutputFormat.class, LongWritable.class, IntWritable.class);
+        }
+
+        if (!IterationReport.runJob(report, jobTransitionMatrixCreation, 0, "matrix"))
+            return false;
+        
+        // every map task reads its split on a single core
+        Counters counters = jobTransitionMatrixCreation.getCounters();
+        long numEdges = counters.findCounter(EdgeListInputFormat.EdgeCounter.EDGES).getValue();
+        long readNanos = counters.findCounter(EdgeListInputFormat.EdgeCounter.READ_NANOS).getValue();
+        if (readNanos > 0) {
+            System.out.println("Links read: " + numEdges + " at " + (long) (numEdges * 1e9 / readNanos) 
+                    + " links per second per core");
         }
+        return true;
     }
 
-}
\ No newline at end of file
+}
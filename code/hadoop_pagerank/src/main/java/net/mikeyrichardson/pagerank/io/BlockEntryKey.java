@@ -2,11 +2,19 @@ package net.mikeyrichardson.pagerank.io;
 
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
+/**
+ * The key used to send matrix and vector entries to the reducer that handles their 
+ * block. The block row and column are written as fixed width ints followed by a single
+ * byte for the source, so keys can be compared without being deserialized.
+ * @author Michael Richardson
+ *
+ */
 public class BlockEntryKey implements WritableComparable<BlockEntryKey> {
     
     public IntWritable row = new IntWritable();
@@ -19,6 +27,10 @@ public class BlockEntryKey implements WritableComparable<BlockEntryKey> {
     }
     
     public BlockEntryKey(int blockRow, int blockCol, int src) {
+        set(blockRow, blockCol, src);
+    }
+
+    public void set(int blockRow, int blockCol, int src) {
         this.row.set(blockRow);
         this.col.set(blockCol);
         this.source.set(src);
@@ -27,13 +39,13 @@ public class BlockEntryKey implements WritableComparable<BlockEntryKey> {
     public void write(DataOutput out) throws IOException {
         this.row.write(out);
         this.col.write(out);
-        this.source.write(out);
+        out.writeByte(this.source.get());
     }
     
     public void readFields(DataInput in) throws IOException {
         this.row.readFields(in);
         this.col.readFields(in);
-        this.source.readFields(in);
+        this.source.set(in.readByte());
     }
     
     public int compareTo(BlockEntryKey second) {
@@ -65,5 +77,32 @@ public class BlockEntryKey implements WritableComparable<BlockEntryKey> {
     public int hashCode() {
         return this.row.hashCode() + this.col.hashCode() + this.source.hashCode();
     }
+    
+    /** A comparator that orders serialized keys by row, column and source. */
+    public static class Comparator extends WritableComparator {
+        
+        public Comparator() {
+            super(BlockEntryKey.class);
+        }
+        
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            int row1 = readInt(b1, s1);
+            int row2 = readInt(b2, s2);
+            if (row1 != row2) {
+                return row1 < row2 ? -1 : 1;
+            }
+            int col1 = readInt(b1, s1 + 4);
+            int col2 = readInt(b2, s2 + 4);
+            if (col1 != col2) {
+                return col1 < col2 ? -1 : 1;
+            }
+            return b1[s1 + 8] - b2[s2 + 8];
+        }
+    }
+    
+    static {
+        WritableComparator.define(BlockEntryKey.class, new Comparator());
+    }
 }
 
@@ -0,0 +1,94 @@
+package net.mikeyrichardson.pagerank.io;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A record of the jobs that renumber an edge delta against the dictionary. The source
+ * tells whether it holds the ID of the page in the key, a link of the delta or only a
+ * marker that the page in the key is the destination of a link. A page already in the
+ * dictionary keeps its ID; a new page gets a provisional ID from the reducer that
+ * first sees it, which is turned into the next free ID once the number of new pages
+ * in every partition is known. In the first job a link is keyed by its source page
+ * and carries the original ID of its destination; in the second it is keyed by its
+ * destination and carries the ID of its source.
+ * @author Michael Richardson
+ *
+ */
+public class DeltaIdWritable implements Writable {
+
+    final public static int PAGE_SOURCE = 0;
+    final public static int LINK_SOURCE = 1;
+    final public static int MARKER_SOURCE = 2;
+
+    public int source = PAGE_SOURCE;
+    public boolean removed = false;
+    // -1 while the page only has a provisional ID
+    public long page = -1;
+    public int partition = 0;
+    public int index = 0;
+    public Text origKey = new Text();
+
+    public DeltaIdWritable() {
+    }
+
+    public void setPage(long page) {
+        this.page = page;
+    }
+
+    public void setProvisional(int partition, int index) {
+        this.page = -1;
+        this.partition = partition;
+        this.index = index;
+    }
+
+    // copies the ID, known or provisional, of another record
+    public void setId(DeltaIdWritable other) {
+        this.page = other.page;
+        this.partition = other.partition;
+        this.index = other.index;
+    }
+
+    public boolean isNew() {
+        return page < 0;
+    }
+
+    /**
+     * The final ID of the page, where new pages are numbered after the numOldPages
+     * pages of the dictionary using the offsets of the partitions.
+     */
+    public long resolve(long numOldPages, long[] offsets) {
+        return page >= 0 ? page : numOldPages + offsets[partition] + index;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(source);
+        out.writeBoolean(removed);
+        WritableUtils.writeVLong(out, page);
+        if (page < 0) {
+            WritableUtils.writeVInt(out, partition);
+            WritableUtils.writeVInt(out, index);
+        }
+        if (source == LINK_SOURCE) {
+            origKey.write(out);
+        }
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        source = in.readByte();
+        removed = in.readBoolean();
+        page = WritableUtils.readVLong(in);
+        if (page < 0) {
+            partition = WritableUtils.readVInt(in);
+            index = WritableUtils.readVInt(in);
+        }
+        if (source == LINK_SOURCE) {
+            origKey.readFields(in);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package net.mikeyrichardson.pagerank.io;
+
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Either the original ID of a page, read from the dictionary, or its final rank, 
+ * read from the vector, on their way to the reducer that joins the two. The ranks of
+ * a page in a batch of personalized vectors are joined the same way. The source
+ * tells which one it is, and only that one is written.
+ * @author Michael Richardson
+ *
+ */
+public class DictionaryJoinWritable implements Writable {
+    
+    public int source = DICTIONARY_SOURCE;
+    public Text origKey = new Text();
+    public DoubleWritable rank = new DoubleWritable();
+    public RankVectorWritable ranks = new RankVectorWritable();
+    final public static int DICTIONARY_SOURCE = 0;
+    final public static int RANK_SOURCE = 1;
+    final public static int RANK_VECTOR_SOURCE = 2;
+    
+    public DictionaryJoinWritable() {
+    }
+    
+    public DictionaryJoinWritable(Text origKey) {
+        this.source = DICTIONARY_SOURCE;
+        this.origKey.set(origKey);
+    }
+    
+    public DictionaryJoinWritable(double rank) {
+        this.source = RANK_SOURCE;
+        this.rank.set(rank);
+    }
+    
+    public void write(DataOutput out) throws IOException {
+        out.writeByte(source);
+        if (source == DICTIONARY_SOURCE) {
+            origKey.write(out);
+        }
+        else if (source == RANK_VECTOR_SOURCE) {
+            ranks.write(out);
+        }
+        else {
+            rank.write(out);
+        }
+    }
+    
+    public void readFields(DataInput in) throws IOException {
+        source = in.readByte();
+        if (source == DICTIONARY_SOURCE) {
+            origKey.readFields(in);
+        }
+        else if (source == RANK_VECTOR_SOURCE) {
+            ranks.readFields(in);
+        }
+        else {
+            rank.readFields(in);
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package net.mikeyrichardson.pagerank.io;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the links of a whole renumbered graph outside of a job, one file after
+ * another, with the record readers of EdgeListInputFormat. The graph is a single file
+ * or a directory of them, and each file can be text or binary and compressed, just
+ * like the input of the jobs.
+ * @author Michael Richardson
+ *
+ */
+public class EdgeFileReader {
+
+    private FileSystem fs;
+    private TaskAttemptContext context;
+    private EdgeListInputFormat format = new EdgeListInputFormat();
+    private List<Path> files;
+    private int nextFile = 0;
+    private RecordReader<LongWritable, LongWritable> reader;
+
+    public EdgeFileReader(FileSystem fs, Configuration conf, Path graphPath) throws IOException {
+        this.fs = fs;
+        this.context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+        this.files = graphFiles(fs, graphPath);
+    }
+
+    // the graph file itself, or the files of a graph directory without the hidden ones
+    public static List<Path> graphFiles(FileSystem fs, Path graphPath) throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        if (fs.isFile(graphPath)) {
+            files.add(graphPath);
+            return files;
+        }
+        for (FileStatus status : fs.listStatus(graphPath)) {
+            String name = status.getPath().getName();
+            if (status.isFile() && !name.startsWith("_") && !name.startsWith(".")) {
+                files.add(status.getPath());
+            }
+        }
+        return files;
+    }
+
+    // sets the source and destination of the next link and returns false after the last one
+    public boolean next(long[] link) throws IOException {
+        try {
+            while (true) {
+                if (reader != null) {
+                    if (reader.nextKeyValue()) {
+                        link[0] = reader.getCurrentKey().get();
+                        link[1] = reader.getCurrentValue().get();
+                        return true;
+                    }
+                    reader.close();
+                    reader = null;
+                }
+                if (nextFile == files.size()) {
+                    return false;
+                }
+                Path file = files.get(nextFile++);
+                FileSplit split = new FileSplit(file, 0, fs.getFileStatus(file).getLen(), null);
+                reader = format.createRecordReader(split, context);
+                reader.initialize(split, context);
+            }
+        }
+        catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while reading " + files.get(nextFile - 1));
+        }
+    }
+
+    public void close() throws IOException {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+    }
+}
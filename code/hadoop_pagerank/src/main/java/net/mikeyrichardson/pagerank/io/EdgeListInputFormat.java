@@ -0,0 +1,382 @@
+package net.mikeyrichardson.pagerank.io;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.Seekable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.compress.CodecPool;
+import org.apache.hadoop.io.compress.CompressionCodec;
+import org.apache.hadoop.io.compress.CompressionCodecFactory;
+import org.apache.hadoop.io.compress.Decompressor;
+import org.apache.hadoop.io.compress.SplitCompressionInputStream;
+import org.apache.hadoop.io.compress.SplittableCompressionCodec;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.util.LineReader;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a renumbered graph as (source page, destination page) pairs. Text files have
+ * a link per line with the two page IDs separated by tabs or spaces, and lines that
+ * start with "#" are comments. The IDs are parsed straight from the bytes of the line,
+ * so no strings are created, and the same two keys are handed to the mapper for every
+ * link. Compressed text files can be split when their codec supports it, as with
+ * TextInputFormat. Files ending in ".edges" hold packed binary links instead: two
+ * big-endian longs per link, as written by DataOutput.writeLong. The number of links
+ * read and the time spent reading them are kept in counters, from which the driver
+ * works out the ingestion rate of each core.
+ * @author Michael Richardson
+ *
+ */
+public class EdgeListInputFormat extends FileInputFormat<LongWritable, LongWritable> {
+
+    final public static String BINARY_EXTENSION = ".edges";
+    final public static int BINARY_EDGE_LENGTH = 16;
+
+    public static enum EdgeCounter { EDGES, READ_NANOS }
+
+    @Override
+    public RecordReader<LongWritable, LongWritable> createRecordReader(InputSplit split,
+            TaskAttemptContext context) {
+        if (isBinary(((FileSplit) split).getPath())) {
+            return new BinaryEdgeRecordReader();
+        }
+        return new TextEdgeRecordReader();
+    }
+
+    @Override
+    protected boolean isSplitable(JobContext context, Path file) {
+        CompressionCodec codec = new CompressionCodecFactory(context.getConfiguration()).getCodec(file);
+        if (codec == null) {
+            return true;
+        }
+        return !isBinary(file) && codec instanceof SplittableCompressionCodec;
+    }
+
+    public static boolean isBinary(Path file) {
+        String name = file.getName();
+        int extension = name.indexOf(BINARY_EXTENSION);
+        return extension >= 0 && (extension + BINARY_EXTENSION.length() == name.length()
+                || name.charAt(extension + BINARY_EXTENSION.length()) == '.');
+    }
+
+    /**
+     * Reads the lines of a split like LineRecordReader: a split that does not start at
+     * the beginning of the file skips its first, partial line, and every split reads the
+     * line that crosses its end.
+     */
+    public static class TextEdgeRecordReader extends RecordReader<LongWritable, LongWritable> {
+
+        private long start;
+        private long pos;
+        private long end;
+        private LineReader in;
+        private Seekable filePosition;
+        private CompressionCodec codec;
+        private Decompressor decompressor;
+        private Text line = new Text();
+        private LongWritable key = new LongWritable();
+        private LongWritable value = new LongWritable();
+        private long numEdges = 0;
+        private long readNanos = 0;
+        private TaskAttemptContext context;
+
+        @Override
+        public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
+            this.context = context;
+            FileSplit split = (FileSplit) genericSplit;
+            Configuration conf = context.getConfiguration();
+            start = split.getStart();
+            end = start + split.getLength();
+            Path file = split.getPath();
+            FileSystem fs = file.getFileSystem(conf);
+            FSDataInputStream fileIn = fs.open(file);
+            codec = new CompressionCodecFactory(conf).getCodec(file);
+            if (codec != null) {
+                decompressor = CodecPool.getDecompressor(codec);
+                if (codec instanceof SplittableCompressionCodec) {
+                    SplitCompressionInputStream cIn = ((SplittableCompressionCodec) codec).createInputStream(
+                            fileIn, decompressor, start, end, SplittableCompressionCodec.READ_MODE.BYBLOCK);
+                    in = new LineReader(cIn, conf);
+                    start = cIn.getAdjustedStart();
+                    end = cIn.getAdjustedEnd();
+                    filePosition = cIn;
+                }
+                else {
+                    in = new LineReader(codec.createInputStream(fileIn, decompressor), conf);
+                    filePosition = fileIn;
+                }
+            }
+            else {
+                fileIn.seek(start);
+                in = new LineReader(fileIn, conf);
+                filePosition = fileIn;
+            }
+            if (start != 0) {
+                start += in.readLine(line, 0, maxBytesToConsume(start));
+            }
+            pos = start;
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException {
+            long startTime = System.nanoTime();
+            try {
+                while (getFilePosition() <= end) {
+                    // no limit, since the line that crosses the end of the split 
+                    // belongs to this split and the next one skips it
+                    int length = in.readLine(line, Integer.MAX_VALUE, Integer.MAX_VALUE);
+                    if (length == 0) {
+                        return false;
+                    }
+                    pos += length;
+                    if (parseEdge(line.getBytes(), line.getLength())) {
+                        numEdges++;
+                        return true;
+                    }
+                }
+                return false;
+            }
+            finally {
+                readNanos += System.nanoTime() - startTime;
+            }
+        }
+
+        // Returns false for blank and comment lines.
+        private boolean parseEdge(byte[] bytes, int length) throws IOException {
+            int i = skipBlanks(bytes, 0, length);
+            if (i == length || bytes[i] == '#') {
+                return false;
+            }
+            int srcEnd = parseId(bytes, i, length, key);
+            int destStart = skipBlanks(bytes, srcEnd, length);
+            if (destStart == srcEnd || destStart == length) {
+                throw malformed();
+            }
+            int destEnd = parseId(bytes, destStart, length, value);
+            if (skipBlanks(bytes, destEnd, length) != length) {
+                throw malformed();
+            }
+            return true;
+        }
+
+        private int parseId(byte[] bytes, int i, int length, LongWritable id) throws IOException {
+            long result = 0;
+            int first = i;
+            for (; i < length && bytes[i] >= '0' && bytes[i] <= '9'; i++) {
+                if (result > (Long.MAX_VALUE - (bytes[i] - '0')) / 10) {
+                    throw malformed();
+                }
+                result = result * 10 + (bytes[i] - '0');
+            }
+            if (i == first) {
+                throw malformed();
+            }
+            id.set(result);
+            return i;
+        }
+
+        private static int skipBlanks(byte[] bytes, int i, int length) {
+            while (i < length && (bytes[i] == '\t' || bytes[i] == ' ' || bytes[i] == '\r')) {
+                i++;
+            }
+            return i;
+        }
+
+        private IOException malformed() {
+            return new IOException("Not a link between two page IDs: \"" + line + "\"");
+        }
+
+        private int maxBytesToConsume(long pos) {
+            return codec != null ? Integer.MAX_VALUE : (int) Math.min(Integer.MAX_VALUE, end - pos);
+        }
+
+        private long getFilePosition() throws IOException {
+            return codec != null ? filePosition.getPos() : pos;
+        }
+
+        @Override
+        public LongWritable getCurrentKey() {
+            return key;
+        }
+
+        @Override
+        public LongWritable getCurrentValue() {
+            return value;
+        }
+
+        @Override
+        public float getProgress() throws IOException {
+            if (start == end) {
+                return 0.0f;
+            }
+            return Math.min(1.0f, (getFilePosition() - start) / (float) (end - start));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            }
+            finally {
+                if (decompressor != null) {
+                    CodecPool.returnDecompressor(decompressor);
+                    decompressor = null;
+                }
+                addCounters(context, numEdges, readNanos);
+                numEdges = 0;
+                readNanos = 0;
+            }
+        }
+    }
+
+    /**
+     * Reads the packed links of a split in large blocks. A split reads every link that
+     * starts inside it, so the first link is at the next multiple of 16 bytes.
+     */
+    public static class BinaryEdgeRecordReader extends RecordReader<LongWritable, LongWritable> {
+
+        private long start;
+        private long pos;
+        private long end;
+        private InputStream in;
+        private Decompressor decompressor;
+        private byte[] buffer = new byte[64 * 1024];
+        private int bufferPos = 0;
+        private int bufferLength = 0;
+        private LongWritable key = new LongWritable();
+        private LongWritable value = new LongWritable();
+        private long numEdges = 0;
+        private long readNanos = 0;
+        private TaskAttemptContext context;
+
+        @Override
+        public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
+            this.context = context;
+            FileSplit split = (FileSplit) genericSplit;
+            Configuration conf = context.getConfiguration();
+            Path file = split.getPath();
+            FSDataInputStream fileIn = file.getFileSystem(conf).open(file);
+            CompressionCodec codec = new CompressionCodecFactory(conf).getCodec(file);
+            if (codec != null) {
+                // compressed binary files are never split
+                decompressor = CodecPool.getDecompressor(codec);
+                in = codec.createInputStream(fileIn, decompressor);
+                start = 0;
+                end = Long.MAX_VALUE;
+            }
+            else {
+                start = (split.getStart() + BINARY_EDGE_LENGTH - 1) / BINARY_EDGE_LENGTH * BINARY_EDGE_LENGTH;
+                end = split.getStart() + split.getLength();
+                fileIn.seek(start);
+                in = fileIn;
+            }
+            pos = start;
+        }
+
+        @Override
+        public boolean nextKeyValue() throws IOException {
+            if (pos >= end) {
+                return false;
+            }
+            long startTime = System.nanoTime();
+            try {
+                if (bufferLength - bufferPos < BINARY_EDGE_LENGTH && !fillBuffer()) {
+                    return false;
+                }
+                key.set(readLong(buffer, bufferPos));
+                value.set(readLong(buffer, bufferPos + 8));
+                bufferPos += BINARY_EDGE_LENGTH;
+                pos += BINARY_EDGE_LENGTH;
+                numEdges++;
+                return true;
+            }
+            finally {
+                readNanos += System.nanoTime() - startTime;
+            }
+        }
+
+        // Moves the rest of a partly read link to the front of the buffer and reads
+        // until a whole link is buffered. Returns false at the end of the file.
+        private boolean fillBuffer() throws IOException {
+            int remaining = bufferLength - bufferPos;
+            System.arraycopy(buffer, bufferPos, buffer, 0, remaining);
+            bufferPos = 0;
+            bufferLength = remaining;
+            while (bufferLength < BINARY_EDGE_LENGTH) {
+                int read = in.read(buffer, bufferLength, buffer.length - bufferLength);
+                if (read < 0) {
+                    if (bufferLength > 0) {
+                        throw new IOException("Binary edge list ends in a partial link");
+                    }
+                    return false;
+                }
+                bufferLength += read;
+            }
+            return true;
+        }
+
+        private static long readLong(byte[] bytes, int offset) {
+            long result = 0;
+            for (int i = 0; i < 8; i++) {
+                result = (result << 8) | (bytes[offset + i] & 0xff);
+            }
+            return result;
+        }
+
+        @Override
+        public LongWritable getCurrentKey() {
+            return key;
+        }
+
+        @Override
+        public LongWritable getCurrentValue() {
+            return value;
+        }
+
+        @Override
+        public float getProgress() {
+            if (end == Long.MAX_VALUE || start >= end) {
+                return 0.0f;
+            }
+            return Math.min(1.0f, (pos - start) / (float) (end - start));
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (in != null) {
+                    in.close();
+                }
+            }
+            finally {
+                if (decompressor != null) {
+                    CodecPool.returnDecompressor(decompressor);
+                    decompressor = null;
+                }
+                addCounters(context, numEdges, readNanos);
+                numEdges = 0;
+                readNanos = 0;
+            }
+        }
+    }
+
+    private static void addCounters(TaskAttemptContext context, long numEdges, long readNanos) {
+        if (context != null) {
+            context.getCounter(EdgeCounter.EDGES).increment(numEdges);
+            context.getCounter(EdgeCounter.READ_NANOS).increment(readNanos);
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+package net.mikeyrichardson.pagerank.io;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A block of the transition matrix stored as compressed sparse columns. Only the
+ * columns with entries in the block are stored. Each column keeps the out-degree of
+ * its source page instead of a transition probability per entry, since every entry in
+ * a column has the same probability of 1 / out-degree. Column indices and row indices
+ * within a column are sorted and written as variable length deltas.
+ * @author Michael Richardson
+ *
+ */
+public class MatrixBlockWritable implements Writable {
+
+    public int numColumns = 0;
+    public int[] columns = new int[16];
+    public int[] outDegrees = new int[16];
+    public int[] columnOffsets = new int[17];
+    public int[] rows = new int[16];
+
+    public MatrixBlockWritable() {
+    }
+
+    /**
+     * Fills the block from entries packed as (column << 32 | row), sorted by column
+     * and then row. The out-degree of a column is looked up by its block-local index.
+     */
+    public void set(long[] sortedEntries, int numEntries, int[] outDegreeByColumn) {
+        this.numColumns = 0;
+        ensureEntryCapacity(numEntries);
+        int previousColumn = -1;
+        for (int i = 0; i < numEntries; i++) {
+            int column = (int) (sortedEntries[i] >>> 32);
+            if (column != previousColumn) {
+                ensureColumnCapacity(numColumns + 1);
+                columns[numColumns] = column;
+                outDegrees[numColumns] = outDegreeByColumn[column];
+                columnOffsets[numColumns] = i;
+                numColumns++;
+                previousColumn = column;
+            }
+            rows[i] = (int) sortedEntries[i];
+        }
+        columnOffsets[numColumns] = numEntries;
+    }
+
+    /**
+     * Fills the block with a single column, whose sorted rows are the first numRows
+     * entries of rows.
+     */
+    public void setColumn(int column, int outDegree, int[] rows, int numRows) {
+        ensureEntryCapacity(numRows);
+        this.numColumns = 1;
+        columns[0] = column;
+        outDegrees[0] = outDegree;
+        columnOffsets[0] = 0;
+        columnOffsets[1] = numRows;
+        System.arraycopy(rows, 0, this.rows, 0, numRows);
+    }
+
+    public int getNumEntries() {
+        return columnOffsets[numColumns];
+    }
+
+    private void ensureColumnCapacity(int capacity) {
+        if (columns.length < capacity) {
+            int newLength = Math.max(capacity, 2 * columns.length);
+            columns = Arrays.copyOf(columns, newLength);
+            outDegrees = Arrays.copyOf(outDegrees, newLength);
+            columnOffsets = Arrays.copyOf(columnOffsets, newLength + 1);
+        }
+    }
+
+    private void ensureEntryCapacity(int capacity) {
+        if (rows.length < capacity) {
+            rows = Arrays.copyOf(rows, Math.max(capacity, 2 * rows.length));
+        }
+    }
+
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, numColumns);
+        int previousColumn = 0;
+        for (int k = 0; k < numColumns; k++) {
+            WritableUtils.writeVInt(out, columns[k] - previousColumn);
+            WritableUtils.writeVInt(out, columnOffsets[k + 1] - columnOffsets[k]);
+            WritableUtils.writeVInt(out, outDegrees[k]);
+            previousColumn = columns[k];
+        }
+        for (int k = 0; k < numColumns; k++) {
+            int previousRow = 0;
+            for (int i = columnOffsets[k]; i < columnOffsets[k + 1]; i++) {
+                WritableUtils.writeVInt(out, rows[i] - previousRow);
+                previousRow = rows[i];
+            }
+        }
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        numColumns = WritableUtils.readVInt(in);
+        ensureColumnCapacity(numColumns);
+        int column = 0;
+        int numEntries = 0;
+        for (int k = 0; k < numColumns; k++) {
+            column += WritableUtils.readVInt(in);
+            columns[k] = column;
+            columnOffsets[k] = numEntries;
+            numEntries += WritableUtils.readVInt(in);
+            outDegrees[k] = WritableUtils.readVInt(in);
+        }
+        columnOffsets[numColumns] = numEntries;
+        ensureEntryCapacity(numEntries);
+        for (int k = 0; k < numColumns; k++) {
+            int row = 0;
+            for (int i = columnOffsets[k]; i < columnOffsets[k + 1]; i++) {
+                row += WritableUtils.readVInt(in);
+                rows[i] = row;
+            }
+        }
+    }
+}
+
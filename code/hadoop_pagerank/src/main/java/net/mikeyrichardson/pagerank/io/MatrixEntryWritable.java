@@ -3,11 +3,20 @@ package net.mikeyrichardson.pagerank.io;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
+/**
+ * A single matrix or vector entry within a block. The row and column are indices
+ * local to the block, so they are written as variable length ints, which usually 
+ * take one to three bytes instead of four.
+ * @author Michael Richardson
+ *
+ */
 public class MatrixEntryWritable implements WritableComparable<MatrixEntryWritable> {
     
     public IntWritable row = new IntWritable();
@@ -18,20 +27,24 @@ public class MatrixEntryWritable implements WritableComparable<MatrixEntryWritab
     }
     
     public MatrixEntryWritable(int row, int col, double value) {
+        set(row, col, value);
+    }
+
+    public void set(int row, int col, double value) {
         this.row.set(row);
         this.col.set(col);
         this.value.set(value);
     }
 
     public void write(DataOutput out) throws IOException {
-        this.row.write(out);
-        this.col.write(out);
+        WritableUtils.writeVInt(out, this.row.get());
+        WritableUtils.writeVInt(out, this.col.get());
         this.value.write(out);
     }
     
     public void readFields(DataInput in) throws IOException {
-        this.row.readFields(in);
-        this.col.readFields(in);
+        this.row.set(WritableUtils.readVInt(in));
+        this.col.set(WritableUtils.readVInt(in));
         this.value.readFields(in);
     }
     
@@ -59,5 +72,36 @@ public class MatrixEntryWritable implements WritableComparable<MatrixEntryWritab
     public int hashCode() {
         return this.row.hashCode() + this.col.hashCode() + this.value.hashCode();
     }
+    
+    /** A comparator that orders serialized entries by row and then column. */
+    public static class Comparator extends WritableComparator {
+        
+        public Comparator() {
+            super(MatrixEntryWritable.class);
+        }
+        
+        @Override
+        public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+            try {
+                int row1 = readVInt(b1, s1);
+                int row2 = readVInt(b2, s2);
+                if (row1 != row2) {
+                    return row1 < row2 ? -1 : 1;
+                }
+                int col1 = readVInt(b1, s1 + WritableUtils.decodeVIntSize(b1[s1]));
+                int col2 = readVInt(b2, s2 + WritableUtils.decodeVIntSize(b2[s2]));
+                if (col1 != col2) {
+                    return col1 < col2 ? -1 : 1;
+                }
+                return 0;
+            } catch (IOException e) {
+                throw new IllegalArgumentException(e);
+            }
+        }
+    }
+    
+    static {
+        WritableComparator.define(MatrixEntryWritable.class, new Comparator());
+    }
 }
 
@@ -0,0 +1,85 @@
+package net.mikeyrichardson.pagerank.io;
+
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.SequenceFileRecordReader;
+
+import java.io.IOException;
+
+/**
+ * Reads a vector written by PackedVectorOutputFormat as one (page, rank) record per
+ * page, with the same two writables handed to the mapper for every page. Files of
+ * LongWritable pages and DoubleWritable ranks are read as they are, so a run can
+ * start from a vector in either form.
+ * @author Michael Richardson
+ *
+ */
+public class PackedVectorInputFormat extends SequenceFileInputFormat<LongWritable, DoubleWritable> {
+
+    @Override
+    public RecordReader<LongWritable, DoubleWritable> createRecordReader(InputSplit split,
+            TaskAttemptContext context) {
+        return new RecordReader<LongWritable, DoubleWritable>() {
+
+            private SequenceFileRecordReader<LongWritable, Writable> reader =
+                    new SequenceFileRecordReader<LongWritable, Writable>();
+            private VectorBlockWritable block;
+            private int next = 0;
+            private LongWritable page = new LongWritable();
+            private DoubleWritable rank = new DoubleWritable();
+
+            @Override
+            public void initialize(InputSplit split, TaskAttemptContext context)
+                    throws IOException, InterruptedException {
+                reader.initialize(split, context);
+            }
+
+            @Override
+            public boolean nextKeyValue() throws IOException, InterruptedException {
+                while (block == null || next == block.length) {
+                    if (!reader.nextKeyValue()) {
+                        return false;
+                    }
+                    Writable value = reader.getCurrentValue();
+                    if (value instanceof DoubleWritable) {
+                        block = null;
+                        page.set(reader.getCurrentKey().get());
+                        rank.set(((DoubleWritable) value).get());
+                        return true;
+                    }
+                    block = (VectorBlockWritable) value;
+                    next = 0;
+                }
+                page.set(reader.getCurrentKey().get() + next);
+                rank.set(block.ranks[next++]);
+                return true;
+            }
+
+            @Override
+            public LongWritable getCurrentKey() {
+                return page;
+            }
+
+            @Override
+            public DoubleWritable getCurrentValue() {
+                return rank;
+            }
+
+            @Override
+            public float getProgress() throws IOException {
+                return reader.getProgress();
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,62 @@
+package net.mikeyrichardson.pagerank.io;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+
+import java.io.IOException;
+
+/**
+ * Writes the (page, rank) records of a vector as a SequenceFile of VectorBlockWritable
+ * records, each holding the ranks of up to "map.vector.block.pages" consecutive pages
+ * (4096 by default) keyed by the first of them. A page that does not follow the one
+ * before it starts a new record. With "map.vector.float" the ranks are stored as
+ * floats. PackedVectorInputFormat reads the files back one page at a time.
+ * @author Michael Richardson
+ *
+ */
+public class PackedVectorOutputFormat extends SequenceFileOutputFormat<LongWritable, DoubleWritable> {
+
+    @Override
+    public RecordWriter<LongWritable, DoubleWritable> getRecordWriter(TaskAttemptContext context)
+            throws IOException {
+        Configuration conf = context.getConfiguration();
+        final SequenceFile.Writer out = getSequenceWriter(context, LongWritable.class, VectorBlockWritable.class);
+        final int maxLength = conf.getInt("map.vector.block.pages", 4096);
+        final VectorBlockWritable block = new VectorBlockWritable(conf.getBoolean("map.vector.float", false));
+        final LongWritable firstPage = new LongWritable();
+
+        return new RecordWriter<LongWritable, DoubleWritable>() {
+
+            @Override
+            public void write(LongWritable page, DoubleWritable rank) throws IOException {
+                if (block.length > 0 && (page.get() != firstPage.get() + block.length
+                        || block.length == maxLength)) {
+                    flush();
+                }
+                if (block.length == 0) {
+                    firstPage.set(page.get());
+                }
+                block.add(rank.get());
+            }
+
+            private void flush() throws IOException {
+                out.append(firstPage, block);
+                block.clear(0);
+            }
+
+            @Override
+            public void close(TaskAttemptContext context) throws IOException {
+                if (block.length > 0) {
+                    flush();
+                }
+                out.close();
+            }
+        };
+    }
+
+}
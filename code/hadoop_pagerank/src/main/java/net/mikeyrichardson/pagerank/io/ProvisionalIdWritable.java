@@ -0,0 +1,54 @@
+package net.mikeyrichardson.pagerank.io;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.Writable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A page ID assigned by one of the dictionary reducers before the total number of
+ * pages handled by each reducer is known. The final consecutive ID is the number of
+ * pages handled by all earlier partitions plus the index within the partition. The
+ * source tells whether the ID belongs to the page in the key or to the source of a 
+ * link to that page.
+ * @author Michael Richardson
+ *
+ */
+public class ProvisionalIdWritable implements Writable {
+    
+    public IntWritable partition = new IntWritable();
+    public IntWritable index = new IntWritable();
+    public IntWritable source = new IntWritable();
+    final public static int DICTIONARY_SOURCE = 0;
+    final public static int EDGE_SOURCE = 1;
+    
+    public ProvisionalIdWritable() {
+    }
+    
+    public ProvisionalIdWritable(int partition, int index, int src) {
+        this.partition.set(partition);
+        this.index.set(index);
+        this.source.set(src);
+    }
+    
+    public void set(int partition, int index, int src) {
+        this.partition.set(partition);
+        this.index.set(index);
+        this.source.set(src);
+    }
+    
+    public void write(DataOutput out) throws IOException {
+        this.partition.write(out);
+        this.index.write(out);
+        out.writeByte(this.source.get());
+    }
+    
+    public void readFields(DataInput in) throws IOException {
+        this.partition.readFields(in);
+        this.index.readFields(in);
+        this.source.set(in.readByte());
+    }
+}
+
@@ -0,0 +1,77 @@
+package net.mikeyrichardson.pagerank.io;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The ranks of one page in each of a batch of personalized PageRank vectors. In the
+ * shuffle the row is the index of the page within its block, like the row of a vector
+ * entry; in the vector files the page is the key and the row is left at 0. The ranks
+ * are written as text separated by tabs, so the reassembled output has one column
+ * per vector.
+ * @author Michael Richardson
+ *
+ */
+public class RankVectorWritable implements Writable {
+    
+    public int row = 0;
+    public double[] ranks = new double[0];
+    
+    public RankVectorWritable() {
+    }
+    
+    public RankVectorWritable(int row, double[] ranks) {
+        this.row = row;
+        this.ranks = ranks;
+    }
+    
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, row);
+        WritableUtils.writeVInt(out, ranks.length);
+        for (double rank : ranks) {
+            out.writeDouble(rank);
+        }
+    }
+    
+    public void readFields(DataInput in) throws IOException {
+        row = WritableUtils.readVInt(in);
+        int length = WritableUtils.readVInt(in);
+        if (ranks.length != length) {
+            ranks = new double[length];
+        }
+        for (int k = 0; k < length; k++) {
+            ranks[k] = in.readDouble();
+        }
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof RankVectorWritable)) {
+            return false;
+        }
+        RankVectorWritable other = (RankVectorWritable) o;
+        return this.row == other.row && Arrays.equals(this.ranks, other.ranks);
+    }
+    
+    @Override
+    public int hashCode() {
+        return 31 * row + Arrays.hashCode(ranks);
+    }
+    
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int k = 0; k < ranks.length; k++) {
+            if (k > 0) {
+                builder.append('\t');
+            }
+            builder.append(ranks[k]);
+        }
+        return builder.toString();
+    }
+}
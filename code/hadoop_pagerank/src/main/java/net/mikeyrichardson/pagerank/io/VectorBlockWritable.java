@@ -0,0 +1,96 @@
+package net.mikeyrichardson.pagerank.io;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The ranks of a run of consecutive pages, so that the page IDs do not have to be
+ * written. In the vector files the key is the first page and the offset is left at 0;
+ * in the shuffle the offset is the index of the first page within its block, like the
+ * row of a vector entry. The ranks can be stored as floats, which halves their size
+ * and changes each rank by at most SINGLE_PRECISION_ERROR of its value. They are
+ * always doubles in memory.
+ * @author Michael Richardson
+ *
+ */
+public class VectorBlockWritable implements Writable {
+
+    // the unit roundoff of a float
+    final public static double SINGLE_PRECISION_ERROR = 0x1.0p-24;
+
+    public int offset = 0;
+    public int length = 0;
+    public double[] ranks = new double[16];
+    public boolean singlePrecision = false;
+
+    public VectorBlockWritable() {
+    }
+
+    public VectorBlockWritable(boolean singlePrecision) {
+        this.singlePrecision = singlePrecision;
+    }
+
+    public void clear(int offset) {
+        this.offset = offset;
+        this.length = 0;
+    }
+
+    public void add(double rank) {
+        if (length == ranks.length) {
+            ranks = Arrays.copyOf(ranks, 2 * length);
+        }
+        ranks[length++] = rank;
+    }
+
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, offset);
+        WritableUtils.writeVInt(out, length);
+        out.writeBoolean(singlePrecision);
+        if (singlePrecision) {
+            for (int i = 0; i < length; i++) {
+                out.writeFloat((float) ranks[i]);
+            }
+        }
+        else {
+            for (int i = 0; i < length; i++) {
+                out.writeDouble(ranks[i]);
+            }
+        }
+    }
+
+    public void readFields(DataInput in) throws IOException {
+        offset = WritableUtils.readVInt(in);
+        length = WritableUtils.readVInt(in);
+        singlePrecision = in.readBoolean();
+        if (ranks.length < length) {
+            ranks = new double[Math.max(length, 2 * ranks.length)];
+        }
+        if (singlePrecision) {
+            for (int i = 0; i < length; i++) {
+                ranks[i] = in.readFloat();
+            }
+        }
+        else {
+            for (int i = 0; i < length; i++) {
+                ranks[i] = in.readDouble();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                builder.append('\t');
+            }
+            builder.append(ranks[i]);
+        }
+        return builder.toString();
+    }
+}
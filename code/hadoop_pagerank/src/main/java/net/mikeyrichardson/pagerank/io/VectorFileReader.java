@@ -0,0 +1,50 @@
+package net.mikeyrichardson.pagerank.io;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import java.io.IOException;
+
+/**
+ * Reads the (page, rank) pairs of a whole vector file outside of a job, whether it
+ * holds one record per page or the packed records of PackedVectorOutputFormat.
+ * @author Michael Richardson
+ *
+ */
+public class VectorFileReader {
+
+    private SequenceFile.Reader reader;
+    private LongWritable key = new LongWritable();
+    private Writable value;
+    private int next = 0;
+
+    public VectorFileReader(Configuration conf, SequenceFile.Reader.Option file) throws IOException {
+        reader = new SequenceFile.Reader(conf, file);
+        value = (Writable) ReflectionUtils.newInstance(reader.getValueClass(), conf);
+    }
+
+    // sets the next page and its rank, and returns false at the end of the file
+    public boolean next(LongWritable page, DoubleWritable rank) throws IOException {
+        if (value instanceof DoubleWritable) {
+            return reader.next(page, rank);
+        }
+        VectorBlockWritable block = (VectorBlockWritable) value;
+        while (next == block.length) {
+            if (!reader.next(key, block)) {
+                return false;
+            }
+            next = 0;
+        }
+        page.set(key.get() + next);
+        rank.set(block.ranks[next++]);
+        return true;
+    }
+
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,170 @@
+package net.mikeyrichardson.pagerank;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Scanner;
+
+/**
+ * Kills a run in the middle of its iterations and checks that resuming it from the
+ * checkpoint in its work directory, with none of its settings given again, ends with
+ * the ranks and the state file of a run that was never stopped.
+ * @author Michael Richardson
+ *
+ */
+public class CheckpointTest {
+
+    // settings that change how the matrix is built and the run is iterated, which the
+    // resumed run only gets from the checkpoint
+    final private static String[] SETTINGS = { "map.iteration.fused=true", "map.matrix.partitioned=true",
+        "map.divs.balanced=true" };
+    final private static int KILLED_AFTER_ITERATION = 3;
+    final private static long TIMEOUT_MILLIS = 120000;
+
+    private List<File> workDirs = new ArrayList<File>();
+
+    @After
+    public void deleteWorkDirs() {
+        for (File workDir : workDirs) {
+            FileUtil.fullyDelete(workDir);
+        }
+    }
+
+    @Test
+    public void resumedRunMatchesUninterruptedRun() throws Exception {
+        List<String[]> links = PageRankRuns.smallGraph();
+        File graphFile = PageRankRuns.writeGraph(links);
+
+        File uninterruptedWorkDir = newWorkDir();
+        Configuration conf = PageRankRuns.configuration();
+        conf.set("map.work.dir", uninterruptedWorkDir.getAbsolutePath());
+        for (String setting : SETTINGS) {
+            String[] pair = setting.split("=", 2);
+            conf.set(pair[0], pair[1]);
+        }
+        Map<String, Double> uninterruptedRanks = PageRankRuns.run(conf, graphFile);
+
+        File workDir = newWorkDir();
+        killAfterIteration(graphFile, workDir, KILLED_AFTER_ITERATION);
+        assertFalse(new File(workDir, CalculatePageRank.STATE_FILE).exists());
+
+        Configuration resumeConf = PageRankRuns.runnerConfiguration();
+        resumeConf.set("map.work.dir", workDir.getAbsolutePath());
+        Map<String, Double> resumedRanks = PageRankRuns.run(resumeConf, graphFile, "--resume");
+
+        PageRankRuns.assertRanks(uninterruptedRanks, resumedRanks, 1e-12);
+        PageRankRuns.assertRanks(PageRankRuns.referenceRanks(links, PageRankRuns.TELEPORTATION_RATE),
+                resumedRanks, PageRankRuns.TOLERANCE);
+        String state = readState(uninterruptedWorkDir);
+        assertTrue("the blocks of the run were not balanced: " + state, state.endsWith("\t1"));
+        assertEquals(state, readState(workDir));
+        assertFalse(new File(workDir, Checkpoint.CHECKPOINT_FILE).exists());
+    }
+
+    @Test
+    public void resumesFromVectorMovedAfterCheckpoint() throws Exception {
+        List<String[]> links = PageRankRuns.smallGraph();
+        File graphFile = PageRankRuns.writeGraph(links);
+        File workDir = newWorkDir();
+        killAfterIteration(graphFile, workDir, KILLED_AFTER_ITERATION);
+
+        // leave the work directory as a run that failed right after moving the result
+        // of an iteration onto the vector, with a checkpoint that still names the result
+        File vectorDir = new File(workDir, "vector");
+        File resultDir = new File(workDir, "result");
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        Properties checkpoint = Checkpoint.read(fs, new Path(workDir.getAbsolutePath()));
+        if (new Path(checkpoint.getProperty("vector")).getName().equals(resultDir.getName()) 
+                && resultDir.exists()) {
+            FileUtil.fullyDelete(vectorDir);
+            assertTrue(resultDir.renameTo(vectorDir));
+        }
+        FileUtil.fullyDelete(resultDir);
+        new File(workDir, Checkpoint.CHECKPOINT_FILE + ".new").delete();
+        checkpoint.setProperty("vector", new Path(checkpoint.getProperty("vector")).getParent() + "/"
+                + resultDir.getName());
+        OutputStream out = fs.create(new Path(workDir.getAbsolutePath(), Checkpoint.CHECKPOINT_FILE), true);
+        checkpoint.store(out, null);
+        out.close();
+
+        Configuration resumeConf = PageRankRuns.runnerConfiguration();
+        resumeConf.set("map.work.dir", workDir.getAbsolutePath());
+        PageRankRuns.assertRanks(PageRankRuns.referenceRanks(links, PageRankRuns.TELEPORTATION_RATE),
+                PageRankRuns.run(resumeConf, graphFile, "--resume"), PageRankRuns.TOLERANCE);
+    }
+
+    // starts a run in its own JVM and kills it once it has checkpointed the iteration
+    private static void killAfterIteration(File graphFile, File workDir, int iteration) throws Exception {
+        File logFile = File.createTempFile("driver", ".log");
+        logFile.deleteOnExit();
+        List<String> settings = new ArrayList<String>();
+        settings.add("map.work.dir=" + workDir.getAbsolutePath());
+        for (String setting : SETTINGS) {
+            settings.add(setting);
+        }
+        Process process = PageRankRuns.start(logFile, graphFile, PageRankRuns.newPath("ranks"),
+                settings.toArray(new String[settings.size()]));
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        try {
+            while (checkpointedIteration(fs, workDir) < iteration) {
+                if (System.currentTimeMillis() > deadline) {
+                    fail("no checkpoint of iteration " + iteration + ", see " + logFile);
+                }
+                try {
+                    fail("the run ended with " + process.exitValue() + " before it was killed, see " + logFile);
+                }
+                catch (IllegalThreadStateException stillRunning) {
+                    Thread.sleep(20);
+                }
+            }
+        }
+        finally {
+            process.destroy();
+            process.waitFor();
+        }
+    }
+
+    // a checkpoint that is being written or replaced while it is read counts as none
+    private static int checkpointedIteration(FileSystem fs, File workDir) {
+        try {
+            Properties checkpoint = Checkpoint.read(fs, new Path(workDir.getAbsolutePath()));
+            return checkpoint == null ? -1 : Integer.parseInt(checkpoint.getProperty("iteration"));
+        }
+        catch (IOException e) {
+            return -1;
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String readState(File workDir) throws IOException {
+        Scanner scanner = new Scanner(new File(workDir, CalculatePageRank.STATE_FILE));
+        String state = scanner.nextLine();
+        scanner.close();
+        return state;
+    }
+
+    private File newWorkDir() throws IOException {
+        File workDir = PageRankRuns.newPath("work");
+        workDirs.add(workDir);
+        return workDir;
+    }
+}
@@ -0,0 +1,93 @@
+package net.mikeyrichardson.pagerank;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileUtil;
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Applies an edge delta to the work directory of a run and checks that the incremental
+ * run ends with the ranks of the updated graph. The delta removes a link that is
+ * listed twice, every link to and from one page, which stays in the graph without any
+ * links, and adds links to and from new pages.
+ * @author Michael Richardson
+ *
+ */
+public class IncrementalUpdateTest {
+
+    final private static String ISOLATED_PAGE = "p17";
+    final private static String[][] REMOVED_LINKS = { { "p5", "p1" } };
+    final private static String[][] ADDED_LINKS = { { "p3", "p100" }, { "p100", "p0" }, { "p101", "p100" },
+        { "p4", "p9" } };
+
+    private List<File> workDirs = new ArrayList<File>();
+
+    @After
+    public void deleteWorkDirs() {
+        for (File workDir : workDirs) {
+            FileUtil.fullyDelete(workDir);
+        }
+    }
+
+    @Test
+    public void separateJobsMatchUpdatedGraph() throws Exception {
+        assertUpdateMatchesUpdatedGraph(PageRankRuns.configuration());
+    }
+
+    @Test
+    public void partitionedMatrixMatchesUpdatedGraph() throws Exception {
+        Configuration conf = PageRankRuns.configuration();
+        conf.setBoolean("map.iteration.fused", true);
+        conf.setBoolean("map.matrix.partitioned", true);
+        assertUpdateMatchesUpdatedGraph(conf);
+    }
+
+    private void assertUpdateMatchesUpdatedGraph(Configuration conf) throws Exception {
+        File workDir = PageRankRuns.newPath("work");
+        workDirs.add(workDir);
+        conf.set("map.work.dir", workDir.getAbsolutePath());
+        List<String[]> links = PageRankRuns.smallGraph();
+        PageRankRuns.run(conf, PageRankRuns.writeGraph(links));
+
+        // a removal takes away every copy of a link
+        Set<String> pages = PageRankRuns.pages(links);
+        List<String[]> updatedLinks = new ArrayList<String[]>();
+        File deltaFile = File.createTempFile("delta", ".txt");
+        deltaFile.deleteOnExit();
+        PrintWriter writer = new PrintWriter(deltaFile);
+        for (String[] link : links) {
+            if (link[0].equals(ISOLATED_PAGE) || link[1].equals(ISOLATED_PAGE) || isRemoved(link)) {
+                writer.println("-\t" + link[0] + "\t" + link[1]);
+            }
+            else {
+                updatedLinks.add(link);
+            }
+        }
+        for (String[] link : ADDED_LINKS) {
+            writer.println("+\t" + link[0] + "\t" + link[1]);
+            updatedLinks.add(link);
+            pages.add(link[0]);
+            pages.add(link[1]);
+        }
+        writer.close();
+
+        conf.setBoolean("map.incremental", true);
+        PageRankRuns.assertRanks(PageRankRuns.referenceRanks(pages, updatedLinks,
+                PageRankRuns.TELEPORTATION_RATE), PageRankRuns.run(conf, deltaFile), PageRankRuns.TOLERANCE);
+    }
+
+    private static boolean isRemoved(String[] link) {
+        for (String[] removedLink : REMOVED_LINKS) {
+            if (removedLink[0].equals(link[0]) && removedLink[1].equals(link[1])) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
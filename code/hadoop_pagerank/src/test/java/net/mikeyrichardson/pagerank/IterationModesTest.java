@@ -0,0 +1,137 @@
+package net.mikeyrichardson.pagerank;
+
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+
+/**
+ * Runs the small graph with every way of iterating the driver has and checks that each
+ * of them converges to the ranks of the reference power iteration.
+ * @author Michael Richardson
+ *
+ */
+public class IterationModesTest {
+
+    final private static String FUSED = "map.iteration.fused=true";
+    final private static String PARTITIONED = "map.matrix.partitioned=true";
+    // single precision ranks need a residual of at least 4 * 2^-24 / t, and each of the
+    // pages then has an error of about 2^-24 times its rank on top of the residual
+    final private static String FLOAT_EPSILON = "map.epsilon.value=1e-6";
+    final private static double FLOAT_TOLERANCE = 1e-4;
+
+    private static List<String[]> links;
+    private static File graphFile;
+    private static Map<String, Double> expectedRanks;
+
+    @BeforeClass
+    public static void writeGraph() throws IOException {
+        links = PageRankRuns.smallGraph();
+        graphFile = PageRankRuns.writeGraph(links);
+        expectedRanks = PageRankRuns.referenceRanks(links, PageRankRuns.TELEPORTATION_RATE);
+    }
+
+    @Test
+    public void separateJobsConverge() throws Exception {
+        assertConverges();
+    }
+
+    @Test
+    public void partitionedMatrixConverges() throws Exception {
+        assertConverges(PARTITIONED);
+    }
+
+    @Test
+    public void fusedIterationConverges() throws Exception {
+        assertConverges(FUSED);
+    }
+
+    @Test
+    public void fusedIterationOverPartitionedMatrixConverges() throws Exception {
+        assertConverges(FUSED, PARTITIONED);
+    }
+
+    @Test
+    public void gaussSeidelConvergesInNoMoreIterations() throws Exception {
+        int jacobiIterations = countIterations(FUSED, PARTITIONED);
+        int gaussSeidelIterations = countIterations(FUSED, PARTITIONED, "map.iteration.gaussseidel=true");
+        assertTrue(gaussSeidelIterations + " Gauss-Seidel against " + jacobiIterations + " Jacobi iterations",
+                gaussSeidelIterations > 0 && gaussSeidelIterations <= jacobiIterations);
+    }
+
+    @Test
+    public void adaptiveIterationConverges() throws Exception {
+        assertConverges(FUSED, PARTITIONED, "map.iteration.adaptive=true");
+    }
+
+    @Test
+    public void extrapolationConverges() throws Exception {
+        assertConverges(FUSED, PARTITIONED, "map.extrapolation.period=6");
+    }
+
+    @Test
+    public void balancedBlocksConverge() throws Exception {
+        assertConverges(FUSED, PARTITIONED, "map.divs.balanced=true");
+    }
+
+    @Test
+    public void gridIterationConverges() throws Exception {
+        assertConverges("map.iteration.grid=true");
+    }
+
+    @Test
+    public void broadcastVectorConverges() throws Exception {
+        assertConverges(FUSED, PARTITIONED, "map.iteration.broadcast=true");
+    }
+
+    @Test
+    public void packedVectorConverges() throws Exception {
+        assertConverges(FUSED, PARTITIONED, "map.vector.packed=true");
+    }
+
+    @Test
+    public void singlePrecisionVectorConverges() throws Exception {
+        Map<String, Double> ranks = run(null, FUSED, PARTITIONED, "map.vector.packed=true",
+                "map.vector.float=true", FLOAT_EPSILON);
+        PageRankRuns.assertRanks(expectedRanks, ranks, FLOAT_TOLERANCE);
+    }
+
+    private static void assertConverges(String... settings) throws Exception {
+        PageRankRuns.assertRanks(expectedRanks, run(null, settings), PageRankRuns.TOLERANCE);
+    }
+
+    // the number of iterations a run takes to converge, from its iteration report
+    private static int countIterations(String... settings) throws Exception {
+        File reportFile = PageRankRuns.newPath("report");
+        PageRankRuns.assertRanks(expectedRanks, run(reportFile, settings), PageRankRuns.TOLERANCE);
+        int numIterations = 0;
+        Scanner scanner = new Scanner(reportFile);
+        while (scanner.hasNextLine()) {
+            if (scanner.nextLine().contains(",iteration,")) {
+                numIterations++;
+            }
+        }
+        scanner.close();
+        reportFile.delete();
+        return numIterations;
+    }
+
+    private static Map<String, Double> run(File reportFile, String... settings) throws Exception {
+        Configuration conf = PageRankRuns.configuration();
+        if (reportFile != null) {
+            conf.set("map.report.path", reportFile.getAbsolutePath());
+        }
+        for (String setting : settings) {
+            String[] pair = setting.split("=", 2);
+            conf.set(pair[0], pair[1]);
+        }
+        return PageRankRuns.run(conf, graphFile);
+    }
+}
@@ -0,0 +1,79 @@
+package net.mikeyrichardson.pagerank;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.KeyValueLineRecordReader;
+import org.apache.hadoop.mapreduce.lib.map.WrappedMapper;
+import org.apache.hadoop.mapreduce.task.MapContextImpl;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the LinkMapper of the dictionary job over lines read like KeyValueTextInputFormat
+ * reads them and checks that only the first two columns make up a link.
+ * @author Michael Richardson
+ *
+ */
+public class PageDictionaryTest {
+
+    @Test
+    public void linkMapperIgnoresColumnsAfterTheDestination() throws Exception {
+        File file = File.createTempFile("graph", ".txt");
+        file.deleteOnExit();
+        PrintWriter writer = new PrintWriter(file);
+        writer.println("# source\tdestination\tweight");
+        writer.println("a\tb\t0.5");
+        writer.println("b\tc");
+        writer.println("c\t\t7");
+        writer.close();
+
+        List<String> output = runLinkMapper(file);
+
+        assertEquals(4, output.size());
+        assertEquals("a -> b", output.get(0));
+        assertEquals("b -> ", output.get(1));
+        assertEquals("b -> c", output.get(2));
+        assertEquals("c -> ", output.get(3));
+    }
+
+    private static List<String> runLinkMapper(File file) throws IOException, InterruptedException {
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        TaskAttemptContext taskContext = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+        FileSplit split = new FileSplit(new Path(file.getAbsolutePath()), 0, file.length(), null);
+        KeyValueLineRecordReader reader = new KeyValueLineRecordReader(conf);
+        reader.initialize(split, taskContext);
+
+        final List<String> output = new ArrayList<String>();
+        RecordWriter<Text, Text> collector = new RecordWriter<Text, Text>() {
+            public void write(Text key, Text value) {
+                output.add(key + " -> " + value);
+            }
+
+            public void close(TaskAttemptContext context) {
+            }
+        };
+        MapContextImpl<Text, Text, Text, Text> mapContext = new MapContextImpl<Text, Text, Text, Text>(
+                conf, new TaskAttemptID(), reader, collector, null,
+                new TaskAttemptContextImpl.DummyReporter(), split);
+        Mapper<Text, Text, Text, Text>.Context context =
+                new WrappedMapper<Text, Text, Text, Text>().getMapContext(mapContext);
+        new PageDictionary.LinkMapper().run(context);
+        reader.close();
+        return output;
+    }
+}
@@ -0,0 +1,59 @@
+package net.mikeyrichardson.pagerank;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the small graph with each order the pages can be renumbered in and checks that
+ * the ranks, which the output gives under the original IDs, are still those of the
+ * reference power iteration.
+ * @author Michael Richardson
+ *
+ */
+public class PageOrderingTest {
+
+    private static File graphFile;
+    private static Map<String, Double> expectedRanks;
+
+    @BeforeClass
+    public static void writeGraph() throws IOException {
+        List<String[]> links = PageRankRuns.smallGraph();
+        graphFile = PageRankRuns.writeGraph(links);
+        expectedRanks = PageRankRuns.referenceRanks(links, PageRankRuns.TELEPORTATION_RATE);
+    }
+
+    @Test
+    public void degreeOrderKeepsRanks() throws Exception {
+        assertOrderKeepsRanks("degree", false);
+    }
+
+    @Test
+    public void breadthFirstOrderKeepsRanks() throws Exception {
+        assertOrderKeepsRanks("bfs", false);
+    }
+
+    @Test
+    public void communityOrderKeepsRanks() throws Exception {
+        assertOrderKeepsRanks("community", false);
+    }
+
+    @Test
+    public void orderOfLocalDictionaryKeepsRanks() throws Exception {
+        assertOrderKeepsRanks("bfs", true);
+    }
+
+    private static void assertOrderKeepsRanks(String order, boolean localDictionary) throws Exception {
+        Configuration conf = PageRankRuns.configuration();
+        conf.setBoolean("map.iteration.fused", true);
+        conf.setBoolean("map.matrix.partitioned", true);
+        conf.set("map.dictionary.order", order);
+        conf.setBoolean("map.dictionary.local", localDictionary);
+        PageRankRuns.assertRanks(expectedRanks, PageRankRuns.run(conf, graphFile), PageRankRuns.TOLERANCE);
+    }
+}
@@ -0,0 +1,45 @@
+package net.mikeyrichardson.pagerank;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs the small graph with the engines that iterate on a single machine instead of
+ * with MapReduce jobs and checks their ranks against the reference power iteration.
+ * @author Michael Richardson
+ *
+ */
+public class PageRankEnginesTest {
+
+    private static File graphFile;
+    private static Map<String, Double> expectedRanks;
+
+    @BeforeClass
+    public static void writeGraph() throws IOException {
+        List<String[]> links = PageRankRuns.smallGraph();
+        graphFile = PageRankRuns.writeGraph(links);
+        expectedRanks = PageRankRuns.referenceRanks(links, PageRankRuns.TELEPORTATION_RATE);
+    }
+
+    @Test
+    public void localEngineConverges() throws Exception {
+        assertEngineConverges("local");
+    }
+
+    @Test
+    public void memoryMappedEngineConverges() throws Exception {
+        assertEngineConverges("mmap");
+    }
+
+    private static void assertEngineConverges(String engine) throws Exception {
+        Configuration conf = PageRankRuns.configuration();
+        conf.set("pagerank.engine", engine);
+        PageRankRuns.assertRanks(expectedRanks, PageRankRuns.run(conf, graphFile), PageRankRuns.TOLERANCE);
+    }
+}
@@ -0,0 +1,252 @@
+package net.mikeyrichardson.pagerank;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ToolRunner;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Runs the driver with the local job runner on small graphs and computes the ranks
+ * they should converge to the way calculate_pagerank.py does, so that the tests of the
+ * different ways of iterating can compare their output with the same reference.
+ * @author Michael Richardson
+ *
+ */
+public class PageRankRuns {
+
+    final public static double TELEPORTATION_RATE = 0.3;
+    final public static double EPSILON = 1e-7;
+    // the residual bounds the error of the ranks by about (1 - t) / t times itself
+    final public static double TOLERANCE = 1e-5;
+
+    /**
+     * The links of a graph of 40 pages with some dangling pages, pages that are only
+     * linked to, self links and a page with a link listed twice.
+     */
+    public static List<String[]> smallGraph() {
+        List<String[]> links = new ArrayList<String[]>();
+        for (int page = 0; page < 40; page++) {
+            if (page % 9 == 8) {
+                continue;
+            }
+            for (int step : new int[] { 1, 3, 7 }) {
+                if ((page + step) % 5 != 0 || step == 1) {
+                    links.add(new String[] { "p" + page, "p" + ((page * step + 11) % 43) });
+                }
+            }
+        }
+        links.add(new String[] { "p2", "p2" });
+        links.add(new String[] { "p5", "p1" });
+        links.add(new String[] { "p5", "p1" });
+        return links;
+    }
+
+    // the local job runner with small tasks, also given to drivers started in their own JVM
+    final private static String[] RUNNER_SETTINGS = { "fs.defaultFS=file:///", "mapreduce.framework.name=local",
+        "mapreduce.task.io.sort.mb=1",
+        // the jobs of a small graph take less time than the default polling interval
+        "mapreduce.client.completion.pollinterval=20", "mapreduce.client.progressmonitor.pollinterval=20" };
+    final private static String[] TEST_SETTINGS = { "map.divs.num=3",
+        "map.teleportation.rate=" + TELEPORTATION_RATE, "map.epsilon.value=" + EPSILON };
+
+    /** A configuration for the local job runner with small tasks and test settings. */
+    public static Configuration configuration() {
+        Configuration conf = runnerConfiguration();
+        set(conf, TEST_SETTINGS);
+        return conf;
+    }
+
+    /** A configuration for the local job runner without any settings of the driver. */
+    public static Configuration runnerConfiguration() {
+        Configuration conf = new Configuration();
+        set(conf, RUNNER_SETTINGS);
+        return conf;
+    }
+
+    private static void set(Configuration conf, String[] settings) {
+        for (String setting : settings) {
+            String[] pair = setting.split("=", 2);
+            conf.set(pair[0], pair[1]);
+        }
+    }
+
+    public static File writeGraph(List<String[]> links) throws IOException {
+        File file = File.createTempFile("graph", ".txt");
+        file.deleteOnExit();
+        PrintWriter writer = new PrintWriter(file);
+        for (String[] link : links) {
+            writer.println(link[0] + "\t" + link[1]);
+        }
+        writer.close();
+        return file;
+    }
+
+    /** A new path for an output file or work directory, which does not exist yet. */
+    public static File newPath(String prefix) throws IOException {
+        File file = File.createTempFile(prefix, "");
+        file.delete();
+        file.deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Runs the driver with the given settings and returns the ranks of its output in
+     * the order of the output file.
+     */
+    public static Map<String, Double> run(Configuration conf, File graphFile, String... options)
+            throws Exception {
+        return readRanks(runToFile(conf, graphFile, options));
+    }
+
+    /** Runs the driver with the given settings and returns its output file. */
+    public static File runToFile(Configuration conf, File graphFile, String... options) throws Exception {
+        File outputFile = newPath("ranks");
+        List<String> args = new ArrayList<String>(Arrays.asList(options));
+        args.add(graphFile.getAbsolutePath());
+        args.add(outputFile.getAbsolutePath());
+        assertEquals(0, ToolRunner.run(new Configuration(conf), new CalculatePageRank(),
+                args.toArray(new String[args.size()])));
+        return outputFile;
+    }
+
+    /**
+     * Starts the driver in a JVM of its own with the settings of configuration() and the
+     * given ones, so that a test can kill it in the middle of a run. The output of the
+     * driver goes to logFile.
+     */
+    public static Process start(File logFile, File graphFile, File outputFile, String... settings)
+            throws IOException {
+        List<String> command = new ArrayList<String>();
+        command.add(new File(new File(System.getProperty("java.home"), "bin"), "java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(CalculatePageRank.class.getName());
+        for (String[] group : new String[][] { RUNNER_SETTINGS, TEST_SETTINGS, settings }) {
+            for (String setting : group) {
+                command.add("-D" + setting);
+            }
+        }
+        command.add(graphFile.getAbsolutePath());
+        command.add(outputFile.getAbsolutePath());
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(logFile);
+        return builder.start();
+    }
+
+    public static Map<String, Double> readRanks(File file) throws IOException {
+        return readRankVectors(file).get(0);
+    }
+
+    /** Reads an output with a column of ranks for every vector, in the order of the file. */
+    public static List<Map<String, Double>> readRankVectors(File file) throws IOException {
+        List<Map<String, Double>> vectors = new ArrayList<Map<String, Double>>();
+        Scanner scanner = new Scanner(file);
+        while (scanner.hasNextLine()) {
+            String[] fields = scanner.nextLine().split("\t");
+            while (vectors.size() < fields.length - 1) {
+                vectors.add(new LinkedHashMap<String, Double>());
+            }
+            for (int k = 1; k < fields.length; k++) {
+                vectors.get(k - 1).put(fields[0], Double.parseDouble(fields[k]));
+            }
+        }
+        scanner.close();
+        file.delete();
+        return vectors;
+    }
+
+    /**
+     * Power iteration on the links until the ranks stop changing, with the rank lost to
+     * teleportation and dangling pages spread evenly over all pages.
+     */
+    public static Map<String, Double> referenceRanks(List<String[]> links, double teleportationRate) {
+        return referenceRanks(pages(links), links, teleportationRate);
+    }
+
+    /**
+     * Power iteration on the links between the given pages, some of which may have no
+     * links at all, with the rank lost to teleportation and dangling pages spread evenly
+     * over all pages.
+     */
+    public static Map<String, Double> referenceRanks(Set<String> pages, List<String[]> links,
+            double teleportationRate) {
+        return referenceRanks(pages, links, teleportationRate, pages);
+    }
+
+    /**
+     * Power iteration like the one above, with the rank lost to teleportation and
+     * dangling pages spread evenly over the seed pages only.
+     */
+    public static Map<String, Double> referenceRanks(Set<String> pages, List<String[]> links,
+            double teleportationRate, Set<String> seeds) {
+        Map<String, Integer> outDegrees = new LinkedHashMap<String, Integer>();
+        for (String[] link : links) {
+            Integer outDegree = outDegrees.get(link[0]);
+            outDegrees.put(link[0], outDegree == null ? 1 : outDegree + 1);
+        }
+        int numPages = pages.size();
+        Map<String, Double> ranks = new LinkedHashMap<String, Double>();
+        for (String page : pages) {
+            ranks.put(page, 1.0 / numPages);
+        }
+        double sumDiffs = 1.0;
+        while (sumDiffs > 1e-15) {
+            Map<String, Double> newRanks = new LinkedHashMap<String, Double>();
+            for (String page : pages) {
+                newRanks.put(page, 0.0);
+            }
+            for (String[] link : links) {
+                newRanks.put(link[1], newRanks.get(link[1])
+                        + (1 - teleportationRate) * ranks.get(link[0]) / outDegrees.get(link[0]));
+            }
+            double sum = 0;
+            for (double rank : newRanks.values()) {
+                sum += rank;
+            }
+            sumDiffs = 0;
+            for (String page : pages) {
+                double rank = newRanks.get(page) + (seeds.contains(page) ? (1 - sum) / seeds.size() : 0);
+                newRanks.put(page, rank);
+                sumDiffs += Math.abs(rank - ranks.get(page));
+            }
+            ranks = newRanks;
+        }
+        return ranks;
+    }
+
+    /** The pages of a graph, which are those with a link from or to them. */
+    public static Set<String> pages(List<String[]> links) {
+        Set<String> pages = new TreeSet<String>();
+        for (String[] link : links) {
+            pages.add(link[0]);
+            pages.add(link[1]);
+        }
+        return pages;
+    }
+
+    /** Checks that the ranks are those of the reference, page by page. */
+    public static void assertRanks(Map<String, Double> expected, Map<String, Double> actual, double tolerance) {
+        assertEquals(expected.size(), actual.size());
+        double sumDiffs = 0;
+        for (Map.Entry<String, Double> page : expected.entrySet()) {
+            Double rank = actual.get(page.getKey());
+            assertNotNull("no rank for " + page.getKey(), rank);
+            sumDiffs += Math.abs(rank - page.getValue());
+        }
+        assertEquals(0.0, sumDiffs, tolerance);
+    }
+}
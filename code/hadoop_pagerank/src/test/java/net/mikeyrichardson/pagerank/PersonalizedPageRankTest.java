@@ -0,0 +1,69 @@
+package net.mikeyrichardson.pagerank;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Computes a batch of personalized vectors for the small graph, for both kinds of
+ * dictionary, and checks each of them against the reference power iteration that
+ * teleports to the seed pages of its line of the seed file.
+ * @author Michael Richardson
+ *
+ */
+public class PersonalizedPageRankTest {
+
+    // a line with two seeds, one with a single seed and a page that is not in the graph
+    final private static String[][] SEED_LINES = { { "p0", "p7" }, { "p20", "missing" } };
+
+    @Test
+    public void distributedDictionaryBatchMatchesReference() throws Exception {
+        assertBatchMatchesReference(false);
+    }
+
+    @Test
+    public void localDictionaryBatchMatchesReference() throws Exception {
+        assertBatchMatchesReference(true);
+    }
+
+    private static void assertBatchMatchesReference(boolean localDictionary) throws Exception {
+        List<String[]> links = PageRankRuns.smallGraph();
+        File seedFile = File.createTempFile("seeds", ".txt");
+        seedFile.deleteOnExit();
+        PrintWriter writer = new PrintWriter(seedFile);
+        for (String[] seedLine : SEED_LINES) {
+            StringBuilder line = new StringBuilder();
+            for (String seed : seedLine) {
+                line.append(line.length() == 0 ? "" : "\t").append(seed);
+            }
+            writer.println(line);
+        }
+        writer.close();
+
+        Configuration conf = PageRankRuns.configuration();
+        conf.setBoolean("map.iteration.fused", true);
+        conf.setBoolean("map.matrix.partitioned", true);
+        conf.setBoolean("map.dictionary.local", localDictionary);
+        conf.set("map.personalization.path", seedFile.getAbsolutePath());
+        List<Map<String, Double>> vectors = PageRankRuns.readRankVectors(
+                PageRankRuns.runToFile(conf, PageRankRuns.writeGraph(links)));
+
+        assertEquals(SEED_LINES.length, vectors.size());
+        Set<String> pages = PageRankRuns.pages(links);
+        for (int k = 0; k < SEED_LINES.length; k++) {
+            Set<String> seeds = new HashSet<String>(Arrays.asList(SEED_LINES[k]));
+            seeds.retainAll(pages);
+            PageRankRuns.assertRanks(PageRankRuns.referenceRanks(pages, links, PageRankRuns.TELEPORTATION_RATE,
+                    seeds), vectors.get(k), PageRankRuns.TOLERANCE);
+        }
+    }
+}
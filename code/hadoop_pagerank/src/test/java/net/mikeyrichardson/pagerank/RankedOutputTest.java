@@ -0,0 +1,70 @@
+package net.mikeyrichardson.pagerank;
+
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Sorts the ranks of a small graph by rank, split between several reducers and with
+ * more reducers than there are pages, and checks that the output is in decreasing
+ * rank order and holds the ranks of the reference.
+ * @author Michael Richardson
+ *
+ */
+public class RankedOutputTest {
+
+    private static List<String[]> links;
+    private static File graphFile;
+    private static Map<String, Double> referenceRanks;
+
+    @BeforeClass
+    public static void writeGraph() throws Exception {
+        links = PageRankRuns.smallGraph();
+        graphFile = PageRankRuns.writeGraph(links);
+        referenceRanks = PageRankRuns.referenceRanks(links, PageRankRuns.TELEPORTATION_RATE);
+    }
+
+    @Test
+    public void sortsBetweenSeveralReducers() throws Exception {
+        Configuration conf = sortedConfiguration();
+        conf.setInt("map.output.reducers", 3);
+        assertSorted(PageRankRuns.run(conf, graphFile));
+    }
+
+    @Test
+    public void sortsWithTheInMemoryDictionary() throws Exception {
+        Configuration conf = sortedConfiguration();
+        conf.setInt("map.output.reducers", 3);
+        conf.setBoolean("map.dictionary.local", true);
+        assertSorted(PageRankRuns.run(conf, graphFile));
+    }
+
+    @Test
+    public void sortsWithMoreReducersThanPages() throws Exception {
+        Configuration conf = sortedConfiguration();
+        conf.setInt("map.output.reducers", 2 * referenceRanks.size());
+        assertSorted(PageRankRuns.run(conf, graphFile));
+    }
+
+    private static Configuration sortedConfiguration() {
+        Configuration conf = PageRankRuns.configuration();
+        conf.setBoolean("map.iteration.fused", true);
+        conf.setBoolean("map.output.sorted", true);
+        return conf;
+    }
+
+    private static void assertSorted(Map<String, Double> ranks) {
+        PageRankRuns.assertRanks(referenceRanks, ranks, PageRankRuns.TOLERANCE);
+        double previousRank = Double.POSITIVE_INFINITY;
+        for (Map.Entry<String, Double> page : ranks.entrySet()) {
+            assertTrue(page.getKey() + " is out of order", page.getValue() <= previousRank);
+            previousRank = page.getValue();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package net.mikeyrichardson.pagerank.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Serializes random keys back to back and checks that the raw comparator orders every
+ * pair of them like compareTo does.
+ * @author Michael Richardson
+ *
+ */
+public class BlockEntryKeyTest {
+
+    private static final int NUM_KEYS = 300;
+
+    @Test
+    public void rawComparatorAgreesWithCompareTo() throws IOException {
+        Random random = new Random(42);
+        BlockEntryKey[] keys = new BlockEntryKey[NUM_KEYS];
+        int[] offsets = new int[NUM_KEYS + 1];
+        DataOutputBuffer buffer = new DataOutputBuffer();
+        // a byte in front of the first key keeps the offsets from starting at 0
+        buffer.writeByte(7);
+        for (int i = 0; i < NUM_KEYS; i++) {
+            // few different blocks, so that many keys differ only in their last field
+            keys[i] = new BlockEntryKey(randomIndex(random), randomIndex(random),
+                    random.nextBoolean() ? BlockEntryKey.VECTOR_SOURCE : BlockEntryKey.MATRIX_SOURCE);
+            offsets[i] = buffer.getLength();
+            keys[i].write(buffer);
+        }
+        offsets[NUM_KEYS] = buffer.getLength();
+
+        WritableComparator comparator = WritableComparator.get(BlockEntryKey.class);
+        // the shuffle would otherwise fall back to deserializing the keys
+        assertSame(BlockEntryKey.Comparator.class, comparator.getClass());
+        byte[] bytes = buffer.getData();
+        for (int i = 0; i < NUM_KEYS; i++) {
+            for (int j = 0; j < NUM_KEYS; j++) {
+                int raw = comparator.compare(bytes, offsets[i], offsets[i + 1] - offsets[i],
+                        bytes, offsets[j], offsets[j + 1] - offsets[j]);
+                assertEquals(keys[i] + " and " + keys[j], Integer.signum(keys[i].compareTo(keys[j])),
+                        Integer.signum(raw));
+            }
+        }
+    }
+
+    // mostly small block indices, with some that need all four bytes of the int
+    private static int randomIndex(Random random) {
+        return random.nextInt(8) == 0 ? random.nextInt(Integer.MAX_VALUE) : random.nextInt(3);
+    }
+}
@@ -0,0 +1,62 @@
+package net.mikeyrichardson.pagerank.io;
+
+import static org.junit.Assert.assertEquals;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a text graph in splits that end in the middle of a line and checks that every
+ * link is read exactly once and whole.
+ * @author Michael Richardson
+ *
+ */
+public class EdgeListInputFormatTest {
+
+    private static final int NUM_EDGES = 20000;
+
+    @Test
+    public void readsLinesThatCrossSplitBoundaries() throws IOException {
+        File file = File.createTempFile("graph", ".txt");
+        file.deleteOnExit();
+        PrintWriter writer = new PrintWriter(file);
+        for (int i = 0; i < NUM_EDGES; i++) {
+            writer.println((i * 7919L % 1000003) + "\t" + (i / 3));
+        }
+        writer.close();
+
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        TaskAttemptContext context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+        Path path = new Path(file.getAbsolutePath());
+        // 4093 bytes is not a multiple of any line length, so most splits end mid-line
+        long splitLength = 4093;
+        List<long[]> links = new ArrayList<long[]>();
+        for (long start = 0; start < file.length(); start += splitLength) {
+            FileSplit split = new FileSplit(path, start, Math.min(splitLength, file.length() - start), null);
+            EdgeListInputFormat.TextEdgeRecordReader reader = new EdgeListInputFormat.TextEdgeRecordReader();
+            reader.initialize(split, context);
+            while (reader.nextKeyValue()) {
+                links.add(new long[] { reader.getCurrentKey().get(), reader.getCurrentValue().get() });
+            }
+            reader.close();
+        }
+
+        assertEquals(NUM_EDGES, links.size());
+        for (int i = 0; i < NUM_EDGES; i++) {
+            assertEquals(i * 7919L % 1000003, links.get(i)[0]);
+            assertEquals(i / 3, links.get(i)[1]);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package net.mikeyrichardson.pagerank.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Serializes random entries back to back and checks that the raw comparator orders
+ * every pair of them like compareTo does, whatever the lengths of their variable
+ * length rows and columns.
+ * @author Michael Richardson
+ *
+ */
+public class MatrixEntryWritableTest {
+
+    private static final int NUM_ENTRIES = 300;
+
+    @Test
+    public void rawComparatorAgreesWithCompareTo() throws IOException {
+        Random random = new Random(42);
+        MatrixEntryWritable[] entries = new MatrixEntryWritable[NUM_ENTRIES];
+        int[] offsets = new int[NUM_ENTRIES + 1];
+        DataOutputBuffer buffer = new DataOutputBuffer();
+        // a byte in front of the first entry keeps the offsets from starting at 0
+        buffer.writeByte(7);
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            entries[i] = new MatrixEntryWritable(randomIndex(random), randomIndex(random), random.nextDouble());
+            offsets[i] = buffer.getLength();
+            entries[i].write(buffer);
+        }
+        offsets[NUM_ENTRIES] = buffer.getLength();
+
+        WritableComparator comparator = WritableComparator.get(MatrixEntryWritable.class);
+        // the shuffle would otherwise fall back to deserializing the keys
+        assertSame(MatrixEntryWritable.Comparator.class, comparator.getClass());
+        byte[] bytes = buffer.getData();
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            for (int j = 0; j < NUM_ENTRIES; j++) {
+                int raw = comparator.compare(bytes, offsets[i], offsets[i + 1] - offsets[i],
+                        bytes, offsets[j], offsets[j + 1] - offsets[j]);
+                assertEquals(entries[i].row + "," + entries[i].col + " and " + entries[j].row + ","
+                        + entries[j].col, Integer.signum(entries[i].compareTo(entries[j])), Integer.signum(raw));
+            }
+        }
+    }
+
+    // indices of every variable length from one to five bytes, with many repeats
+    private static int randomIndex(Random random) {
+        switch (random.nextInt(4)) {
+        case 0:
+            return random.nextInt(3);
+        case 1:
+            return 100 + random.nextInt(3);
+        case 2:
+            return 1 << random.nextInt(31);
+        default:
+            return random.nextInt(Integer.MAX_VALUE);
+        }
+    }
+}
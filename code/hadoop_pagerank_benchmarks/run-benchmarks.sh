@@ -0,0 +1,9 @@
+#!/bin/sh
+# Runs the benchmarks and keeps the JMH results of every run in results/, named by the
+# time of the run and the commit that was measured, so that a regression shows up as
+# a change between two files. Arguments are passed on to JMH, e.g. a benchmark name
+# pattern or -p numDivs=8.
+cd "$(dirname "$0")"
+mkdir -p results
+commit=$(git rev-parse --short HEAD 2>/dev/null || echo unknown)
+java -jar target/benchmarks.jar -rf json -rff "results/$(date +%Y%m%d-%H%M%S)-$commit.json" "$@"
@@ -0,0 +1,28 @@
+#!/bin/sh
+# Checks the ranks of the Hadoop version against calculate_pagerank.py on a small R-MAT
+# graph and then runs the whole pipeline on larger R-MAT graphs with several numbers of
+# divs, all on the local job runner. The results go to results/scaling-<time>-<commit>/.
+# Usage: scaling-benchmark.sh [scales] [divs] [links per page] [-D options...]
+cd "$(dirname "$0")"
+scales=${1:-12,14,16}
+divs=${2:-1,2,4,8}
+edge_factor=${3:-8}
+[ $# -gt 3 ] && shift 3 || shift $#
+commit=$(git rev-parse --short HEAD 2>/dev/null || echo unknown)
+out="results/scaling-$(date +%Y%m%d-%H%M%S)-$commit"
+mkdir -p "$out"
+jar=target/benchmarks.jar
+
+java -cp $jar net.mikeyrichardson.pagerank.benchmarks.RmatGraphGenerator "$out/check.txt" 10 8 7 || exit 1
+java -cp $jar net.mikeyrichardson.pagerank.CalculatePageRank -Dfs.defaultFS=file:/// \
+    -Dmapreduce.framework.name=local -Dmap.divs.num=3 -Dmap.teleportation.rate=0.15 \
+    -Dmap.epsilon.value=1e-10 "$@" "$out/check.txt" "$out/check-hadoop.txt" || exit 1
+if python3 ../calculate_pagerank.py -t 0.15 -e 1e-10 "$out/check.txt" "$out/check-python.txt"; then
+    java -cp $jar net.mikeyrichardson.pagerank.benchmarks.RankComparison \
+        "$out/check-python.txt" "$out/check-hadoop.txt" 1e-6 || exit 1
+else
+    echo "calculate_pagerank.py could not be run (it needs numpy, scipy and pandas), skipping the rank check"
+fi
+
+java -cp $jar net.mikeyrichardson.pagerank.benchmarks.ScalingBenchmark "$out" "$scales" "$divs" \
+    "$edge_factor" "$@"
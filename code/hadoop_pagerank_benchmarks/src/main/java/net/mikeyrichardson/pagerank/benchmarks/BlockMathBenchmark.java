@@ -0,0 +1,101 @@
+package net.mikeyrichardson.pagerank.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.mikeyrichardson.pagerank.BlockLayout;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Maps random pages to their block and position in the block, as VectorMapper and
+ * TransitionMatrixReducer do for every vector entry and link. BlockLayout is measured
+ * with equal and with in-degree balanced boundaries, against the division arithmetic
+ * the mapper and reducer used before the boundaries could be unequal.
+ * @author Michael Richardson
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockMathBenchmark {
+
+    @Param({"16"})
+    public int numDivs;
+
+    @Param({"1000000"})
+    public int numPages;
+
+    private long[] pages = new long[100000];
+    private BlockLayout equalLayout;
+    private BlockLayout balancedLayout;
+
+    @Setup(Level.Trial)
+    public void createLayouts() {
+        Random random = new Random(42);
+        for (int i = 0; i < pages.length; i++) {
+            pages[i] = random.nextInt(numPages);
+        }
+        equalLayout = BlockLayout.equalPages(numPages, numDivs);
+        // in-degrees that fall off with the page number like a renumbered web graph
+        long bucketSize = 64;
+        long[] histogram = new long[(int) ((numPages + bucketSize - 1) / bucketSize)];
+        for (int bucket = 0; bucket < histogram.length; bucket++) {
+            histogram[bucket] = (long) (bucketSize * 1000.0 / (bucket + 1));
+        }
+        balancedLayout = BlockLayout.balanced(histogram, bucketSize, numPages, numDivs);
+    }
+
+    @Benchmark
+    public long equalLayout() {
+        return blockCoordinates(equalLayout);
+    }
+
+    @Benchmark
+    public long balancedLayout() {
+        return blockCoordinates(balancedLayout);
+    }
+
+    private long blockCoordinates(BlockLayout layout) {
+        long sum = 0;
+        for (long page : pages) {
+            int block = layout.blockOf(page);
+            sum += block + (page - layout.blockOffset(block));
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long divisionArithmetic() {
+        int numPagesPerDiv = numPages / numDivs;
+        int numDivsWithOneExtraPage = numPages % numDivs;
+        long sum = 0;
+        for (long page : pages) {
+            int block, i;
+            if (page < numDivsWithOneExtraPage * (numPagesPerDiv + 1)) {
+                block = (int) (page / (numPagesPerDiv + 1));
+                i = (int) (page % (numPagesPerDiv + 1));
+            }
+            else {
+                block = (int) ((page - numDivsWithOneExtraPage) / numPagesPerDiv);
+                i = (int) ((page - numDivsWithOneExtraPage) % numPagesPerDiv);
+            }
+            sum += block + i;
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,259 @@
+package net.mikeyrichardson.pagerank.benchmarks;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.RawKeyValueIterator;
+import org.apache.hadoop.mapreduce.Counter;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.RecordWriter;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.StatusReporter;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.TaskType;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+import org.apache.hadoop.mapreduce.lib.reduce.WrappedReducer;
+import org.apache.hadoop.mapreduce.task.ReduceContextImpl;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.apache.hadoop.util.Progress;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.mikeyrichardson.pagerank.BlockLayout;
+import net.mikeyrichardson.pagerank.MultiplyMatrixAndVector.BlockMultiplicationReducer;
+import net.mikeyrichardson.pagerank.io.BlockEntryKey;
+import net.mikeyrichardson.pagerank.io.MatrixBlockWritable;
+import net.mikeyrichardson.pagerank.io.MatrixEntryWritable;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the multiplication reducer for the first block row over a synthetic, already
+ * sorted shuffle, through the same reduce context the framework uses, so that the
+ * reduce loop, the deserialization of the values and writeResultBlock are all
+ * measured. The matrix entries of the block row are spread uniformly over its columns
+ * and each column block is preceded by its vector entries, as VectorMapper sends them.
+ * The compressed sparse column kernel used with a partitioned matrix is measured on the
+ * same entries.
+ * @author Michael Richardson
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockMultiplicationBenchmark {
+
+    @Param({"4"})
+    public int numDivs;
+
+    @Param({"40000"})
+    public int numPages;
+
+    @Param({"400000"})
+    public int numEdges;
+
+    @Param({"false", "true"})
+    public boolean fused;
+
+    private Configuration conf;
+    private TaskAttemptID attemptId = new TaskAttemptID("benchmark", 0, TaskType.REDUCE, 0, 0);
+    private FileOutputCommitter committer;
+    private DataOutputBuffer shuffleKeys = new DataOutputBuffer();
+    private DataOutputBuffer shuffleValues = new DataOutputBuffer();
+    private int[] keyOffsets;
+    private int[] valueOffsets;
+    private int numRecords = 0;
+    private MatrixBlockWritable[] blocks;
+    private double[] vectorBlock;
+    private double[] resultBlock;
+
+    @Setup(Level.Trial)
+    public void createShuffle() throws IOException {
+        conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        conf.setInt("map.divs.num", numDivs);
+        conf.setInt("map.pages.num", numPages);
+        conf.setBoolean("map.iteration.fused", fused);
+        // no out-degrees, so every page counts as dangling in a fused iteration
+        File outLinks = Files.createTempDirectory("outlinks").toFile();
+        outLinks.deleteOnExit();
+        conf.set("map.outlinks.path", outLinks.getAbsolutePath());
+        File output = Files.createTempDirectory("result").toFile();
+        output.deleteOnExit();
+        committer = new FileOutputCommitter(new Path(output.getAbsolutePath()),
+                new TaskAttemptContextImpl(conf, attemptId));
+
+        BlockLayout layout = BlockLayout.fromConfiguration(conf);
+        Random random = new Random(42);
+        int numBlockEdges = numEdges / numDivs;
+        keyOffsets = new int[numPages + numBlockEdges + 1];
+        valueOffsets = new int[numPages + numBlockEdges + 1];
+        blocks = new MatrixBlockWritable[numDivs];
+        int rowLength = layout.blockLength(0);
+        for (int blockCol = 0; blockCol < numDivs; blockCol++) {
+            int colLength = layout.blockLength(blockCol);
+            for (int page = 0; page < colLength; page++) {
+                append(new BlockEntryKey(0, blockCol, BlockEntryKey.VECTOR_SOURCE),
+                        new MatrixEntryWritable(page, 0, 1.0 / numPages));
+            }
+            int numEntries = numBlockEdges / numDivs;
+            long[] packedEntries = new long[numEntries];
+            int[] outDegrees = new int[colLength];
+            for (int i = 0; i < numEntries; i++) {
+                int row = random.nextInt(rowLength);
+                int col = random.nextInt(colLength);
+                outDegrees[col] = 1 + random.nextInt(20);
+                packedEntries[i] = ((long) col << 32) | row;
+            }
+            Arrays.sort(packedEntries);
+            for (int i = 0; i < numEntries; i++) {
+                int col = (int) (packedEntries[i] >>> 32);
+                append(new BlockEntryKey(0, blockCol, BlockEntryKey.MATRIX_SOURCE),
+                        new MatrixEntryWritable((int) packedEntries[i], col, 1.0 / outDegrees[col]));
+            }
+            blocks[blockCol] = new MatrixBlockWritable();
+            blocks[blockCol].set(packedEntries, numEntries, outDegrees);
+        }
+        vectorBlock = new double[layout.maxBlockLength()];
+        resultBlock = new double[layout.maxBlockLength()];
+        Arrays.fill(vectorBlock, 1.0 / numPages);
+    }
+
+    private void append(BlockEntryKey key, MatrixEntryWritable value) throws IOException {
+        key.write(shuffleKeys);
+        value.write(shuffleValues);
+        numRecords++;
+        keyOffsets[numRecords] = shuffleKeys.getLength();
+        valueOffsets[numRecords] = shuffleValues.getLength();
+    }
+
+    @Benchmark
+    public double reduceBlockRow() throws IOException, InterruptedException {
+        Counters counters = new Counters();
+        SummingWriter writer = new SummingWriter();
+        // WritableComparator.get returns a raw comparator
+        @SuppressWarnings("unchecked")
+        RawComparator<BlockEntryKey> comparator =
+                (RawComparator<BlockEntryKey>) WritableComparator.get(BlockEntryKey.class);
+        ReduceContextImpl<BlockEntryKey, MatrixEntryWritable, LongWritable, DoubleWritable> reduceContext =
+                new ReduceContextImpl<BlockEntryKey, MatrixEntryWritable, LongWritable, DoubleWritable>(
+                        conf, attemptId, new ShuffleIterator(), counters.findCounter("input", "keys"),
+                        counters.findCounter("input", "values"), writer, committer,
+                        new CountersReporter(counters), comparator,
+                        BlockEntryKey.class, MatrixEntryWritable.class);
+        Reducer<BlockEntryKey, MatrixEntryWritable, LongWritable, DoubleWritable>.Context context =
+                new WrappedReducer<BlockEntryKey, MatrixEntryWritable, LongWritable, DoubleWritable>()
+                        .getReducerContext(reduceContext);
+        new BlockMultiplicationReducer<MatrixEntryWritable>().run(context);
+        return writer.sum;
+    }
+
+    @Benchmark
+    public double multiplyColumns() {
+        Arrays.fill(resultBlock, 0.0);
+        for (MatrixBlockWritable block : blocks) {
+            BlockMultiplicationReducer.multiplyColumns(block, vectorBlock, resultBlock);
+        }
+        return resultBlock[0];
+    }
+
+    // the serialized records in the order the merge would hand them to the reducer
+    private class ShuffleIterator implements RawKeyValueIterator {
+
+        private int record = -1;
+        private DataInputBuffer key = new DataInputBuffer();
+        private DataInputBuffer value = new DataInputBuffer();
+
+        public DataInputBuffer getKey() {
+            key.reset(shuffleKeys.getData(), keyOffsets[record], keyOffsets[record + 1] - keyOffsets[record]);
+            return key;
+        }
+
+        public DataInputBuffer getValue() {
+            value.reset(shuffleValues.getData(), valueOffsets[record],
+                    valueOffsets[record + 1] - valueOffsets[record]);
+            return value;
+        }
+
+        public boolean next() {
+            return ++record < numRecords;
+        }
+
+        public void close() {
+        }
+
+        public Progress getProgress() {
+            return new Progress();
+        }
+    }
+
+    private static class SummingWriter extends RecordWriter<LongWritable, DoubleWritable> {
+
+        private double sum = 0.0;
+
+        @Override
+        public void write(LongWritable key, DoubleWritable value) {
+            sum += value.get();
+        }
+
+        @Override
+        public void close(TaskAttemptContext context) {
+        }
+    }
+
+    private static class CountersReporter extends StatusReporter {
+
+        private Counters counters;
+
+        CountersReporter(Counters counters) {
+            this.counters = counters;
+        }
+
+        @Override
+        public Counter getCounter(Enum<?> name) {
+            return counters.findCounter(name);
+        }
+
+        @Override
+        public Counter getCounter(String group, String name) {
+            return counters.findCounter(group, name);
+        }
+
+        @Override
+        public void progress() {
+        }
+
+        @Override
+        public float getProgress() {
+            return 0;
+        }
+
+        @Override
+        public void setStatus(String status) {
+        }
+    }
+}
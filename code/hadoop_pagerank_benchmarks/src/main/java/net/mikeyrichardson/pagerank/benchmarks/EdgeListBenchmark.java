@@ -0,0 +1,128 @@
+package net.mikeyrichardson.pagerank.benchmarks;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskAttemptID;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.KeyValueTextInputFormat;
+import org.apache.hadoop.mapreduce.task.TaskAttemptContextImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.mikeyrichardson.pagerank.io.EdgeListInputFormat;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads a renumbered graph of R-MAT like size from the local disk on a single thread,
+ * so the scores are links per second per core. The graph is read as text the way the
+ * matrix jobs used to read it, with KeyValueTextInputFormat and Long.parseLong, and
+ * with EdgeListInputFormat as text and as packed binary links.
+ * @author Michael Richardson
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EdgeListBenchmark {
+
+    final private static int NUM_EDGES = 1000000;
+
+    private Configuration conf;
+    private TaskAttemptContext context;
+    private FileSplit textSplit;
+    private FileSplit binarySplit;
+
+    @Setup(Level.Trial)
+    public void writeGraph() throws IOException {
+        conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        context = new TaskAttemptContextImpl(conf, new TaskAttemptID());
+        File dir = Files.createTempDirectory("edges").toFile();
+        File textFile = new File(dir, "graph.txt");
+        File binaryFile = new File(dir, "graph" + EdgeListInputFormat.BINARY_EXTENSION);
+        textFile.deleteOnExit();
+        binaryFile.deleteOnExit();
+        dir.deleteOnExit();
+        Random random = new Random(42);
+        PrintWriter text = new PrintWriter(textFile);
+        DataOutputStream binary = new DataOutputStream(new FileOutputStream(binaryFile));
+        for (int i = 0; i < NUM_EDGES; i++) {
+            long srcPage = i / 8;
+            long destPage = random.nextInt(NUM_EDGES / 8);
+            text.println(srcPage + "\t" + destPage);
+            binary.writeLong(srcPage);
+            binary.writeLong(destPage);
+        }
+        text.close();
+        binary.close();
+        textSplit = new FileSplit(new Path(textFile.getAbsolutePath()), 0, textFile.length(), null);
+        binarySplit = new FileSplit(new Path(binaryFile.getAbsolutePath()), 0, binaryFile.length(), null);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_EDGES)
+    public long keyValueText() throws IOException, InterruptedException {
+        RecordReader<Text, Text> reader = new KeyValueTextInputFormat().createRecordReader(textSplit, context);
+        reader.initialize(textSplit, context);
+        long sum = 0;
+        while (reader.nextKeyValue()) {
+            if (reader.getCurrentKey().toString().startsWith("#")) {
+                continue;
+            }
+            LongWritable srcPage = new LongWritable(Long.parseLong(reader.getCurrentKey().toString()));
+            LongWritable destPage = new LongWritable(Long.parseLong(reader.getCurrentValue().toString()));
+            sum += srcPage.get() + destPage.get();
+        }
+        reader.close();
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_EDGES)
+    public long edgeListText() throws IOException, InterruptedException {
+        return readEdges(textSplit);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NUM_EDGES)
+    public long edgeListBinary() throws IOException, InterruptedException {
+        return readEdges(binarySplit);
+    }
+
+    private long readEdges(InputSplit split) throws IOException, InterruptedException {
+        RecordReader<LongWritable, LongWritable> reader = new EdgeListInputFormat().createRecordReader(split, context);
+        reader.initialize(split, context);
+        long sum = 0;
+        while (reader.nextKeyValue()) {
+            sum += reader.getCurrentKey().get() + reader.getCurrentValue().get();
+        }
+        reader.close();
+        return sum;
+    }
+}
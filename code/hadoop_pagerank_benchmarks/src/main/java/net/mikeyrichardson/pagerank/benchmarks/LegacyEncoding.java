@@ -0,0 +1,63 @@
+package net.mikeyrichardson.pagerank.benchmarks;
+
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.WritableComparable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The original fixed width encodings of the block keys and matrix entries. These
+ * have no registered comparator, so sorting them deserializes both keys on every 
+ * comparison. They are kept here as the baseline for the shuffle benchmarks.
+ * @author Michael Richardson
+ *
+ */
+public class LegacyEncoding {
+
+    public static class LegacyBlockEntryKey implements WritableComparable<LegacyBlockEntryKey> {
+        
+        public IntWritable row = new IntWritable();
+        public IntWritable col = new IntWritable();
+        public IntWritable source = new IntWritable();
+        
+        public LegacyBlockEntryKey() {
+        }
+        
+        public LegacyBlockEntryKey(int blockRow, int blockCol, int src) {
+            this.row.set(blockRow);
+            this.col.set(blockCol);
+            this.source.set(src);
+        }
+        
+        public void write(DataOutput out) throws IOException {
+            this.row.write(out);
+            this.col.write(out);
+            this.source.write(out);
+        }
+        
+        public void readFields(DataInput in) throws IOException {
+            this.row.readFields(in);
+            this.col.readFields(in);
+            this.source.readFields(in);
+        }
+        
+        public int compareTo(LegacyBlockEntryKey second) {
+            if (this.row.get() == second.row.get()) {
+                if (this.col.get() == second.col.get()) {
+                    return this.source.compareTo(second.source);
+                }
+                return this.col.compareTo(second.col);
+            }
+            return this.row.compareTo(second.row);
+        }
+    }
+    
+    public static void writeMatrixEntry(DataOutput out, int row, int col, double value) 
+            throws IOException {
+        out.writeInt(row);
+        out.writeInt(col);
+        out.writeDouble(value);
+    }
+}
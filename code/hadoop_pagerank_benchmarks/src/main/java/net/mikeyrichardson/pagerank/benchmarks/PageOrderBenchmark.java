@@ -0,0 +1,171 @@
+package net.mikeyrichardson.pagerank.benchmarks;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.mikeyrichardson.pagerank.BlockLayout;
+import net.mikeyrichardson.pagerank.MultiplyMatrixAndVector.BlockMultiplicationReducer;
+import net.mikeyrichardson.pagerank.PageOrdering;
+import net.mikeyrichardson.pagerank.io.MatrixBlockWritable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multiplies the partitioned matrix of a web-like graph with a vector, block by block
+ * with the compressed sparse column kernel of the multiplication reducer, after its
+ * pages have been given new IDs in each order of PageOrdering. The graph has sites of
+ * 100 pages that mostly link within the site, and the pages are numbered in random
+ * order like the renumbering does with hashed page IDs. The setup prints the number
+ * of matrix blocks with entries and the share of entries in diagonal blocks.
+ * @author Michael Richardson
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PageOrderBenchmark {
+
+    final private static int SITE_PAGES = 100;
+    final private static double SITE_LINK_RATE = 0.85;
+
+    @Param({"4"})
+    public int numDivs;
+
+    @Param({"1000000"})
+    public int numPages;
+
+    @Param({"8"})
+    public int linksPerPage;
+
+    @Param({"none", "degree", "bfs", "community"})
+    public String order;
+
+    private MatrixBlockWritable[] blocks;
+    private double[] vectorBlock;
+    private double[] resultBlock;
+
+    @Setup(Level.Trial)
+    public void createMatrix() throws IOException {
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        conf.setInt("map.divs.num", numDivs);
+        conf.setInt("map.pages.num", numPages);
+        FileSystem fs = FileSystem.get(conf);
+        File dir = Files.createTempDirectory("ordering").toFile();
+        File graphFile = new File(dir, "graph.txt");
+
+        Random random = new Random(42);
+        int[] randomIds = new int[numPages];
+        for (int page = 0; page < numPages; page++) {
+            int other = random.nextInt(page + 1);
+            randomIds[page] = randomIds[other];
+            randomIds[other] = page;
+        }
+        int numLinks = numPages * linksPerPage;
+        int[] srcPages = new int[numLinks];
+        int[] destPages = new int[numLinks];
+        PrintWriter writer = new PrintWriter(graphFile);
+        for (int i = 0; i < numLinks; i++) {
+            int srcPage = i / linksPerPage;
+            int destPage = random.nextDouble() < SITE_LINK_RATE
+                    ? srcPage - srcPage % SITE_PAGES + random.nextInt(SITE_PAGES) : random.nextInt(numPages);
+            srcPages[i] = randomIds[srcPage];
+            destPages[i] = randomIds[Math.min(destPage, numPages - 1)];
+            writer.println(srcPages[i] + "\t" + destPages[i]);
+        }
+        writer.close();
+
+        int[] newIds = new int[numPages];
+        for (int page = 0; page < numPages; page++) {
+            newIds[page] = page;
+        }
+        if (!order.equals("none")) {
+            newIds = new PageOrdering(fs, conf, numPages).newIds(new Path(dir.getAbsolutePath()), order);
+        }
+        graphFile.delete();
+        dir.delete();
+
+        // the entries of every block, packed as (column << 32 | row) like MatrixBlockReducer sorts them
+        BlockLayout layout = BlockLayout.fromConfiguration(conf);
+        int[] outDegrees = new int[numPages];
+        int[] blockEntries = new int[numDivs * numDivs];
+        for (int i = 0; i < numLinks; i++) {
+            srcPages[i] = newIds[srcPages[i]];
+            destPages[i] = newIds[destPages[i]];
+            outDegrees[srcPages[i]]++;
+            blockEntries[layout.blockOf(destPages[i]) * numDivs + layout.blockOf(srcPages[i])]++;
+        }
+        long[][] entries = new long[numDivs * numDivs][];
+        for (int block = 0; block < entries.length; block++) {
+            entries[block] = new long[blockEntries[block]];
+            blockEntries[block] = 0;
+        }
+        for (int i = 0; i < numLinks; i++) {
+            int blockRow = layout.blockOf(destPages[i]);
+            int blockCol = layout.blockOf(srcPages[i]);
+            int block = blockRow * numDivs + blockCol;
+            long col = srcPages[i] - layout.blockOffset(blockCol);
+            long row = destPages[i] - layout.blockOffset(blockRow);
+            entries[block][blockEntries[block]++] = (col << 32) | row;
+        }
+
+        int numBlocks = 0;
+        int diagonalEntries = 0;
+        blocks = new MatrixBlockWritable[numDivs * numDivs];
+        int[] outDegreeByColumn = new int[layout.maxBlockLength()];
+        for (int block = 0; block < entries.length; block++) {
+            int blockCol = block % numDivs;
+            for (int col = 0; col < layout.blockLength(blockCol); col++) {
+                outDegreeByColumn[col] = outDegrees[(int) layout.blockOffset(blockCol) + col];
+            }
+            Arrays.sort(entries[block]);
+            blocks[block] = new MatrixBlockWritable();
+            blocks[block].set(entries[block], entries[block].length, outDegreeByColumn);
+            entries[block] = null;
+            numBlocks += blockEntries[block] > 0 ? 1 : 0;
+            diagonalEntries += block / numDivs == blockCol ? blockEntries[block] : 0;
+        }
+        System.out.println("\nOrder " + order + ": " + numBlocks + " of " + blocks.length
+                + " blocks have entries, " + String.format("%.1f", 100.0 * diagonalEntries / numLinks)
+                + "% of the entries are in diagonal blocks");
+        vectorBlock = new double[layout.maxBlockLength()];
+        resultBlock = new double[layout.maxBlockLength()];
+        Arrays.fill(vectorBlock, 1.0 / numPages);
+    }
+
+    @Benchmark
+    public double multiplyMatrix() {
+        double sum = 0.0;
+        for (int blockRow = 0; blockRow < numDivs; blockRow++) {
+            Arrays.fill(resultBlock, 0.0);
+            for (int blockCol = 0; blockCol < numDivs; blockCol++) {
+                BlockMultiplicationReducer.multiplyColumns(blocks[blockRow * numDivs + blockCol],
+                        vectorBlock, resultBlock);
+            }
+            sum += resultBlock[0];
+        }
+        return sum;
+    }
+}
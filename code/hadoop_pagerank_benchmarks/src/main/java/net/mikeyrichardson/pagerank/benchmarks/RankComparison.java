@@ -0,0 +1,51 @@
+package net.mikeyrichardson.pagerank.benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compares two rank files of tab separated page IDs and ranks, such as the output of
+ * CalculatePageRank and of calculate_pagerank.py for the same graph. Prints the number
+ * of pages and the L1 and largest differences between the ranks, and exits with 1 if
+ * the pages differ or the L1 difference is above the tolerance given as the third
+ * argument (1e-6 by default).
+ * @author Michael Richardson
+ *
+ */
+public class RankComparison {
+
+    public static void main(String[] args) throws IOException {
+        Map<String, Double> expected = readRanks(new File(args[0]));
+        Map<String, Double> actual = readRanks(new File(args[1]));
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) : 1e-6;
+        if (!expected.keySet().equals(actual.keySet())) {
+            System.out.println("The files have different pages: " + expected.size() + " and " + actual.size());
+            System.exit(1);
+        }
+        double l1 = 0.0;
+        double max = 0.0;
+        for (Map.Entry<String, Double> entry : expected.entrySet()) {
+            double diff = Math.abs(entry.getValue() - actual.get(entry.getKey()));
+            l1 += diff;
+            max = Math.max(max, diff);
+        }
+        System.out.println("pages: " + expected.size() + ", L1 difference: " + l1 + ", largest difference: " + max);
+        System.exit(l1 <= tolerance ? 0 : 1);
+    }
+
+    private static Map<String, Double> readRanks(File rankFile) throws IOException {
+        Map<String, Double> ranks = new HashMap<String, Double>();
+        BufferedReader reader = new BufferedReader(new FileReader(rankFile));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.split("\t");
+            ranks.put(fields[0], Double.parseDouble(fields[1]));
+        }
+        reader.close();
+        return ranks;
+    }
+}
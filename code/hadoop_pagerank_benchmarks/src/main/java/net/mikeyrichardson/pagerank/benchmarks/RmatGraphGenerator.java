@@ -0,0 +1,117 @@
+package net.mikeyrichardson.pagerank.benchmarks;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Writes a synthetic graph file with the recursive matrix (R-MAT) model of Chakrabarti
+ * et al. Each link picks one quadrant of the adjacency matrix per bit of the page
+ * numbers with probabilities a, b, c and 1 - a - b - c, which gives power-law in- and
+ * out-degrees when a is the largest. The page numbers are scrambled afterwards so
+ * that the heavy pages are not all at the start, self links and duplicate links are
+ * dropped, and the links are written in the tab separated form of the graph files.
+ * Arguments are the output file, the scale (log2 of the number of pages), the number
+ * of links per page and optionally the seed and a, b and c.
+ * @author Michael Richardson
+ *
+ */
+public class RmatGraphGenerator {
+
+    public long numPages = 0;
+    public long numEdges = 0;
+
+    private final int scale;
+    private final int edgeFactor;
+    private final double a;
+    private final double b;
+    private final double c;
+    private final long seed;
+
+    public RmatGraphGenerator(int scale, int edgeFactor, double a, double b, double c, long seed) {
+        this.scale = scale;
+        this.edgeFactor = edgeFactor;
+        this.a = a;
+        this.b = b;
+        this.c = c;
+        this.seed = seed;
+    }
+
+    public RmatGraphGenerator(int scale, int edgeFactor, long seed) {
+        this(scale, edgeFactor, 0.57, 0.19, 0.19, seed);
+    }
+
+    public void write(File graphFile) throws IOException {
+        Random random = new Random(seed);
+        int numVertices = 1 << scale;
+        int[] scrambled = new int[numVertices];
+        for (int i = 0; i < numVertices; i++) {
+            scrambled[i] = i;
+        }
+        for (int i = numVertices - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = scrambled[i];
+            scrambled[i] = scrambled[j];
+            scrambled[j] = swap;
+        }
+        long[] edges = new long[numVertices * edgeFactor];
+        for (int e = 0; e < edges.length; e++) {
+            int src = 0;
+            int dst = 0;
+            for (int bit = 0; bit < scale; bit++) {
+                double p = random.nextDouble();
+                if (p >= a) {
+                    if (p < a + b) {
+                        dst |= 1 << bit;
+                    }
+                    else if (p < a + b + c) {
+                        src |= 1 << bit;
+                    }
+                    else {
+                        src |= 1 << bit;
+                        dst |= 1 << bit;
+                    }
+                }
+            }
+            edges[e] = ((long) scrambled[src] << 32) | scrambled[dst];
+        }
+        Arrays.sort(edges);
+
+        boolean[] seen = new boolean[numVertices];
+        numPages = 0;
+        numEdges = 0;
+        BufferedWriter writer = new BufferedWriter(new FileWriter(graphFile));
+        for (int e = 0; e < edges.length; e++) {
+            int src = (int) (edges[e] >>> 32);
+            int dst = (int) edges[e];
+            if (src == dst || (e > 0 && edges[e] == edges[e - 1])) {
+                continue;
+            }
+            writer.write(src + "\t" + dst + "\n");
+            numEdges++;
+            for (int page : new int[] {src, dst}) {
+                if (!seen[page]) {
+                    seen[page] = true;
+                    numPages++;
+                }
+            }
+        }
+        writer.close();
+    }
+
+    public static void main(String[] args) throws IOException {
+        File graphFile = new File(args[0]);
+        int scale = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        int edgeFactor = args.length > 2 ? Integer.parseInt(args[2]) : 8;
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42;
+        RmatGraphGenerator generator = args.length > 6
+                ? new RmatGraphGenerator(scale, edgeFactor, Double.parseDouble(args[4]),
+                        Double.parseDouble(args[5]), Double.parseDouble(args[6]), seed)
+                : new RmatGraphGenerator(scale, edgeFactor, seed);
+        generator.write(graphFile);
+        System.out.println(graphFile + ": " + generator.numPages + " pages, " + generator.numEdges + " links");
+    }
+}
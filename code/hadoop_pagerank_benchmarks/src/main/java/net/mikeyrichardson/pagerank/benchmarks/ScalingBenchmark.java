@@ -0,0 +1,125 @@
+package net.mikeyrichardson.pagerank.benchmarks;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ToolRunner;
+
+import net.mikeyrichardson.pagerank.CalculatePageRank;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the whole CalculatePageRank pipeline on R-MAT graphs of several sizes with
+ * several numbers of divs, on the local job runner so that no cluster is needed.
+ * Every run writes its iteration report next to the graphs, and a summary row with
+ * the number of iterations, the time, the materialized map output, the garbage
+ * collection time and the bytes allocated by the tasks per iteration is added to
+ * summary.csv in the output directory and printed. Arguments are the output
+ * directory, a comma separated list of scales (log2 of the number of pages), a comma
+ * separated list of numbers of divs and the number of links per page; any further
+ * arguments, such as -Dmap.iteration.fused=true, are passed on to every run.
+ * @author Michael Richardson
+ *
+ */
+public class ScalingBenchmark {
+
+    final private static String HEADER = "scale,pages,links,divs,iterations,seconds,"
+            + "iteration_seconds,iteration_seconds_mean,iteration_map_output_bytes_mean,"
+            + "iteration_gc_seconds_mean,iteration_allocated_bytes_mean";
+
+    public static void main(String[] args) throws Exception {
+        File outputDir = new File(args[0]);
+        int[] scales = parseList(args.length > 1 ? args[1] : "12,14,16");
+        int[] divs = parseList(args.length > 2 ? args[2] : "1,2,4,8");
+        int edgeFactor = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+        String[] options = args.length > 4 ? Arrays.copyOfRange(args, 4, args.length) : new String[0];
+        outputDir.mkdirs();
+
+        PrintWriter summary = new PrintWriter(new File(outputDir, "summary.csv"));
+        summary.println(HEADER);
+        System.out.println(HEADER);
+        for (int scale : scales) {
+            File graphFile = new File(outputDir, "rmat-" + scale + ".txt");
+            RmatGraphGenerator generator = new RmatGraphGenerator(scale, edgeFactor, 42);
+            generator.write(graphFile);
+            for (int numDivs : divs) {
+                String name = "rmat-" + scale + "-divs-" + numDivs;
+                File reportFile = new File(outputDir, name + ".csv");
+                List<String> runArgs = new ArrayList<String>(Arrays.asList(options));
+                runArgs.add("-Dmap.divs.num=" + numDivs);
+                runArgs.add("-Dmap.report.path=" + reportFile.getAbsolutePath());
+                runArgs.add(graphFile.getPath());
+                runArgs.add(new File(outputDir, name + "-ranks.txt").getPath());
+                long startTime = System.currentTimeMillis();
+                int exitCode = ToolRunner.run(localConfiguration(), new CalculatePageRank(),
+                        runArgs.toArray(new String[runArgs.size()]));
+                long millis = System.currentTimeMillis() - startTime;
+                if (exitCode != 0) {
+                    System.err.println(name + " failed with exit code " + exitCode);
+                    continue;
+                }
+                String row = scale + "," + generator.numPages + "," + generator.numEdges + "," + numDivs + ","
+                        + summarize(reportFile, millis);
+                summary.println(row);
+                summary.flush();
+                System.out.println(row);
+            }
+        }
+        summary.close();
+    }
+
+    private static Configuration localConfiguration() {
+        Configuration conf = new Configuration();
+        conf.set("fs.defaultFS", "file:///");
+        conf.set("mapreduce.framework.name", "local");
+        // the report counters of every job would otherwise go over the default limit
+        conf.setInt("mapreduce.job.counters.max", 10000);
+        return conf;
+    }
+
+    // the iteration count, the times and the mean map output, garbage collection time and
+    // allocations per iteration of a run
+    private static String summarize(File reportFile, long millis) throws IOException {
+        int numIterations = 0;
+        double iterationSeconds = 0.0;
+        long iterationBytes = 0;
+        double iterationGcSeconds = 0.0;
+        long iterationAllocatedBytes = 0;
+        BufferedReader reader = new BufferedReader(new FileReader(reportFile));
+        reader.readLine();
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.split(",", -1);
+            if (fields[1].equals("iteration")) {
+                numIterations++;
+                iterationSeconds += Double.parseDouble(fields[2]);
+            }
+            else if (Integer.parseInt(fields[0]) > 0) {
+                iterationBytes += Long.parseLong(fields[7]);
+                iterationGcSeconds += Double.parseDouble(fields[19]);
+                iterationAllocatedBytes += Long.parseLong(fields[20]);
+            }
+        }
+        reader.close();
+        return numIterations + "," + millis / 1000.0 + "," + iterationSeconds + ","
+                + iterationSeconds / Math.max(1, numIterations) + ","
+                + iterationBytes / Math.max(1, numIterations) + ","
+                + iterationGcSeconds / Math.max(1, numIterations) + ","
+                + iterationAllocatedBytes / Math.max(1, numIterations);
+    }
+
+    private static int[] parseList(String list) {
+        String[] items = list.split(",");
+        int[] values = new int[items.length];
+        for (int i = 0; i < items.length; i++) {
+            values[i] = Integer.parseInt(items[i]);
+        }
+        return values;
+    }
+}
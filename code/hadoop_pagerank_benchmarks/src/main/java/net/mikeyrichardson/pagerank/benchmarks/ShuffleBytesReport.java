@@ -0,0 +1,24 @@
+package net.mikeyrichardson.pagerank.benchmarks;
+
+import java.io.IOException;
+
+/**
+ * Prints the number of intermediate bytes of the synthetic multiplication shuffle
+ * used by {@link ShuffleSortBenchmark} with the legacy and the compact encodings.
+ * Arguments are the number of divisions, pages and edges.
+ * @author Michael Richardson
+ *
+ */
+public class ShuffleBytesReport {
+
+    public static void main(String[] args) throws IOException {
+        int numDivs = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int numPages = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        int numEdges = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+        ShuffleData data = new ShuffleData(numDivs, numPages, numEdges, 42);
+        System.out.println("records\tlegacy bytes\tcompact bytes\tlegacy bytes/record\tcompact bytes/record");
+        System.out.println(data.numRecords + "\t" + data.legacyBytes() + "\t" + data.compactBytes() + "\t"
+                + ((double) data.legacyBytes() / data.numRecords) + "\t"
+                + ((double) data.compactBytes() / data.numRecords));
+    }
+}
@@ -0,0 +1,78 @@
+package net.mikeyrichardson.pagerank.benchmarks;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+
+import net.mikeyrichardson.pagerank.benchmarks.LegacyEncoding.LegacyBlockEntryKey;
+import net.mikeyrichardson.pagerank.io.BlockEntryKey;
+import net.mikeyrichardson.pagerank.io.MatrixEntryWritable;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Synthetic map output of the matrix/vector multiplication job, serialized with both
+ * the legacy and the compact encodings. Matrix entries are spread uniformly over the 
+ * blocks and each column block's vector entries are replicated to every block row,
+ * as VectorMapper does.
+ * @author Michael Richardson
+ *
+ */
+public class ShuffleData {
+    
+    public final int numRecords;
+    public final DataOutputBuffer legacyKeys = new DataOutputBuffer();
+    public final DataOutputBuffer compactKeys = new DataOutputBuffer();
+    public final int[] legacyKeyOffsets;
+    public final int[] compactKeyOffsets;
+    public long legacyValueBytes = 0;
+    public long compactValueBytes = 0;
+    
+    public ShuffleData(int numDivs, int numPages, int numEdges, long seed) throws IOException {
+        int numPagesPerDiv = numPages / numDivs;
+        this.numRecords = numEdges + numPagesPerDiv * numDivs * numDivs;
+        this.legacyKeyOffsets = new int[numRecords + 1];
+        this.compactKeyOffsets = new int[numRecords + 1];
+        Random random = new Random(seed);
+        DataOutputBuffer legacyValues = new DataOutputBuffer();
+        DataOutputBuffer compactValues = new DataOutputBuffer();
+        int record = 0;
+        for (int edge = 0; edge < numEdges; edge++) {
+            int blockRow = random.nextInt(numDivs);
+            int blockCol = random.nextInt(numDivs);
+            int entryRow = random.nextInt(numPagesPerDiv);
+            int entryCol = random.nextInt(numPagesPerDiv);
+            double value = 1.0 / (1 + random.nextInt(20));
+            append(record++, blockRow, blockCol, BlockEntryKey.MATRIX_SOURCE, 
+                    entryRow, entryCol, value, legacyValues, compactValues);
+        }
+        for (int blockCol = 0; blockCol < numDivs; blockCol++) {
+            for (int page = 0; page < numPagesPerDiv; page++) {
+                for (int blockRow = 0; blockRow < numDivs; blockRow++) {
+                    append(record++, blockRow, blockCol, BlockEntryKey.VECTOR_SOURCE, 
+                            page, 0, 1.0 / numPages, legacyValues, compactValues);
+                }
+            }
+        }
+        this.legacyValueBytes = legacyValues.getLength();
+        this.compactValueBytes = compactValues.getLength();
+    }
+    
+    private void append(int record, int blockRow, int blockCol, int source, int entryRow, 
+            int entryCol, double value, DataOutputBuffer legacyValues, DataOutputBuffer compactValues) 
+            throws IOException {
+        new LegacyBlockEntryKey(blockRow, blockCol, source).write(legacyKeys);
+        new BlockEntryKey(blockRow, blockCol, source).write(compactKeys);
+        legacyKeyOffsets[record + 1] = legacyKeys.getLength();
+        compactKeyOffsets[record + 1] = compactKeys.getLength();
+        LegacyEncoding.writeMatrixEntry(legacyValues, entryRow, entryCol, value);
+        new MatrixEntryWritable(entryRow, entryCol, value).write(compactValues);
+    }
+    
+    public long legacyBytes() {
+        return legacyKeys.getLength() + legacyValueBytes;
+    }
+    
+    public long compactBytes() {
+        return compactKeys.getLength() + compactValueBytes;
+    }
+}
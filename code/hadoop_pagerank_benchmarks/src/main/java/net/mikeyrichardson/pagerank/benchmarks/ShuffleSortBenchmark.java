@@ -0,0 +1,96 @@
+package net.mikeyrichardson.pagerank.benchmarks;
+
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.util.IndexedSortable;
+import org.apache.hadoop.util.QuickSort;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.mikeyrichardson.pagerank.benchmarks.LegacyEncoding.LegacyBlockEntryKey;
+import net.mikeyrichardson.pagerank.io.BlockEntryKey;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorts the serialized keys of a synthetic multiplication shuffle the same way the 
+ * map side sort does, once with the legacy keys (deserialized on every comparison)
+ * and once with the compact keys and their registered raw comparator. Run 
+ * {@link ShuffleBytesReport} for the matching intermediate byte counts.
+ * @author Michael Richardson
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShuffleSortBenchmark {
+    
+    @Param({"4"})
+    public int numDivs;
+    
+    @Param({"20000"})
+    public int numPages;
+    
+    @Param({"200000"})
+    public int numEdges;
+    
+    private ShuffleData data;
+    private int[] order;
+    
+    @Setup(Level.Trial)
+    public void createData() throws IOException {
+        data = new ShuffleData(numDivs, numPages, numEdges, 42);
+        order = new int[data.numRecords];
+    }
+    
+    @Setup(Level.Invocation)
+    public void resetOrder() {
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+    }
+    
+    @Benchmark
+    public int sortLegacyKeys() {
+        return sort(data.legacyKeys.getData(), data.legacyKeyOffsets, 
+                WritableComparator.get(LegacyBlockEntryKey.class));
+    }
+    
+    @Benchmark
+    public int sortCompactKeys() {
+        return sort(data.compactKeys.getData(), data.compactKeyOffsets, 
+                WritableComparator.get(BlockEntryKey.class));
+    }
+    
+    private int sort(final byte[] keys, final int[] offsets, final RawComparator<?> comparator) {
+        new QuickSort().sort(new IndexedSortable() {
+            public int compare(int i, int j) {
+                int a = order[i];
+                int b = order[j];
+                return comparator.compare(keys, offsets[a], offsets[a + 1] - offsets[a], 
+                        keys, offsets[b], offsets[b + 1] - offsets[b]);
+            }
+            
+            public void swap(int i, int j) {
+                int tmp = order[i];
+                order[i] = order[j];
+                order[j] = tmp;
+            }
+        }, 0, order.length);
+        return order[0];
+    }
+}
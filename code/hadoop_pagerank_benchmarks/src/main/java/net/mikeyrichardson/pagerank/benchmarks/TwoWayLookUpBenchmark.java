@@ -0,0 +1,89 @@
+package net.mikeyrichardson.pagerank.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.mikeyrichardson.pagerank.CalculatePageRank.TwoWayLookUp;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Numbers the page IDs of a synthetic edge list with the lookup the local dictionary
+ * and the local engine use. Inserting numbers every distinct page once, and looking up
+ * goes through the source and destination of every edge against a full lookup.
+ * @author Michael Richardson
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TwoWayLookUpBenchmark {
+
+    @Param({"100000"})
+    public int numPages;
+
+    @Param({"1000000"})
+    public int numEdges;
+
+    private String[] pageIds;
+    private String[] edgePageIds;
+    private TwoWayLookUp<String> fullLookUp;
+
+    @Setup(Level.Trial)
+    public void createIds() {
+        Random random = new Random(42);
+        pageIds = new String[numPages];
+        for (int i = 0; i < numPages; i++) {
+            pageIds[i] = "http://example.com/" + Integer.toHexString(random.nextInt()) + "/" + i;
+        }
+        edgePageIds = new String[2 * numEdges];
+        for (int i = 0; i < edgePageIds.length; i++) {
+            edgePageIds[i] = pageIds[random.nextInt(numPages)];
+        }
+        fullLookUp = new TwoWayLookUp<String>();
+        for (String id : pageIds) {
+            fullLookUp.getValue(id);
+        }
+    }
+
+    @Benchmark
+    public int insert() {
+        TwoWayLookUp<String> lookUp = new TwoWayLookUp<String>();
+        for (String id : pageIds) {
+            lookUp.getValue(id);
+        }
+        return lookUp.size();
+    }
+
+    @Benchmark
+    public long lookUpEdges() {
+        long sum = 0;
+        for (String id : edgePageIds) {
+            sum += fullLookUp.getValue(id);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int reverseLookUp() {
+        int length = 0;
+        for (int i = 0; i < numPages; i++) {
+            length += fullLookUp.getKey(i).length();
+        }
+        return length;
+    }
+}
@@ -0,0 +1,171 @@
+package net.mikeyrichardson.pagerank.benchmarks;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableComparator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import net.mikeyrichardson.pagerank.io.BlockEntryKey;
+import net.mikeyrichardson.pagerank.io.MatrixEntryWritable;
+import net.mikeyrichardson.pagerank.io.RowColWritable;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes, reads and compares arrays of the keys and values that go through the
+ * shuffle. The key comparisons are made on the serialized keys the way the sort does,
+ * with the raw comparator registered for BlockEntryKey and with the generic
+ * deserializing comparator for RowColWritable, which has none.
+ * @author Michael Richardson
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WritableBenchmark {
+
+    @Param({"100000"})
+    public int numRecords;
+
+    private BlockEntryKey[] keys;
+    private MatrixEntryWritable[] entries;
+    private RowColWritable[] rowCols;
+    private DataOutputBuffer out = new DataOutputBuffer();
+    private DataInputBuffer in = new DataInputBuffer();
+    private DataOutputBuffer serializedKeys = new DataOutputBuffer();
+    private DataOutputBuffer serializedEntries = new DataOutputBuffer();
+    private DataOutputBuffer serializedRowCols = new DataOutputBuffer();
+    private int[] keyOffsets;
+    private int[] rowColOffsets;
+
+    @Setup(Level.Trial)
+    public void createRecords() throws IOException {
+        Random random = new Random(42);
+        keys = new BlockEntryKey[numRecords];
+        entries = new MatrixEntryWritable[numRecords];
+        rowCols = new RowColWritable[numRecords];
+        keyOffsets = new int[numRecords + 1];
+        rowColOffsets = new int[numRecords + 1];
+        for (int i = 0; i < numRecords; i++) {
+            keys[i] = new BlockEntryKey(random.nextInt(16), random.nextInt(16), random.nextInt(2));
+            entries[i] = new MatrixEntryWritable(random.nextInt(1 << 20), random.nextInt(1 << 20),
+                    1.0 / (1 + random.nextInt(50)));
+            rowCols[i] = new RowColWritable(random.nextInt(1 << 20), random.nextInt(1 << 20));
+            keys[i].write(serializedKeys);
+            keyOffsets[i + 1] = serializedKeys.getLength();
+            entries[i].write(serializedEntries);
+            rowCols[i].write(serializedRowCols);
+            rowColOffsets[i + 1] = serializedRowCols.getLength();
+        }
+    }
+
+    @Benchmark
+    public int writeBlockEntryKeys() throws IOException {
+        out.reset();
+        for (int i = 0; i < numRecords; i++) {
+            keys[i].write(out);
+        }
+        return out.getLength();
+    }
+
+    @Benchmark
+    public int readBlockEntryKeys() throws IOException {
+        in.reset(serializedKeys.getData(), serializedKeys.getLength());
+        BlockEntryKey key = new BlockEntryKey();
+        int sum = 0;
+        for (int i = 0; i < numRecords; i++) {
+            key.readFields(in);
+            sum += key.col.get();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int writeMatrixEntries() throws IOException {
+        out.reset();
+        for (int i = 0; i < numRecords; i++) {
+            entries[i].write(out);
+        }
+        return out.getLength();
+    }
+
+    @Benchmark
+    public double readMatrixEntries() throws IOException {
+        in.reset(serializedEntries.getData(), serializedEntries.getLength());
+        MatrixEntryWritable entry = new MatrixEntryWritable();
+        double sum = 0.0;
+        for (int i = 0; i < numRecords; i++) {
+            entry.readFields(in);
+            sum += entry.value.get();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int writeRowCols() throws IOException {
+        out.reset();
+        for (int i = 0; i < numRecords; i++) {
+            rowCols[i].write(out);
+        }
+        return out.getLength();
+    }
+
+    @Benchmark
+    public int readRowCols() throws IOException {
+        in.reset(serializedRowCols.getData(), serializedRowCols.getLength());
+        RowColWritable rowCol = new RowColWritable();
+        int sum = 0;
+        for (int i = 0; i < numRecords; i++) {
+            rowCol.readFields(in);
+            sum += rowCol.col.get();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int compareBlockEntryKeys() {
+        return compareNeighbours(serializedKeys.getData(), keyOffsets,
+                WritableComparator.get(BlockEntryKey.class));
+    }
+
+    @Benchmark
+    public int compareBlockEntryKeyObjects() {
+        int sum = 0;
+        for (int i = 1; i < numRecords; i++) {
+            sum += keys[i - 1].compareTo(keys[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int compareRowCols() {
+        return compareNeighbours(serializedRowCols.getData(), rowColOffsets,
+                WritableComparator.get(RowColWritable.class));
+    }
+
+    private int compareNeighbours(byte[] data, int[] offsets, RawComparator<?> comparator) {
+        int sum = 0;
+        for (int i = 1; i < numRecords; i++) {
+            sum += comparator.compare(data, offsets[i - 1], offsets[i] - offsets[i - 1],
+                    data, offsets[i], offsets[i + 1] - offsets[i]);
+        }
+        return sum;
+    }
+}